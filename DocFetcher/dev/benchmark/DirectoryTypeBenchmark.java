@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sourceforge.docfetcher.model.DirectoryType;
+import net.sourceforge.docfetcher.model.Document;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Compares the query throughput of the Lucene directory types under
+ * concurrent load, as caused by searches from the GUI and from several
+ * clients of the web interface at the same time. For each
+ * {@link DirectoryType}, one shared reader is opened on the index, and a
+ * number of "GUI" and "web" threads run queries on it for a fixed time,
+ * loading the stored fields of the top hits like the result panel does.
+ * <p>
+ * If no index folder is given, a synthetic index with random words is
+ * created in a temporary folder. The timings depend heavily on whether the
+ * index files are in the page cache, so the first run of each type is a
+ * warm-up and isn't reported.
+ * <p>
+ * Usage, from the project root with the compiled classes in <tt>bin</tt>:
+ *
+ * <pre>
+ * javac -cp bin:lib/lucene-core-3.0.0.jar -d /tmp dev/benchmark/DirectoryTypeBenchmark.java
+ * java -cp bin:lib/lucene-core-3.0.0.jar:/tmp DirectoryTypeBenchmark [index-folder] [-seconds n] [-gui n] [-web n]
+ * </pre>
+ *
+ * @author Tran Nam Quang
+ */
+public class DirectoryTypeBenchmark {
+
+	private static final int N_DOCS = 50000;
+	private static final int N_WORDS = 20000;
+	private static final int DOC_LENGTH = 300;
+	private static final int MAX_RESULTS = 100;
+	private static final int LOADED_RESULTS = 10;
+
+	/** Same configuration as the analyzer of the program. */
+	private static final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT, new HashSet<String> ());
+
+	private static int seconds = 10;
+	private static int guiThreads = 1;
+	private static int webThreads = 4;
+
+	public static void main(String[] args) throws Exception {
+		File indexDir = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-seconds"))
+				seconds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-gui"))
+				guiThreads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-web"))
+				webThreads = Integer.parseInt(args[++i]);
+			else
+				indexDir = new File(args[i]);
+		}
+		if (indexDir == null) {
+			indexDir = new File(System.getProperty("java.io.tmpdir"), "DirectoryTypeBenchmark");
+			if (! new File(indexDir, "segments.gen").exists()) {
+				System.out.println("Creating synthetic index in " + indexDir);
+				createIndex(indexDir);
+			}
+		}
+
+		String[] queries = createQueries(new Random(0));
+		for (DirectoryType type : DirectoryType.values()) {
+			Directory dir = type.open(indexDir);
+			IndexReader reader = IndexReader.open(dir, true);
+			try {
+				run(reader, queries, 2); // Warm-up
+				long[] counts = run(reader, queries, seconds);
+				System.out.println(String.format(
+						"%-6s: GUI %7.1f queries/s, web %7.1f queries/s, total %7.1f queries/s",
+						type.prefValue,
+						(double) counts[0] / seconds,
+						(double) counts[1] / seconds,
+						(double) (counts[0] + counts[1]) / seconds));
+			} finally {
+				reader.close();
+				dir.close();
+			}
+		}
+	}
+
+	/**
+	 * Runs the GUI and web threads on the given reader for the given number of
+	 * seconds and returns the number of queries completed by each group.
+	 */
+	private static long[] run(final IndexReader reader, final String[] queries, int seconds) throws InterruptedException {
+		final AtomicLong guiCount = new AtomicLong();
+		final AtomicLong webCount = new AtomicLong();
+		final long deadline = System.currentTimeMillis() + seconds * 1000L;
+		List<Thread> threads = new ArrayList<Thread> ();
+		for (int i = 0; i < guiThreads + webThreads; i++) {
+			final AtomicLong count = i < guiThreads ? guiCount : webCount;
+			final int seed = i;
+			threads.add(new Thread() {
+				public void run() {
+					Random random = new Random(seed);
+					QueryParser parser = new QueryParser(Version.LUCENE_CURRENT, Document.contents, analyzer);
+					parser.setAllowLeadingWildcard(true);
+					IndexSearcher searcher = new IndexSearcher(reader);
+					try {
+						while (System.currentTimeMillis() < deadline) {
+							Query query = parser.parse(queries[random.nextInt(queries.length)]);
+							TopScoreDocCollector collector = TopScoreDocCollector.create(MAX_RESULTS, false);
+							searcher.search(query, collector);
+							ScoreDoc[] hits = collector.topDocs().scoreDocs;
+							for (int j = 0; j < Math.min(hits.length, LOADED_RESULTS); j++)
+								searcher.doc(hits[j].doc);
+							count.incrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		return new long[] {guiCount.get(), webCount.get()};
+	}
+
+	/**
+	 * Creates an index with random documents in the given folder.
+	 */
+	private static void createIndex(File indexDir) throws Exception {
+		Random random = new Random(0);
+		Directory dir = DirectoryType.SIMPLE.open(indexDir);
+		IndexWriter writer = new IndexWriter(dir, analyzer, true, MaxFieldLength.UNLIMITED);
+		try {
+			for (int i = 0; i < N_DOCS; i++) {
+				StringBuilder contents = new StringBuilder();
+				for (int j = 0; j < DOC_LENGTH; j++)
+					contents.append(getWord(random)).append(' ');
+				String path = "/synthetic/" + i + ".txt";
+				org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+				doc.add(new Field(Document.path, path, Field.Store.YES, Field.Index.NO));
+				doc.add(new Field(Document.filename, i + ".txt", Field.Store.YES, Field.Index.ANALYZED));
+				doc.add(new Field(Document.title, getWord(random), Field.Store.YES, Field.Index.ANALYZED));
+				doc.add(new Field(Document.contents, contents.toString(), Field.Store.NO, Field.Index.ANALYZED));
+				writer.addDocument(doc);
+			}
+			writer.optimize();
+		} finally {
+			writer.close();
+			dir.close();
+		}
+	}
+
+	/**
+	 * Returns a mix of term, phrase, boolean, prefix and wildcard queries on
+	 * the words of the synthetic index.
+	 */
+	private static String[] createQueries(Random random) {
+		String[] queries = new String[200];
+		for (int i = 0; i < queries.length; i++) {
+			switch (i % 5) {
+			case 0: queries[i] = getWord(random); break;
+			case 1: queries[i] = "\"" + getWord(random) + " " + getWord(random) + "\""; break;
+			case 2: queries[i] = getWord(random) + " OR " + getWord(random); break;
+			case 3: queries[i] = getWord(random).substring(0, 3) + "*"; break;
+			default: queries[i] = "*" + getWord(random).substring(2);
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * Returns a random word of the vocabulary, with a skewed distribution so
+	 * that some words are much more frequent than others.
+	 */
+	private static String getWord(Random random) {
+		double x = random.nextDouble();
+		int n = (int) (N_WORDS * x * x * x);
+		return "w" + Integer.toString(n * 7919 % 1000003 + 100000, 36);
+	}
+
+}
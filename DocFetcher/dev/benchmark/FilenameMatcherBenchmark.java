@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+import java.util.Random;
+
+import net.sourceforge.docfetcher.util.FilenameMatcher;
+
+/**
+ * Measures how long it takes to check 1M filenames against a typical set of
+ * exclusion filters, comparing the old <tt>String.matches</tt> loop with
+ * {@link FilenameMatcher}.
+ * <p>
+ * Usage, from the project root with the compiled classes in <tt>bin</tt>:
+ *
+ * <pre>
+ * javac -cp bin -d /tmp dev/benchmark/FilenameMatcherBenchmark.java
+ * java -cp bin:/tmp FilenameMatcherBenchmark
+ * </pre>
+ *
+ * @author Tran Nam Quang
+ */
+public class FilenameMatcherBenchmark {
+
+	private static final int N_FILES = 1000000;
+	private static final int RUNS = 3;
+
+	private static final String[] filters = {
+		".*\\.bak", ".*\\.tmp", "~.*", "Thumbs\\.db", ".*backup.*", "[0-9]+\\.log"
+	};
+
+	private static final String[] extensions = {
+		"txt", "doc", "pdf", "html", "bak", "tmp", "xls", "log", "odt"
+	};
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		String[] names = new String[N_FILES];
+		for (int i = 0; i < N_FILES; i++) {
+			StringBuilder sb = new StringBuilder();
+			if (random.nextInt(50) == 0)
+				sb.append('~');
+			int length = 3 + random.nextInt(20);
+			for (int j = 0; j < length; j++)
+				sb.append((char) ('a' + random.nextInt(26)));
+			if (random.nextInt(100) == 0)
+				sb.append("backup");
+			sb.append('.').append(extensions[random.nextInt(extensions.length)]);
+			names[i] = sb.toString();
+		}
+
+		FilenameMatcher matcher = new FilenameMatcher(filters);
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			int legacyCount = 0;
+			for (String name : names)
+				if (legacyMatches(name))
+					legacyCount++;
+			long legacyTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int count = 0;
+			for (String name : names)
+				if (matcher.matches(name))
+					count++;
+			long time = System.nanoTime() - start;
+
+			if (count != legacyCount)
+				throw new IllegalStateException(count + " != " + legacyCount);
+			System.out.println(String.format(
+					"Run %d: %d of %d excluded; String.matches: %d ms, FilenameMatcher: %d ms",
+					run + 1, count, N_FILES, legacyTime / 1000000, time / 1000000));
+		}
+	}
+
+	/**
+	 * The implementation of <tt>RootScope.isExcluded</tt> before the
+	 * introduction of <tt>FilenameMatcher</tt>.
+	 */
+	private static boolean legacyMatches(String name) {
+		for (String pattern : filters)
+			if (name.matches(pattern))
+				return true;
+		return false;
+	}
+
+}
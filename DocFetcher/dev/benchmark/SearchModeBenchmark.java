@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.docfetcher.model.CompositeSearcher;
+import net.sourceforge.docfetcher.model.DirectoryType;
+import net.sourceforge.docfetcher.model.Document;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Validates the {@link CompositeSearcher} against the <tt>MultiSearcher</tt>
+ * on a corpus of queries, and compares their query times. The
+ * <tt>CompositeSearcher</tt> wraps the readers of all indexes in one
+ * <tt>MultiReader</tt>, while the <tt>MultiSearcher</tt> combines one
+ * <tt>IndexSearcher</tt> per index.
+ * <p>
+ * For each query, both modes must return the same number of hits and the
+ * same top hits with the same scores, in the same order. Differences are
+ * printed, and the program exits with status 1 if there are any.
+ * <p>
+ * The queries are read from a file with one query per line, in the syntax of
+ * the search field, or generated if no file is given. If no index folders
+ * are given, 30 synthetic indexes with random words are created in a
+ * temporary folder.
+ * <p>
+ * Usage, from the project root with the compiled classes in <tt>bin</tt>:
+ *
+ * <pre>
+ * javac -cp bin:lib/lucene-core-3.0.0.jar -d /tmp dev/benchmark/SearchModeBenchmark.java
+ * java -cp bin:lib/lucene-core-3.0.0.jar:/tmp SearchModeBenchmark [-queries file] [index-folder...]
+ * </pre>
+ *
+ * @author Tran Nam Quang
+ */
+public class SearchModeBenchmark {
+
+	private static final int N_INDEXES = 30;
+	private static final int N_DOCS = 2000;
+	private static final int N_WORDS = 20000;
+	private static final int DOC_LENGTH = 200;
+	private static final int MAX_RESULTS = 1000;
+	private static final int RUNS = 5;
+
+	/** Same configuration as the analyzer of the program. */
+	private static final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT, new HashSet<String> ());
+
+	public static void main(String[] args) throws Exception {
+		File queryFile = null;
+		List<File> indexDirs = new ArrayList<File> ();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-queries"))
+				queryFile = new File(args[++i]);
+			else
+				indexDirs.add(new File(args[i]));
+		}
+		if (indexDirs.isEmpty()) {
+			File parent = new File(System.getProperty("java.io.tmpdir"), "SearchModeBenchmark");
+			Random random = new Random(0);
+			for (int i = 0; i < N_INDEXES; i++) {
+				File indexDir = new File(parent, "index" + i);
+				if (! new File(indexDir, "segments.gen").exists()) {
+					System.out.println("Creating synthetic index in " + indexDir);
+					createIndex(indexDir, random);
+				}
+				indexDirs.add(indexDir);
+			}
+		}
+		List<String> queries = queryFile == null ? createQueries(new Random(0)) : readQueries(queryFile);
+
+		// Open the indexes the same way as the program does
+		IndexReader[] readers = new IndexReader[indexDirs.size()];
+		Searchable[] searchables = new Searchable[readers.length];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = IndexReader.open(DirectoryType.MMAP.open(indexDirs.get(i)), true);
+			searchables[i] = new IndexSearcher(readers[i]);
+		}
+		MultiSearcher multiSearcher = new MultiSearcher(searchables);
+		CompositeSearcher compositeSearcher = new CompositeSearcher(readers);
+
+		QueryParser queryParser = new QueryParser(Version.LUCENE_CURRENT, Document.contents, analyzer);
+		queryParser.setAllowLeadingWildcard(true);
+		queryParser.setMultiTermRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_QUERY_REWRITE);
+		queryParser.setDefaultOperator(QueryParser.AND_OPERATOR);
+		List<Query> parsedQueries = new ArrayList<Query> ();
+		for (String query : queries)
+			parsedQueries.add(queryParser.parse(query));
+
+		// Validation
+		int mismatches = 0;
+		for (int i = 0; i < parsedQueries.size(); i++) {
+			Query query = parsedQueries.get(i);
+			TopScoreDocCollector expected = search(multiSearcher, query);
+			TopScoreDocCollector actual = search(compositeSearcher, query);
+			String diff = compare(expected, actual);
+			if (diff != null) {
+				mismatches++;
+				System.out.println("Mismatch for query '" + queries.get(i) + "': " + diff);
+			}
+		}
+		System.out.println(String.format("%d queries on %d indexes, %d mismatches",
+				queries.size(), readers.length, mismatches));
+
+		// Timing
+		for (int run = 0; run < RUNS; run++) {
+			long multiTime = time(multiSearcher, parsedQueries);
+			long compositeTime = time(compositeSearcher, parsedQueries);
+			System.out.println(String.format(
+					"Run %d: MultiSearcher: %d ms, composite: %d ms",
+					run + 1, multiTime / 1000000, compositeTime / 1000000));
+		}
+		System.exit(mismatches == 0 ? 0 : 1);
+	}
+
+	private static TopScoreDocCollector search(Searcher searcher, Query query) throws Exception {
+		TopScoreDocCollector collector = TopScoreDocCollector.create(MAX_RESULTS, false);
+		searcher.search(query, collector);
+		return collector;
+	}
+
+	/**
+	 * Returns a description of the first difference between the given
+	 * results, or null if they're equal.
+	 */
+	private static String compare(TopScoreDocCollector expected, TopScoreDocCollector actual) {
+		if (expected.getTotalHits() != actual.getTotalHits())
+			return expected.getTotalHits() + " vs. " + actual.getTotalHits() + " hits";
+		ScoreDoc[] expectedHits = expected.topDocs().scoreDocs;
+		ScoreDoc[] actualHits = actual.topDocs().scoreDocs;
+		for (int i = 0; i < expectedHits.length; i++) {
+			ScoreDoc e = expectedHits[i];
+			ScoreDoc a = actualHits[i];
+			if (e.doc != a.doc || e.score != a.score)
+				return "hit " + i + ": doc " + e.doc + " (" + e.score + ") vs. doc " + a.doc + " (" + a.score + ")";
+		}
+		return null;
+	}
+
+	private static long time(Searcher searcher, List<Query> queries) throws Exception {
+		long start = System.nanoTime();
+		for (Query query : queries) {
+			ScoreDoc[] hits = search(searcher, query).topDocs().scoreDocs;
+			for (int i = 0; i < Math.min(hits.length, 10); i++)
+				searcher.doc(hits[i].doc);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Creates an index with random documents in the given folder.
+	 */
+	private static void createIndex(File indexDir, Random random) throws Exception {
+		Directory dir = DirectoryType.SIMPLE.open(indexDir);
+		IndexWriter writer = new IndexWriter(dir, analyzer, true, MaxFieldLength.UNLIMITED);
+		try {
+			int nDocs = N_DOCS / 2 + random.nextInt(N_DOCS);
+			for (int i = 0; i < nDocs; i++) {
+				StringBuilder contents = new StringBuilder();
+				for (int j = 0; j < DOC_LENGTH; j++)
+					contents.append(getWord(random)).append(' ');
+				org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+				doc.add(new Field(Document.path, indexDir.getName() + "/" + i + ".txt", Field.Store.YES, Field.Index.NO));
+				doc.add(new Field(Document.contents, contents.toString(), Field.Store.NO, Field.Index.ANALYZED));
+				writer.addDocument(doc);
+			}
+		} finally {
+			writer.close();
+			dir.close();
+		}
+	}
+
+	private static List<String> readQueries(File file) throws Exception {
+		List<String> queries = new ArrayList<String> ();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (line.trim().length() > 0)
+					queries.add(line.trim());
+		} finally {
+			reader.close();
+		}
+		return queries;
+	}
+
+	/**
+	 * Returns a mix of term, phrase, boolean, prefix and wildcard queries on
+	 * the words of the synthetic indexes.
+	 */
+	private static List<String> createQueries(Random random) {
+		List<String> queries = new ArrayList<String> ();
+		for (int i = 0; i < 500; i++) {
+			switch (i % 6) {
+			case 0: queries.add(getWord(random)); break;
+			case 1: queries.add("\"" + getWord(random) + " " + getWord(random) + "\""); break;
+			case 2: queries.add(getWord(random) + " OR " + getWord(random)); break;
+			case 3: queries.add(getWord(random) + " " + getWord(random)); break;
+			case 4: queries.add(getWord(random).substring(0, 4) + "*"); break;
+			default: queries.add("*" + getWord(random).substring(3));
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * Returns a random word of the vocabulary, with a skewed distribution so
+	 * that some words are much more frequent than others.
+	 */
+	private static String getWord(Random random) {
+		double x = random.nextDouble();
+		int n = (int) (N_WORDS * x * x * x);
+		return "w" + Integer.toString(n * 7919 % 1000003 + 100000, 36);
+	}
+
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import net.sourceforge.docfetcher.parse.TextDecoder;
+
+/**
+ * Measures the throughput of the text decoding in MB/s for files from 1 KB to
+ * 1 GB, comparing the old char-by-char <tt>FileReader</tt> loop with
+ * {@link TextDecoder#decode(File)} and {@link TextDecoder#openReader(File)}.
+ * <p>
+ * Usage, from the project root with the compiled classes in <tt>bin</tt>:
+ *
+ * <pre>
+ * javac -cp bin -d /tmp dev/benchmark/TextDecoderBenchmark.java
+ * java -Xmx3g -cp bin:/tmp TextDecoderBenchmark [max size in MB]
+ * </pre>
+ *
+ * The test files are written to the temp directory and deleted afterwards.
+ * Measurements that don't fit into the heap are skipped.
+ *
+ * @author Tran Nam Quang
+ */
+public class TextDecoderBenchmark {
+
+	private static final long KB = 1024;
+	private static final long MB = 1024 * KB;
+	private static final long[] sizes = {
+		KB, 64 * KB, MB, 16 * MB, 128 * MB, 1024 * MB
+	};
+
+	/** The old implementation is too slow for large files. */
+	private static final long LEGACY_LIMIT = 128 * MB;
+
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) throws IOException {
+		long maxSize = args.length > 0 ? Long.parseLong(args[0]) * MB : 1024 * MB;
+		System.out.println("Size\tLegacy MB/s\tDecode MB/s\tReader MB/s");
+		for (long size : sizes) {
+			if (size > maxSize)
+				break;
+			File file = File.createTempFile("benchmark", ".txt");
+			try {
+				writeSample(file, size);
+				System.out.println(formatSize(size) + "\t" +
+						measure(file, 0) + "\t" +
+						measure(file, 1) + "\t" +
+						measure(file, 2));
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the best throughput of several runs of the given method as a
+	 * string, or "-" if the method was skipped.
+	 */
+	private static String measure(File file, int method) throws IOException {
+		long size = file.length();
+		if (method == 0 && size > LEGACY_LIMIT)
+			return "-";
+		// The decoded text takes two bytes per char, plus the old buffer while growing
+		if (method < 2 && size * 6 > Runtime.getRuntime().maxMemory())
+			return "-";
+		int runs = size >= 128 * MB ? 1 : RUNS;
+		long best = Long.MAX_VALUE;
+		long checksum = 0;
+		for (int i = 0; i < runs; i++) {
+			System.gc();
+			long start = System.nanoTime();
+			if (method == 0)
+				checksum += legacyDecode(file).length();
+			else if (method == 1)
+				checksum += TextDecoder.decode(file).length();
+			else
+				checksum += readAll(file);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		if (checksum == 0)
+			throw new IllegalStateException();
+		double seconds = Math.max(best, 1) / 1e9;
+		return String.format("%.1f", size / (double) MB / seconds);
+	}
+
+	/**
+	 * The implementation of <tt>TextParser.renderText</tt> before the
+	 * introduction of <tt>TextDecoder</tt>.
+	 */
+	private static String legacyDecode(File file) throws IOException {
+		Reader reader = new BufferedReader(new FileReader(file));
+		try {
+			StringBuffer sb = new StringBuffer();
+			int c;
+			while ((c = reader.read()) != -1)
+				sb.append((char) c);
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the given file through the streaming reader used for indexing
+	 * and returns the number of chars read.
+	 */
+	private static long readAll(File file) throws IOException {
+		Reader reader = TextDecoder.openReader(file);
+		try {
+			char[] buffer = new char[8192];
+			long count = 0;
+			int n;
+			while ((n = reader.read(buffer)) != -1)
+				count += n;
+			return count;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes UTF-8 text with some non-ASCII characters to the given file.
+	 */
+	private static void writeSample(File file, long size) throws IOException {
+		byte[] line = "Lorem ipsum dolor sit amet, \u00fcber gr\u00f6\u00dfere Stra\u00dfen.\n".getBytes("UTF-8");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+		try {
+			for (long written = 0; written < size; written += line.length)
+				out.write(line, 0, (int) Math.min(line.length, size - written));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String formatSize(long size) {
+		if (size >= MB)
+			return size / MB + " MB";
+		return size / KB + " KB";
+	}
+
+}
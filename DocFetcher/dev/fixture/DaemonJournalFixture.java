@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.docfetcher.model.DaemonJournal;
+
+/**
+ * Simulates the file system daemon: Makes random changes in the given
+ * folders and writes them to a change journal in the format read by
+ * {@link DaemonJournal}, as the daemon would have recorded them. The journal
+ * is read back afterwards and a summary is printed.
+ * <p>
+ * The changes are: new text files and folders, appended text, deleted files
+ * and renamed files. With <tt>-dry</tt>, the folders are left untouched and
+ * only modifications of existing files are recorded.
+ * <p>
+ * Usage, from the project root with the compiled classes in <tt>bin</tt>:
+ *
+ * <pre>
+ * javac -cp bin -d /tmp dev/fixture/DaemonJournalFixture.java
+ * java -cp bin:/tmp DaemonJournalFixture [options] journal-file folder...
+ * </pre>
+ *
+ * Options:
+ * <ul>
+ * <li><tt>-changes n</tt>: Number of changes per folder (default: 20)
+ * <li><tt>-seed n</tt>: Seed of the random generator (default: 0)
+ * <li><tt>-dry</tt>: Don't change the folders
+ * <li><tt>-overflow</tt>: Mark the last folder as overflowed
+ * <li><tt>-unwatched</tt>: Leave out the watch record of the last folder
+ * <li><tt>-truncate</tt>: Cut off the last record, as if the daemon had been
+ * terminated while writing it
+ * </ul>
+ * To have the program replay the journal, copy it to
+ * <tt>.indexes.changes</tt> next to <tt>.indexes.txt</tt> before starting
+ * the program, while the daemon is running.
+ *
+ * @author Tran Nam Quang
+ */
+public class DaemonJournalFixture {
+
+	private static final String HEADER = "DFCJ 1\n";
+
+	private static int nChanges = 20;
+	private static long seed = 0;
+	private static boolean dry = false;
+	private static boolean overflow = false;
+	private static boolean unwatched = false;
+	private static boolean truncate = false;
+
+	public static void main(String[] args) throws IOException {
+		List<String> paths = new ArrayList<String> ();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-changes"))
+				nChanges = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-dry"))
+				dry = true;
+			else if (args[i].equals("-overflow"))
+				overflow = true;
+			else if (args[i].equals("-unwatched"))
+				unwatched = true;
+			else if (args[i].equals("-truncate"))
+				truncate = true;
+			else
+				paths.add(args[i]);
+		}
+		if (paths.size() < 2) {
+			System.err.println("Usage: DaemonJournalFixture [options] journal-file folder...");
+			System.exit(1);
+		}
+
+		File journalFile = new File(paths.get(0));
+		List<File> folders = new ArrayList<File> ();
+		for (String path : paths.subList(1, paths.size()))
+			folders.add(new File(path).getAbsoluteFile());
+
+		Random random = new Random(seed);
+		StringBuilder journal = new StringBuilder(HEADER);
+		for (int i = 0; i < folders.size(); i++) {
+			boolean last = i == folders.size() - 1;
+			if (! (last && unwatched))
+				appendRecord(journal, 'R', folders.get(i));
+		}
+		for (int i = 0; i < folders.size(); i++) {
+			File folder = folders.get(i);
+			for (int j = 0; j < nChanges; j++)
+				makeChange(journal, folder, random);
+			if (i == folders.size() - 1 && overflow)
+				appendRecord(journal, 'O', folder);
+		}
+
+		String content = journal.toString();
+		if (truncate)
+			content = content.substring(0, content.length() - 1 - random.nextInt(5));
+		OutputStream out = new FileOutputStream(journalFile);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		// Read the journal back and print what the program would do
+		DaemonJournal readJournal;
+		try {
+			readJournal = DaemonJournal.read(journalFile);
+		} catch (IOException e) {
+			System.out.println("Journal discarded (" + e.getMessage() + "): all folders would be updated entirely");
+			return;
+		}
+		for (File folder : folders) {
+			if (readJournal.isComplete(folder))
+				System.out.println(folder + ": " + readJournal.getChanges(folder).size() + " changed files");
+			else
+				System.out.println(folder + ": would be updated entirely");
+		}
+	}
+
+	/**
+	 * Makes a random change in the given folder and records it in the given
+	 * journal.
+	 */
+	private static void makeChange(StringBuilder journal, File folder, Random random) throws IOException {
+		List<File> files = new ArrayList<File> ();
+		List<File> dirs = new ArrayList<File> ();
+		dirs.add(folder);
+		collect(folder, files, dirs);
+
+		if (dry) {
+			if (! files.isEmpty())
+				appendRecord(journal, 'M', files.get(random.nextInt(files.size())));
+			return;
+		}
+
+		File dir = dirs.get(random.nextInt(dirs.size()));
+		int type = files.isEmpty() ? 0 : random.nextInt(5);
+		switch (type) {
+		case 0: // New file
+			File newFile = new File(dir, "fixture_" + Long.toHexString(random.nextLong()) + ".txt");
+			writeText(newFile, random, false);
+			appendRecord(journal, 'C', newFile);
+			break;
+		case 1: // New folder with a file
+			File newDir = new File(dir, "fixture_" + Long.toHexString(random.nextLong()));
+			newDir.mkdir();
+			appendRecord(journal, 'C', newDir);
+			File subFile = new File(newDir, "fixture.txt");
+			writeText(subFile, random, false);
+			appendRecord(journal, 'C', subFile);
+			break;
+		case 2: // Modification
+			File modFile = files.get(random.nextInt(files.size()));
+			writeText(modFile, random, true);
+			appendRecord(journal, 'M', modFile);
+			break;
+		case 3: // Deletion
+			File delFile = files.get(random.nextInt(files.size()));
+			delFile.delete();
+			appendRecord(journal, 'D', delFile);
+			break;
+		default: // Rename
+			File oldFile = files.get(random.nextInt(files.size()));
+			File renamed = new File(oldFile.getParentFile(), "renamed_" + oldFile.getName());
+			if (oldFile.renameTo(renamed)) {
+				appendRecord(journal, 'D', oldFile);
+				appendRecord(journal, 'C', renamed);
+			}
+		}
+	}
+
+	private static void collect(File dir, List<File> files, List<File> dirs) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		for (File child : children) {
+			if (child.isDirectory()) {
+				dirs.add(child);
+				collect(child, files, dirs);
+			}
+			else {
+				files.add(child);
+			}
+		}
+	}
+
+	private static void writeText(File file, Random random, boolean append) throws IOException {
+		FileWriter writer = new FileWriter(file, append);
+		try {
+			writer.write("fixture " + Long.toHexString(random.nextLong()) + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends a record with the given type and path to the given journal,
+	 * escaping backslashes and line breaks in the path.
+	 */
+	private static void appendRecord(StringBuilder journal, char type, File file) {
+		journal.append(type).append(' ');
+		String path = file.getAbsolutePath();
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '\\')
+				journal.append("\\\\");
+			else if (c == '\n')
+				journal.append("\\n");
+			else if (c == '\r')
+				journal.append("\\r");
+			else
+				journal.append(c);
+		}
+		journal.append('\n');
+	}
+
+}
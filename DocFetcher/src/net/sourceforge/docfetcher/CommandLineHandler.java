@@ -18,11 +18,12 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
 
 import net.sourceforge.docfetcher.enumeration.Msg;
+import net.sourceforge.docfetcher.model.TextCache;
 import net.sourceforge.docfetcher.parse.Parser;
 import net.sourceforge.docfetcher.parse.ParserRegistry;
+import net.sourceforge.docfetcher.util.FilenameMatcher;
 import net.sourceforge.docfetcher.util.UtilFile;
 import net.sourceforge.docfetcher.util.UtilList;
 
@@ -183,20 +184,14 @@ public class CommandLineHandler {
 		if (! line.hasOption(EXTRACT) && ! line.hasOption(EXTRACT_DIR)) return true;
 
 		// Create inclusion and exclusion filters
-		Pattern includeFilter = null;
-		Pattern excludeFilter = null;
-		try {
-			String includeString = line.getOptionValue(INCLUDE); // may be null
-			includeFilter = Pattern.compile(includeString);
-		} catch (Exception e1) {
-			// Ignore
-		}
-		try {
-			String excludeString = line.getOptionValue(EXCLUDE); // may be null
-			excludeFilter = Pattern.compile(excludeString);
-		} catch (Exception e1) {
-			// Ignore
-		}
+		FilenameMatcher includeFilter = null;
+		FilenameMatcher excludeFilter = null;
+		String includeString = line.getOptionValue(INCLUDE); // may be null
+		if (includeString != null)
+			includeFilter = new FilenameMatcher(includeString);
+		String excludeString = line.getOptionValue(EXCLUDE); // may be null
+		if (excludeString != null)
+			excludeFilter = new FilenameMatcher(excludeString);
 
 		// Get sources and destination
 		boolean writeToDir = false;
@@ -268,7 +263,7 @@ public class CommandLineHandler {
 				System.out.println("Extracting (" + i + "/" + nSources + "): " + source.getName());
 				try {
 					File outFile = UtilFile.getNewFile(dest, source.getName() + ".txt");
-					String text = item.getValue().renderText(source);
+					String text = TextCache.getInstance().renderText(source, item.getValue());
 					FileWriter writer = new FileWriter(outFile, false);
 					writer.write(text);
 					writer.close();
@@ -291,7 +286,7 @@ public class CommandLineHandler {
 				Entry<File, Parser> item = sources.entrySet().iterator().next();
 				System.out.println("Extracting: " + item.getKey().getName());
 				try {
-					String text = item.getValue().renderText(item.getKey());
+					String text = TextCache.getInstance().renderText(item.getKey(), item.getValue());
 					FileWriter writer = new FileWriter(dest);
 					writer.write(text);
 					writer.close();
@@ -308,7 +303,7 @@ public class CommandLineHandler {
 						File source = item.getKey();
 						System.out.println("Extracting (" + i + "/" + nSources + "): " + source.getName());
 						try {
-							String text = item.getValue().renderText(source); // This may fail, so do it first
+							String text = TextCache.getInstance().renderText(source, item.getValue()); // This may fail, so do it first
 							writer.write("Source: " + source.getAbsolutePath() + Const.LS);
 							writer.write("============================================================" + Const.LS);
 							writer.write(text);
@@ -335,11 +330,11 @@ public class CommandLineHandler {
 	 * The inclusion and exclusion filter can both be null. In case of a
 	 * conflict, the exclusion filter is given higher priority.
 	 */
-	private static void collect(File file, Map<File, Parser> output, Pattern includeFilter, Pattern excludeFilter, boolean isTopLevel) {
+	private static void collect(File file, Map<File, Parser> output, FilenameMatcher includeFilter, FilenameMatcher excludeFilter, boolean isTopLevel) {
 		if (file.isFile()) {
-			if (excludeFilter != null && excludeFilter.matcher(file.getName()).matches())
+			if (excludeFilter != null && excludeFilter.matches(file.getName()))
 				return;
-			if (includeFilter != null && ! includeFilter.matcher(file.getName()).matches())
+			if (includeFilter != null && ! includeFilter.matches(file.getName()))
 				return;
 			Parser parser = ParserRegistry.getParser(file);
 			if (parser != null)
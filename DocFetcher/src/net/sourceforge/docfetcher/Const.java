@@ -118,7 +118,7 @@ public class Const {
 	public static final String USER_PROPERTIES_FILENAME = "user.properties"; //$NON-NLS-1$
 	
 	/**
-	 * The folder where the ScopeRegistry.ser file and the index folders are
+	 * The folder where the ScopeRegistry.dat file and the index folders are
 	 * stored. If the folder lies inside the program folder, it will have a
 	 * relative path, if not, then an absolute path.
 	 */
@@ -129,6 +129,19 @@ public class Const {
 	 */
 	public static final File INDEX_DAEMON_FILE;
 
+	/**
+	 * The change journal written by the daemon while DocFetcher isn't
+	 * running.
+	 * 
+	 * @see net.sourceforge.docfetcher.model.DaemonJournal
+	 */
+	public static final File INDEX_DAEMON_JOURNAL_FILE;
+	
+	/**
+	 * The file locked by the daemon while it is running.
+	 */
+	public static final File DAEMON_INSTANCE_LOCK_FILE;
+
 	/**
 	 * This OutputStream is left open to tell the daemon that DocFetcher is
 	 * running.
@@ -174,9 +187,12 @@ public class Const {
 			ERROR_FILEPATH = appDataPath + FS + "stacktrace_" + new SimpleDateFormat("yyyyMMdd-HHmm").format(new Date()) + ".txt"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
 
+		INDEX_DAEMON_JOURNAL_FILE = new File(INDEX_DAEMON_FILE.getParentFile(), ".indexes.changes"); //$NON-NLS-1$
+
 		// the lock file 
 		String daemon_lock_file_path;
 		daemon_lock_file_path = INDEX_DAEMON_FILE.getAbsolutePath() + ".lock"; //$NON-NLS-1$ 
+		DAEMON_INSTANCE_LOCK_FILE = new File(daemon_lock_file_path + ".daemon.lock"); //$NON-NLS-1$
 
 		// Open the lock file for writing, all DocFetcher's life
 		try {
@@ -27,6 +27,8 @@ import net.sourceforge.docfetcher.enumeration.Icon;
 import net.sourceforge.docfetcher.enumeration.Key;
 import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.model.DaemonJournal;
+import net.sourceforge.docfetcher.model.FileChangeJob;
 import net.sourceforge.docfetcher.model.HTMLPair;
 import net.sourceforge.docfetcher.model.Job;
 import net.sourceforge.docfetcher.model.ResultDocument;
@@ -34,6 +36,7 @@ import net.sourceforge.docfetcher.model.RootScope;
 import net.sourceforge.docfetcher.model.Scope;
 import net.sourceforge.docfetcher.model.ScopeRegistry;
 import net.sourceforge.docfetcher.model.ScopeRegistry.SearchException;
+import net.sourceforge.docfetcher.model.SearcherManager;
 import net.sourceforge.docfetcher.parse.Parser;
 import net.sourceforge.docfetcher.parse.ParserRegistry;
 import net.sourceforge.docfetcher.util.Event;
@@ -459,12 +462,15 @@ public class DocFetcher extends ApplicationWindow {
 		
 		/*
 		 * Wipe out unregistered index folders (possibly from older
-		 * installations or program crashes).
+		 * installations or program crashes). If the registry has been written
+		 * by a newer version, its index folders are left alone.
 		 */
-		File[] indexDirs = UtilFile.listFolders(Const.INDEX_PARENT_FILE);
-		for (File indexDir : indexDirs)
-			if (! scopeReg.containsIndexDir(indexDir) && indexDir.getName().matches(".*_[0-9]+")) //$NON-NLS-1$
-				UtilFile.delete(indexDir, true);
+		if (! scopeReg.isReadOnly()) {
+			File[] indexDirs = UtilFile.listFolders(Const.INDEX_PARENT_FILE);
+			for (File indexDir : indexDirs)
+				if (! scopeReg.containsIndexDir(indexDir) && indexDir.getName().matches(".*_[0-9]+")) //$NON-NLS-1$
+					UtilFile.delete(indexDir, true);
+		}
 		
 		// Hook onto scope registry and set app name according to number of jobs
 		scopeReg.getEvtQueueChanged().add(new Event.Listener<ScopeRegistry> () {
@@ -503,6 +509,56 @@ public class DocFetcher extends ApplicationWindow {
 		 * Check if daemon has detected changes in the indexed folders.
 		 * For each change, launches an update
 		 */
+		updateDaemonChanges();
+
+		/*
+		 * We do this at the end of this method (instead of at the beginning of
+		 * main) so developers can see a stacktrace in the Eclipse console if
+		 * they haven't set up the run configuration appropriately.
+		 */
+		exceptionHandler = new ExceptionHandler();
+		exceptionHandler.setEnabled(true);
+		
+		return topContainer;
+	}
+	
+	/**
+	 * Submits updates for the changes the daemon has detected in the indexed
+	 * folders while the program wasn't running. If the daemon has written a
+	 * change journal, only the changed files are updated, unless changes have
+	 * been lost for an indexed folder, in which case the folder is updated
+	 * entirely. If the change journal is damaged, all indexed folders are
+	 * updated entirely. Without a change journal, the indexed folders that the
+	 * daemon has marked as changed in the daemon file are updated entirely.
+	 */
+	private void updateDaemonChanges() {
+		DaemonJournal journal;
+		try {
+			journal = DaemonJournal.read(Const.INDEX_DAEMON_JOURNAL_FILE);
+		} catch (IOException e) {
+			// None of the recorded changes can be trusted
+			for (RootScope rs : scopeReg.getEntries())
+				indexingDialog.addJob(new Job(rs, false, false));
+			Const.INDEX_DAEMON_JOURNAL_FILE.delete();
+			return;
+		}
+		if (journal != null) {
+			// Changes made after the termination of the daemon are unknown
+			boolean daemonRunning = DaemonJournal.isDaemonRunning(Const.DAEMON_INSTANCE_LOCK_FILE);
+			for (RootScope rs : scopeReg.getEntries()) {
+				if (daemonRunning && journal.isComplete(rs.getFile())) {
+					List<File> changes = journal.getChanges(rs.getFile());
+					if (! changes.isEmpty())
+						indexingDialog.addJob(new FileChangeJob(rs, changes));
+				}
+				else {
+					indexingDialog.addJob(new Job(rs, false, false));
+				}
+			}
+			Const.INDEX_DAEMON_JOURNAL_FILE.delete();
+			return;
+		}
+		
 		BufferedReader reader = null;
 		try {
 			reader = new BufferedReader(new FileReader(Const.INDEX_DAEMON_FILE));
@@ -538,16 +594,6 @@ public class DocFetcher extends ApplicationWindow {
 				// Can't print stacktrace here, no GUI available
 			}
 		}
-
-		/*
-		 * We do this at the end of this method (instead of at the beginning of
-		 * main) so developers can see a stacktrace in the Eclipse console if
-		 * they haven't set up the run configuration appropriately.
-		 */
-		exceptionHandler = new ExceptionHandler();
-		exceptionHandler.setEnabled(true);
-		
-		return topContainer;
 	}
 	
 	/**
@@ -687,7 +733,8 @@ public class DocFetcher extends ApplicationWindow {
 			UtilGUI.showErrorMsg(Msg.write_error.value());
 		}
 		
-		if (hotkeyHandler != null)
+		SearcherManager.getInstance().closeAll();
+		if (hotkeyHandler != null)
 			hotkeyHandler.shutdown();
 		exceptionHandler.closeErrorFile();
 		folderWatcher.shutdown(); // On Windows, this may cause a crash, so we do this last
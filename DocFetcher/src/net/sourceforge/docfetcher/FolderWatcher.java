@@ -14,57 +14,166 @@ package net.sourceforge.docfetcher;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import net.contentobjects.jnotify.JNotify;
 import net.contentobjects.jnotify.JNotifyListener;
 import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.model.FileChangeJob;
 import net.sourceforge.docfetcher.model.FileWrapper;
-import net.sourceforge.docfetcher.model.Job;
 import net.sourceforge.docfetcher.model.RootScope;
 import net.sourceforge.docfetcher.model.ScopeRegistry;
-import net.sourceforge.docfetcher.parse.ParserRegistry;
 import net.sourceforge.docfetcher.util.Event;
-import net.sourceforge.docfetcher.util.UtilList;
+import net.sourceforge.docfetcher.util.UtilFile;
 import net.sourceforge.docfetcher.view.IndexingDialog;
 
 import org.eclipse.swt.widgets.Display;
 
 /**
  * A class that handles indexing on file system events.
- * 
+ * <p>
+ * The JNotify callback thread only puts the incoming events into a lock-free
+ * queue. A single dispatcher thread takes them from there, collects the
+ * changed files per <tt>RootScope</tt>, and submits them as a
+ * <tt>FileChangeJob</tt> once no further events have occurred in that
+ * <tt>RootScope</tt> for a short while. The dispatcher also registers and
+ * removes the watches, one folder at a time, so that neither the startup nor
+ * the event processing has to wait for the registration of large folders.
+ * <p>
+ * If the queue is full, further events are dropped, and the closest common
+ * parent folder of the dropped events is rescanned instead. Likewise, if too
+ * many changed files have been collected for a <tt>RootScope</tt>, they're
+ * replaced with their closest common parent folder. Folders that can't
+ * be watched, e.g. because the system limit for watches has been reached, are
+ * rescanned whenever their registration is retried.
+ *
  * @author Tran Nam Quang
  */
 public class FolderWatcher {
-	
+
+	/**
+	 * Number of milliseconds without events in a <tt>RootScope</tt> after
+	 * which its changes are submitted.
+	 */
+	private static final long DEBOUNCE_DELAY = 1000;
+
+	/**
+	 * Maximum number of milliseconds the changes in a <tt>RootScope</tt> are
+	 * held back while events keep coming in.
+	 */
+	private static final long MAX_DELAY = 10000;
+
 	/**
-	 * A map associating all registered <tt>RootScope</tt>s with their
-	 * JNotify's watch IDs.
+	 * A map associating all watched <tt>RootScope</tt>s with their JNotify's
+	 * watch IDs. Only accessed by the dispatcher thread.
 	 */
 	private Map<RootScope, Integer> watchIdMap = new HashMap<RootScope, Integer> ();
-	
+
 	/**
-	 * A cache for incoming indexing requests. This cache is necessary because
-	 * the request rate can sometimes be so high that the indexing won't be
-	 * handled correctly without this cache.
+	 * The <tt>RootScope</tt>s that couldn't be watched, mapped to the time of
+	 * the last registration attempt. Only accessed by the dispatcher thread.
 	 */
-	private List<RootScope> eventCache = new ArrayList<RootScope> ();
-	
+	private Map<RootScope, Long> failedWatches = new HashMap<RootScope, Long> ();
+
 	/**
-	 * A thread checking for and executing indexing requests in the request
-	 * queue.
+	 * The changes collected for each <tt>RootScope</tt> that haven't been
+	 * submitted yet. Only accessed by the dispatcher thread.
 	 */
-	private Thread eventCacheChecker = null;
-	
+	private Map<RootScope, Batch> batches = new LinkedHashMap<RootScope, Batch> ();
+
 	/**
-	 * Time stamp of the last incoming indexing request.
+	 * The incoming events, i.e. the changed files, and the number of
+	 * elements in it.
 	 */
-	private long lastEventTime = -1;
-	
+	private final Queue<File> eventQueue = new ConcurrentLinkedQueue<File> ();
+	private final AtomicInteger queueSize = new AtomicInteger();
+
+	/**
+	 * The paths of the watched folders in which events were dropped, mapped
+	 * to the closest common parent folder of the dropped events.
+	 */
+	private final ConcurrentMap<String, File> overflowDirs = new ConcurrentHashMap<String, File> ();
+
+	/**
+	 * <tt>RootScope</tt>s for which events are temporarily ignored, mapped
+	 * to the time until which they are ignored.
+	 *
+	 * @see #setWatchEnabled(boolean, RootScope...)
+	 */
+	private final ConcurrentMap<RootScope, Long> mutedRoots = new ConcurrentHashMap<RootScope, Long> ();
+
+	/** Whether the folders of the registered <tt>RootScope</tt>s are watched. */
+	private volatile boolean enabled = false;
+
+	/** Whether the watches must be compared with the registry entries. */
+	private volatile boolean watchesChanged = true;
+
+	/** Whether the dispatcher should remove all watches and terminate. */
+	private volatile boolean shutdown = false;
+
+	private final Thread dispatcher;
+
+	/**
+	 * The changes in a <tt>RootScope</tt> collected by the dispatcher thread.
+	 */
+	private static class Batch {
+		final Set<File> files = new LinkedHashSet<File> ();
+		final long firstEventTime;
+		long lastEventTime;
+
+		/**
+		 * The closest common parent folder of the changed files if there have
+		 * been too many of them, otherwise null. In the former case, it's
+		 * the only element of <tt>files</tt>.
+		 */
+		File commonDir;
+
+		Batch(long time) {
+			firstEventTime = lastEventTime = time;
+		}
+
+		long getDeadline() {
+			return Math.min(lastEventTime + DEBOUNCE_DELAY, firstEventTime + MAX_DELAY);
+		}
+
+		/**
+		 * Adds the given changed file in the given root folder. If this
+		 * exceeds the given capacity, the changed files are replaced with
+		 * their closest common parent folder.
+		 */
+		void add(File file, File rootDir, int capacity) {
+			if (commonDir == null) {
+				files.add(file);
+				if (files.size() <= capacity)
+					return;
+				for (File changedFile : files) {
+					File dir = UtilFile.getParentFile(changedFile);
+					commonDir = getCommonDir(commonDir == null ? dir : commonDir, dir, rootDir);
+				}
+			}
+			else {
+				commonDir = getCommonDir(commonDir, UtilFile.getParentFile(file), rootDir);
+			}
+			files.clear();
+			files.add(commonDir);
+		}
+	}
+
 	public FolderWatcher() {
 		Pref.Bool.WatchFS.evtChanged.add(new Event.Listener<Boolean> () {
 			public void update(Boolean eventData) {
@@ -78,30 +187,32 @@ public class FolderWatcher {
 						ScopeRegistry.getInstance().save();
 					} catch (IOException e) {
 					}
-				setThreadWatchEnabled(eventData);
+				setWatchEnabled(eventData);
 			}
 		});
-		
-		setThreadWatchEnabled(Pref.Bool.WatchFS.getValue());
+
+		ScopeRegistry.getInstance().getEvtRegistryRootChanged().add(regChangeHandler);
+		dispatcher = new Thread("FolderWatcher") { //$NON-NLS-1$
+			public void run() {
+				dispatch();
+			}
+		};
+		dispatcher.setDaemon(true);
+		enabled = Pref.Bool.WatchFS.getValue();
+		dispatcher.start();
 	}
-	
-	// Updates the internal RootScope-WatchID-map whenever the scope registry changes
+
+	// Lets the dispatcher update the watches whenever the scope registry changes
 	Event.Listener<ScopeRegistry> regChangeHandler = new Event.Listener<ScopeRegistry> () {
 		public void update(ScopeRegistry scopeReg) {
-			List<RootScope> regEntries = scopeReg.getEntriesList();
-			Set<RootScope> mapEntries = watchIdMap.keySet();
-			List<RootScope> addedEntries = UtilList.subtract(regEntries, mapEntries);
-			List<RootScope> removedEntries = UtilList.subtract(mapEntries, regEntries);
-			for (RootScope entry : addedEntries)
-				addWatch(entry);
-			for (RootScope entry : removedEntries)
-				removeWatch(entry);
+			watchesChanged = true;
+			LockSupport.unpark(dispatcher);
 		}
 	};
-	
+
 	/**
-	 * The file system event listener. It marks the appropriate RootScopes as
-	 * 'dirty' and starts the update thread.
+	 * The file system event listener. It puts the changed files into the
+	 * event queue and wakes up the dispatcher thread.
 	 */
 	JNotifyListener fsListener = new JNotifyListener() {
 		public void fileCreated(int arg0, String arg1, String arg2) {
@@ -115,181 +226,286 @@ public class FolderWatcher {
 		}
 		public void fileRenamed(int arg0, String arg1, String arg2, String arg3) {
 			handleEvent(arg1, arg2);
+			handleEvent(arg1, arg3);
 		}
 		private void handleEvent(String rootPath, String filePath) {
-			// Get the containing RootScope
 			if (filePath == null) filePath = ""; //$NON-NLS-1$
 			File targetFile = new File(rootPath, filePath);
-			RootScope modifiedScope = null;
-			for (RootScope candidate : ScopeRegistry.getInstance().getEntries()) {
-				if (candidate.getFile().equals(targetFile) || candidate.contains(targetFile)) {
-					modifiedScope = candidate;
-					break;
+			int size = queueSize.incrementAndGet();
+			if (size > Pref.Int.WatchQueueCapacity.getValue()) {
+				queueSize.decrementAndGet();
+				addOverflow(rootPath, targetFile);
+				return;
+			}
+			eventQueue.offer(targetFile);
+			if (size == 1)
+				LockSupport.unpark(dispatcher);
+		}
+	};
+
+	/**
+	 * Records that the event for the given file in the given watched folder
+	 * has been dropped.
+	 */
+	private void addOverflow(String rootPath, File targetFile) {
+		File dir = UtilFile.getParentFile(targetFile);
+		while (true) {
+			File oldDir = overflowDirs.putIfAbsent(rootPath, dir);
+			if (oldDir == null)
+				return;
+			File commonDir = getCommonDir(oldDir, dir, new File(rootPath));
+			if (commonDir.equals(oldDir) || overflowDirs.replace(rootPath, oldDir, commonDir))
+				return;
+		}
+	}
+
+	/**
+	 * Returns the closest folder that is or contains both of the given
+	 * folders, or the given root folder if that folder doesn't lie within the
+	 * root folder.
+	 */
+	private static File getCommonDir(File dir1, File dir2, File rootDir) {
+		File commonDir = dir1;
+		while (commonDir != null && ! commonDir.equals(dir2) && ! UtilFile.contains(commonDir, dir2))
+			commonDir = commonDir.getParentFile();
+		if (commonDir == null || ! (commonDir.equals(rootDir) || UtilFile.contains(rootDir, commonDir)))
+			return rootDir;
+		return commonDir;
+	}
+
+	/**
+	 * The main loop of the dispatcher thread.
+	 */
+	private void dispatch() {
+		while (! shutdown) {
+			long now = System.currentTimeMillis();
+
+			// Register or remove at most one watch per iteration
+			boolean busy = false;
+			if (watchesChanged || ! failedWatches.isEmpty())
+				busy = updateWatches(now);
+
+			// Collect the changed files per RootScope
+			ScopeRegistry scopeReg = ScopeRegistry.getInstance();
+			File file;
+			while ((file = eventQueue.poll()) != null) {
+				queueSize.decrementAndGet();
+				addChange(scopeReg.getOwner(file), file, now);
+			}
+			for (Map.Entry<String, File> entry : overflowDirs.entrySet()) {
+				if (! overflowDirs.remove(entry.getKey(), entry.getValue()))
+					continue; // Changed in the meantime, handled on the next iteration
+				File dir = entry.getValue();
+				addChange(scopeReg.getOwner(dir), dir, now);
+			}
+
+			// Submit the changes of RootScopes without recent events
+			long nextDeadline = now + DEBOUNCE_DELAY;
+			Iterator<Map.Entry<RootScope, Batch>> it = batches.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<RootScope, Batch> entry = it.next();
+				long deadline = entry.getValue().getDeadline();
+				if (deadline <= now) {
+					it.remove();
+					submit(entry.getKey(), entry.getValue().files);
+				}
+				else {
+					nextDeadline = Math.min(nextDeadline, deadline);
 				}
 			}
-			if (modifiedScope == null) return; // Index may have been deleted
-			
+
+			// Sleep until the next deadline, unless there's more to do
+			if (! busy && eventQueue.isEmpty() && overflowDirs.isEmpty())
+				LockSupport.parkNanos((nextDeadline - now) * 1000000L);
+		}
+		for (RootScope rootScope : watchIdMap.keySet().toArray(new RootScope[watchIdMap.size()]))
+			removeWatch(rootScope);
+	}
+
+	/**
+	 * Adds the given changed file to the changes collected for the given
+	 * <tt>RootScope</tt>, unless the latter is null or muted.
+	 */
+	private void addChange(RootScope rootScope, File file, long now) {
+		if (rootScope == null) return; // Index may have been deleted
+		Long mutedUntil = mutedRoots.get(rootScope);
+		if (mutedUntil != null) {
+			if (now < mutedUntil)
+				return;
+			mutedRoots.remove(rootScope, mutedUntil);
+		}
+		Batch batch = batches.get(rootScope);
+		if (batch == null) {
+			batch = new Batch(now);
+			batches.put(rootScope, batch);
+		}
+		batch.add(file, rootScope.getFile(), Pref.Int.WatchBatchCapacity.getValue());
+		batch.lastEventTime = now;
+	}
+
+	/**
+	 * Filters out irrelevant changes from the given changed files and submits
+	 * the remaining ones for the given <tt>RootScope</tt>.
+	 */
+	private void submit(final RootScope rootScope, Set<File> files) {
+		final List<File> changedFiles = new ArrayList<File> (files.size());
+		for (File targetFile : files) {
 			// Ignore unparsable files
 			if (targetFile.isFile() &&
-					! ParserRegistry.canParseIn(modifiedScope, targetFile)) return;
-			
+					! rootScope.getParserConfig().canParse(targetFile)) continue;
+
+			/*
+			 * Ignore excluded files. The exclusion filters only apply to
+			 * files, so directories, including deleted ones that are still
+			 * registered, are never ignored.
+			 */
+			boolean isDir = targetFile.isDirectory() || rootScope.getScopeDeep(targetFile) != null;
+			if (! isDir && rootScope.getExclusionMatcher().matches(targetFile.getName()))
+				continue;
+
 			// Ignore so-called temporary owner files created by MS Word
 			// See bug #2804172
-			if (targetFile.getName().matches("~\\$.*\\.docx?")) //$NON-NLS-1$
-				return;
-			
+			if (UtilFile.isMSWordTempFile(targetFile))
+				continue;
+
 			// Check if file was REALLY modified (JNotify tends to fire even when files have only been accessed)
-			if (! modifiedScope.getFile().equals(targetFile)) {
-				FileWrapper fileWrapper = modifiedScope.getFileWrapperDeep(targetFile);
-				if (fileWrapper != null && ! fileWrapper.isModified()) return;
-			}
-			
-			// Put modified scope into the local queue
-			if (! eventCache.contains(modifiedScope)) {
-				eventCache.add(modifiedScope);
-				lastEventTime = System.currentTimeMillis();
-				processNextEvent();
+			if (! rootScope.getFile().equals(targetFile)) {
+				FileWrapper fileWrapper = rootScope.getFileWrapperDeep(targetFile);
+				if (fileWrapper != null && ! fileWrapper.isModified()) continue;
 			}
+			changedFiles.add(targetFile);
 		}
-	};
-	
-	// Start queue processing thread if it isn't running yet
-	private void processNextEvent() {
-		if (eventCacheChecker != null) return;
-		eventCacheChecker = new Thread() {
+		if (changedFiles.isEmpty()) return;
+
+		Display display = Display.getDefault();
+		if (display == null || display.isDisposed()) return;
+		display.asyncExec(new Runnable() {
 			public void run() {
-				if (eventCache.isEmpty()) {
-					eventCacheChecker = null;
-					return;
-				}
-				
-				// Wait till at least 1000 ms have passed since the last file system event
-				while (System.currentTimeMillis() - lastEventTime < 1000) {
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException ex) {
-						break;
-					}
-				}
-				
-				Display display = Display.getDefault();
-				if (display == null || display.isDisposed()) return;
-				display.syncExec(new Runnable() {
-					public void run() {
-						IndexingDialog indexingDialog = DocFetcher.getInstance().getIndexingDialog();
-						if (eventCache.isEmpty()) return;
-						indexingDialog.addJob(new Job(eventCache.get(0), false, false));
-						
-						/*
-						 * FIXME Opening of the indexing box on file system
-						 * events has been disabled because sometimes JNotify
-						 * sends notifications even when we've just read a file
-						 * without modifying it at all. That becomes a problem
-						 * when we open a file for preview: Whenever the preview
-						 * file changes, the user will be annoyed by the sight
-						 * the indexing box, even though it lasts only for a
-						 * split second.
-						 */
-						//indexingBox.open();
-					}
-				});
-				if (eventCache.isEmpty()) return;
-				eventCache.remove(0);
-				eventCacheChecker = null;
-				processNextEvent();
+				IndexingDialog indexingDialog = DocFetcher.getInstance().getIndexingDialog();
+				indexingDialog.addJob(new FileChangeJob(rootScope, changedFiles));
+
+				/*
+				 * FIXME Opening of the indexing box on file system
+				 * events has been disabled because sometimes JNotify
+				 * sends notifications even when we've just read a file
+				 * without modifying it at all. That becomes a problem
+				 * when we open a file for preview: Whenever the preview
+				 * file changes, the user will be annoyed by the sight
+				 * the indexing box, even though it lasts only for a
+				 * split second.
+				 */
+				//indexingBox.open();
 			}
-		};
-		eventCacheChecker.start();
+		});
 	}
-	
-	/**
-	 * Enables or disables the file system event listening feature. Runs in a
-	 * thread to avoid slowing down the application.
+
+	/**
+	 * Registers a watch for one of the registry entries that aren't watched
+	 * yet, or removes one of the watches that are no longer needed, and
+	 * returns whether this has been done. Folders that couldn't be watched
+	 * are retried after <tt>Pref.Int.WatchRetryInterval</tt> seconds and
+	 * rescanned after each failed retry.
 	 */
-	private void setThreadWatchEnabled(final boolean enabled) {
-		// Doing this inside a thread is better if lots of watches have to be added or removed
-		new Thread() {
-			public void run() {
-				setWatchEnabled(enabled);
+	private boolean updateWatches(long now) {
+		if (DocFetcher.getInstance() == null)
+			return false; // This is null on startup
+		Set<RootScope> entries = new HashSet<RootScope> ();
+		if (enabled)
+			entries.addAll(Arrays.asList(ScopeRegistry.getInstance().getEntries()));
+		for (RootScope rootScope : watchIdMap.keySet()) {
+			if (! entries.contains(rootScope)) {
+				removeWatch(rootScope);
+				return true;
 			}
-		}.start();
-	}
-	
+		}
+		failedWatches.keySet().retainAll(entries);
+		long retryInterval = Pref.Int.WatchRetryInterval.getValue() * 1000L;
+		for (RootScope rootScope : entries) {
+			if (watchIdMap.containsKey(rootScope)) continue;
+			Long lastAttempt = failedWatches.get(rootScope);
+			if (lastAttempt != null && now - lastAttempt < retryInterval) continue;
+			if (addWatch(rootScope)) {
+				failedWatches.remove(rootScope);
+			}
+			else {
+				failedWatches.put(rootScope, now);
+				if (lastAttempt != null && rootScope.getFile().exists())
+					addChange(rootScope, rootScope.getFile(), now);
+			}
+			return true;
+		}
+		watchesChanged = false;
+		return false;
+	}
+
 	/**
 	 * Disables the folder watching.
 	 */
 	public void shutdown() {
-		setWatchEnabled(false);
+		shutdown = true;
+		LockSupport.unpark(dispatcher);
+		try {
+			dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
-	
+
 	/**
-	 * Enables or disables the file system event listening feature.
+	 * Enables or disables the file system event listening feature. The
+	 * watches are added or removed by the dispatcher thread.
 	 */
 	private void setWatchEnabled(boolean enabled) {
-		if (enabled) {
-			ScopeRegistry.getInstance().getEvtRegistryRootChanged().add(regChangeHandler);
-			for (RootScope rootScope : ScopeRegistry.getInstance().getEntries())
-				addWatch(rootScope);
-		}
-		else {
-			ScopeRegistry.getInstance().getEvtRegistryRootChanged().remove(regChangeHandler);
-			if (watchIdMap.isEmpty()) return;
-			for (RootScope rootScope : ScopeRegistry.getInstance().getEntries())
-				removeWatch(rootScope);
-		}
+		this.enabled = enabled;
+		watchesChanged = true;
+		LockSupport.unpark(dispatcher);
 	}
-	
+
 	/**
 	 * Enables or disables the file system event listening for the given
 	 * <tt>RootScope</tt>s. This method can only be used for temporarily
-	 * disabling the watching for certain folders. The effect of this method
-	 * will be undone if entries are added to or removed from the
-	 * <tt>ScopeRegistry</tt>.
+	 * disabling the watching for certain folders, e.g. while the program
+	 * itself modifies them. The folders remain watched, but their events are
+	 * ignored until shortly after the watching has been enabled again.
+	 * <p>
+	 * Each call with <tt>enabled</tt> set to false must be followed by a call
+	 * with <tt>enabled</tt> set to true after the modification, regardless of
+	 * whether the watching is enabled in the preferences; otherwise the
+	 * events of the given <tt>RootScope</tt>s are ignored until the program
+	 * is restarted.
 	 */
 	public void setWatchEnabled(boolean enabled, Collection<RootScope> targets) {
-		if (enabled) {
-			for (RootScope rootScope : targets)
-				addWatch(rootScope);
-		}
-		else {
-			if (watchIdMap.isEmpty()) return;
-			for (RootScope rootScope : targets)
-				removeWatch(rootScope);
+		for (RootScope rootScope : targets) {
+			if (enabled)
+				mutedRoots.put(rootScope, System.currentTimeMillis() + DEBOUNCE_DELAY);
+			else
+				mutedRoots.put(rootScope, Long.MAX_VALUE);
 		}
 	}
-	
+
 	/**
 	 * Enables or disables the file system event listening for the given
-	 * <tt>RootScope</tt>s. This method can only be used for temporarily
-	 * disabling the watching for certain folders. The effect of this method
-	 * will be undone if entries are added to or removed from the
-	 * <tt>ScopeRegistry</tt>.
+	 * <tt>RootScope</tt>s.
+	 *
+	 * @see #setWatchEnabled(boolean, Collection)
 	 */
 	public void setWatchEnabled(boolean enabled, RootScope... targets) {
-		if (enabled) {
-			for (RootScope rootScope : targets)
-				addWatch(rootScope);
-		}
-		else {
-			if (watchIdMap.isEmpty()) return;
-			for (RootScope rootScope : targets)
-				removeWatch(rootScope);
-		}
+		setWatchEnabled(enabled, Arrays.asList(targets));
 	}
-	
+
 	/**
-	 * Adds the given RootScope to the watched RootScopes. Ignores non-existent
-	 * folders.
+	 * Adds the given RootScope to the watched RootScopes and returns whether
+	 * this was successful. Returns false for non-existent folders.
 	 */
-	private void addWatch(RootScope rootScope) {
-		if (watchIdMap.containsKey(rootScope)) return;
+	private boolean addWatch(RootScope rootScope) {
+		if (watchIdMap.containsKey(rootScope)) return true;
 		File file = rootScope.getFile();
-		if (! file.exists()) return;
-		
+		if (! file.exists()) return false;
+
 		DocFetcher docFetcher = DocFetcher.getInstance();
-		if (docFetcher == null) return; // this is null on startup
 		docFetcher.setExceptionHandlerEnabled(false);
-		
+
+		boolean success = false;
 		try {
 			int id = JNotify.addWatch(
 					file.getAbsolutePath(),
@@ -297,13 +513,15 @@ public class FolderWatcher {
 					fsListener
 			);
 			watchIdMap.put(rootScope, id);
+			success = true;
 		} catch (Exception e) { // JNotify can throw Runtime Exceptions
 			// Ignore
 		}
-		
+
 		docFetcher.setExceptionHandlerEnabled(true);
+		return success;
 	}
-	
+
 	/**
 	 * Removes the given RootScope from the list of watched RootScopes.
 	 */
@@ -316,10 +534,10 @@ public class FolderWatcher {
 		DocFetcher.getInstance().setExceptionHandlerEnabled(false);
 		try {
 			JNotify.removeWatch(watchIdMap.get(rootScope));
-			watchIdMap.remove(rootScope);
 		} catch (Exception e) { // JNotify can throw Runtime Exceptions
 			// Ignore
 		}
+		watchIdMap.remove(rootScope);
 		DocFetcher.getInstance().setExceptionHandlerEnabled(true);
 	}
 
@@ -136,7 +136,8 @@ public enum Msg {
 	enter_nonempty_string,
 	invalid_query,
 	invalid_query_syntax,
-	leading_wildcard,
+	leading_wildcard,
+	search_timeout,
 	search_scope_empty,
 	minsize_not_greater_maxsize,
 	filesize_out_of_range,
@@ -200,9 +201,13 @@ public enum Msg {
 	finished,
 	finished_with_errors,
 	total_elapsed_time,
+	index_statistics,
+	text_cache_statistics,
 	errors,
 	error_type,
 	out_of_jvm_memory,
+	parse_timeout,
+	file_too_large,
 	file_not_found,
 	file_not_readable,
 	file_corrupted,
@@ -69,6 +69,19 @@ public class Pref {
 		ClearSearchHistoryOnExit (true),
 		LeadingWildcardMessageShown (false),
 		UseOrOperator (true),
+		/*
+		 * Whether content fingerprints of the indexed files are stored, so
+		 * that files whose timestamps have changed without changes to their
+		 * contents aren't parsed again. Off by default, since a file is then
+		 * read on every index update even if it isn't parsed again.
+		 */
+		ContentFingerprints (false),
+		/*
+		 * Whether index updates skip listing directories whose timestamps
+		 * haven't changed since the last update. This should be turned off for
+		 * file systems that don't update the timestamps of directories.
+		 */
+		SkipUnchangedDirs (true),
 		;
 
 		public final Event<Boolean> evtChanged = new Event<Boolean> ();
@@ -116,6 +129,121 @@ public class Pref {
 		ErrorTypeColWidth (200),
 		ErrorPathColWidth (500),
 		MaxResultsPerWebPage (15),
+		
+		/*
+		 * Number of threads used for parsing files during indexing. The threads
+		 * are shared by all indexing jobs running at the same time. Values
+		 * smaller than 1 stand for the number of available processors.
+		 */
+		ParserThreads (0),
+		
+		/*
+		 * Maximum number of indexing jobs that may run at the same time. Only
+		 * jobs on different indexes are run concurrently.
+		 */
+		MaxConcurrentJobs (2),
+		
+		/*
+		 * Amount of free heap memory in megabytes that must be available
+		 * before an indexing job is started in addition to the running ones.
+		 */
+		IndexingMemoryReserve (64),
+		
+		/*
+		 * Interval in seconds in which the indexes are checked for whether
+		 * they need to be compacted.
+		 */
+		IndexMaintenanceInterval (60),
+		
+		/*
+		 * Number of seconds without indexing activity after which the
+		 * segments of the indexes are merged.
+		 */
+		IndexMaintenanceIdleDelay (300),
+		
+		/*
+		 * Maximum number of segments an index may have before it is merged
+		 * during idle time.
+		 */
+		MaxIndexSegments (10),
+		
+		/*
+		 * Percentage of deleted documents in an index at which the deletions
+		 * are expunged, regardless of whether the program is idle.
+		 */
+		MaxDeletedPercent (20),
+		/*
+		 * Number of indexed documents after which the index changes are
+		 * committed and the registry journal is written, so that a crash
+		 * loses at most this many documents.
+		 */
+		IndexCommitInterval (1000),
+		/*
+		 * Size of the registry journal in kilobytes at which the journal is
+		 * folded into a new snapshot of the registry while the program is
+		 * idle.
+		 */
+		RegistryJournalLimit (1024),
+		/*
+		 * Maximum number of file system events waiting to be processed.
+		 * Further events are dropped, and the directories in which they
+		 * occurred are rescanned instead.
+		 */
+		WatchQueueCapacity (100000),
+		/*
+		 * Maximum number of changed files collected for an indexed folder
+		 * before they're submitted. If there are more, the closest common
+		 * parent folder of the changed files is rescanned instead.
+		 */
+		WatchBatchCapacity (10000),
+		/*
+		 * Interval in seconds in which the registration of folders that
+		 * couldn't be watched is retried, e.g. after the system limit for
+		 * watches has been reached. These folders are rescanned after each
+		 * failed attempt.
+		 */
+		WatchRetryInterval (300),
+		/*
+		 * Size in kilobytes of the samples taken from the beginning, the
+		 * middle and the end of a file for its content fingerprint. If 0, the
+		 * entire file is read. With samples, changes outside of them go
+		 * unnoticed, so files with such changes aren't parsed again.
+		 */
+		FingerprintSampleSize (0),
+		/*
+		 * Maximum size in megabytes of the cache for extracted texts. If the
+		 * cache grows larger, the least recently used texts are evicted. If
+		 * 0, the cache is disabled.
+		 */
+		TextCacheSize (256),
+		/*
+		 * Number of seconds a single file may be parsed before the parse
+		 * process is aborted. If 0, there's no time limit.
+		 */
+		ParseTimeout (300),
+		/*
+		 * Maximum size in megabytes of files to be parsed; larger files are
+		 * skipped and reported as errors. If 0, there's no size limit.
+		 */
+		MaxParseFileSize (0),
+		/*
+		 * Maximum size in megabytes of an index for it to be memory-mapped
+		 * on a 32-bit JVM, if the Lucene directory type is selected
+		 * automatically. Larger indexes might exhaust the address space.
+		 */
+		MMapMaxIndexSize (256),
+		/*
+		 * Number of threads on which the indexes are searched in parallel.
+		 * The threads are shared by all searches running at the same time.
+		 * Values smaller than 1 stand for the number of available
+		 * processors; if 1, the indexes are searched one after another.
+		 */
+		SearchThreads (0),
+		/*
+		 * Number of seconds after which a search is aborted. If 0, there's
+		 * no time limit.
+		 */
+		SearchTimeout (0),
 		;
 
 		public final Event<Integer> evtChanged = new Event<Integer> ();
@@ -150,6 +278,20 @@ public class Pref {
 		PreviewFontLinux ("Sans"), //$NON-NLS-1$
 		PreviewFontMonoLinux ("Monospace"), //$NON-NLS-1$
 		LastIndexedFolder (Const.USER_HOME), //$NON-NLS-1$
+		/*
+		 * How the index files are accessed: "simple", "nio" or "mmap". Any
+		 * other value selects the type automatically for each index, based
+		 * on the JVM and the size of the index.
+		 */
+		IndexDirectoryType ("auto"), //$NON-NLS-1$
+		/*
+		 * How several indexes are searched: "parallel" searches each index
+		 * on its own thread, "composite" searches all indexes at once through
+		 * a combined reader on a single thread, which has less overhead per
+		 * query. Any other value selects "composite" if only one index is
+		 * searched or if SearchThreads is 1, and "parallel" otherwise.
+		 */
+		SearchMode ("auto"), //$NON-NLS-1$
 		;
 
 		public final Event<String> evtChanged = new Event<String> ();
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.Query;
+
+/**
+ * An <tt>IndexSearcher</tt> on a <tt>MultiReader</tt> that combines the
+ * readers of several indexes. Unlike a <tt>MultiSearcher</tt>, it doesn't
+ * need to collect the document frequencies from each index to weight the
+ * query, nor to map each hit to its index, since the <tt>MultiReader</tt>
+ * already provides combined statistics and document numbers. The document
+ * numbers and scores are the same as those of a <tt>MultiSearcher</tt> on
+ * the same readers.
+ * <p>
+ * Queries are rewritten on each index separately and then combined, as the
+ * <tt>MultiSearcher</tt> does: Rewriting wildcard queries on the combined
+ * reader would have to merge the term lists of all indexes, which is much
+ * slower, and combining the rewritten queries in the same way keeps the
+ * scores identical.
+ * <p>
+ * The given readers are not closed when this searcher is closed.
+ *
+ * @author Tran Nam Quang
+ */
+public class CompositeSearcher extends IndexSearcher {
+
+	private final IndexReader[] readers;
+
+	public CompositeSearcher(IndexReader... readers) {
+		super(new MultiReader(readers, false));
+		this.readers = readers;
+	}
+
+	/**
+	 * Rewrites the given query on each index separately and combines the
+	 * results.
+	 *
+	 * @see MultiSearcher#rewrite(Query)
+	 */
+	public Query rewrite(Query original) throws IOException {
+		if (readers.length == 1)
+			return super.rewrite(original);
+		Query[] queries = new Query[readers.length];
+		for (int i = 0; i < readers.length; i++) {
+			Query query = original;
+			for (Query rewritten = query.rewrite(readers[i]); rewritten != query; rewritten = query.rewrite(readers[i]))
+				query = rewritten;
+			queries[i] = query;
+		}
+		return super.rewrite(queries[0].combine(queries));
+	}
+
+	/**
+	 * Closes the combining reader, but not the readers given in the
+	 * constructor.
+	 */
+	public void close() throws IOException {
+		super.close();
+		getIndexReader().close();
+	}
+
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.util.UtilFile;
+
+/**
+ * The changes that the file system daemon has observed in the indexed
+ * folders while the program wasn't running, read from the change journal
+ * written by the daemon.
+ * <p>
+ * The change journal is a UTF-8 text file with one record per line, each line
+ * being terminated by <tt>'\n'</tt>. The first line is the header
+ * <tt>"DFCJ 1"</tt>, i.e. a magic string and the format version. Each record
+ * consists of a type character, a space and an absolute path:
+ * <ul>
+ * <li><tt>R path</tt>: The daemon has started watching the given index
+ * folder. Only the changes in folders with this record are known.
+ * <li><tt>C path</tt>: A file or folder has been created.
+ * <li><tt>M path</tt>: A file has been modified.
+ * <li><tt>D path</tt>: A file or folder has been deleted.
+ * <li><tt>O path</tt>: Changes in the given index folder may have been lost,
+ * e.g. after an overflow of the event queue or when no more watches could be
+ * added. Without a path, this applies to all index folders.
+ * </ul>
+ * A rename is written as a deletion of the old path followed by a creation of
+ * the new path. In paths, backslashes and line breaks are escaped as
+ * <tt>\\</tt>, <tt>\n</tt> and <tt>\r</tt>. Changes outside the watched
+ * index folders are ignored.
+ * <p>
+ * The daemon creates the journal when it starts watching, and the program
+ * deletes it after reading it on startup. A journal with an unknown header or
+ * record type, or whose last line is incomplete because the daemon was
+ * terminated while writing it, is discarded as a whole.
+ *
+ * @author Tran Nam Quang
+ */
+public final class DaemonJournal {
+
+	/** The header at the beginning of the journal. */
+	private static final String HEADER = "DFCJ 1"; //$NON-NLS-1$
+
+	/** The known changes for each watched index folder. */
+	private final Map<File, Set<File>> changes = new LinkedHashMap<File, Set<File>> ();
+
+	/** The watched index folders in which changes may have been lost. */
+	private final Set<File> overflowed = new LinkedHashSet<File> ();
+
+	private boolean overflowedAll = false;
+
+	private DaemonJournal() {
+	}
+
+	/**
+	 * Reads the change journal from the given file. Returns null if the file
+	 * doesn't exist.
+	 *
+	 * @throws IOException
+	 *             if the file can't be read or is damaged, in which case
+	 *             none of the recorded changes can be trusted.
+	 */
+	public static DaemonJournal read(File file) throws IOException {
+		if (! file.exists())
+			return null;
+		List<String> lines = readLines(file);
+		if (lines == null)
+			throw new IOException("Incomplete last line"); //$NON-NLS-1$
+		if (lines.isEmpty() || ! lines.get(0).equals(HEADER))
+			throw new IOException("Unknown header"); //$NON-NLS-1$
+
+		DaemonJournal journal = new DaemonJournal();
+		List<File> events = new ArrayList<File> ();
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.length() == 0)
+				continue;
+			if (line.length() < 2 || line.charAt(1) != ' ') {
+				if (line.equals("O")) { //$NON-NLS-1$
+					journal.overflowedAll = true;
+					continue;
+				}
+				throw new IOException("Invalid record: " + line); //$NON-NLS-1$
+			}
+			String path = unescape(line.substring(2));
+			if (path == null || path.length() == 0)
+				throw new IOException("Invalid path: " + line); //$NON-NLS-1$
+			File pathFile = new File(path).getAbsoluteFile();
+			switch (line.charAt(0)) {
+			case 'R':
+				if (! journal.changes.containsKey(pathFile))
+					journal.changes.put(pathFile, new LinkedHashSet<File> ());
+				break;
+			case 'O':
+				journal.overflowed.add(pathFile);
+				break;
+			case 'C':
+			case 'M':
+			case 'D':
+				events.add(pathFile);
+				break;
+			default:
+				throw new IOException("Unknown record type: " + line); //$NON-NLS-1$
+			}
+		}
+
+		// Assign the changes to the watched folders
+		outer: for (File event : events) {
+			for (Map.Entry<File, Set<File>> entry : journal.changes.entrySet()) {
+				File root = entry.getKey();
+				if (root.equals(event) || UtilFile.contains(root, event)) {
+					entry.getValue().add(event);
+					continue outer;
+				}
+			}
+		}
+		return journal;
+	}
+
+	/**
+	 * Returns whether all changes in the given index folder are known, i.e.
+	 * whether it has been watched and no changes have been lost.
+	 */
+	public boolean isComplete(File rootDir) {
+		File root = rootDir.getAbsoluteFile();
+		return ! overflowedAll && ! overflowed.contains(root) && changes.containsKey(root);
+	}
+
+	/**
+	 * Returns the changed files and folders in the given index folder, in the
+	 * order they were first recorded. The result is only meaningful if
+	 * {@link #isComplete(File)} returns true for the given folder.
+	 */
+	public List<File> getChanges(File rootDir) {
+		Set<File> rootChanges = changes.get(rootDir.getAbsoluteFile());
+		if (rootChanges == null)
+			return Collections.emptyList();
+		return new ArrayList<File> (rootChanges);
+	}
+
+	/**
+	 * Returns whether the daemon is running, i.e. whether it holds the lock
+	 * on the given lock file. If the daemon isn't running, changes made after
+	 * its termination are missing from the journal.
+	 */
+	public static boolean isDaemonRunning(File lockFile) {
+		if (! lockFile.isFile())
+			return false;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(lockFile, "rw"); //$NON-NLS-1$
+			FileLock lock = raf.getChannel().tryLock(0, 1, false);
+			if (lock == null)
+				return true;
+			lock.release();
+			return false;
+		} catch (OverlappingFileLockException e) {
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the lines of the given file without their line terminators, or
+	 * null if the last line is incomplete.
+	 */
+	private static List<String> readLines(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			List<String> lines = new ArrayList<String> ();
+			ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				int start = 0;
+				for (int i = 0; i < n; i++) {
+					if (buffer[i] != '\n')
+						continue;
+					line.write(buffer, start, i - start);
+					lines.add(line.toString("UTF-8")); //$NON-NLS-1$
+					line.reset();
+					start = i + 1;
+				}
+				line.write(buffer, start, n - start);
+			}
+			return line.size() == 0 ? lines : null;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Resolves the escape sequences in the given path. Returns null if the
+	 * path contains an invalid escape sequence.
+	 */
+	private static String unescape(String path) {
+		if (path.indexOf('\\') == -1)
+			return path;
+		StringBuilder sb = new StringBuilder(path.length());
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (++i == path.length())
+				return null;
+			switch (path.charAt(i)) {
+			case '\\': sb.append('\\'); break;
+			case 'n': sb.append('\n'); break;
+			case 'r': sb.append('\r'); break;
+			default: return null;
+			}
+		}
+		return sb.toString();
+	}
+
+}
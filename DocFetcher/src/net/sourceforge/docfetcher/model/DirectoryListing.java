@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the contents of a directory, read with a single listing. The
+ * type of each entry is determined once, and its timestamp is read on first
+ * access and cached afterwards, so that the cleanup and indexing steps of an
+ * index update don't have to query the file system again.
+ * <p>
+ * Symbolic links are left out: An entry is considered a symbolic link if its
+ * canonical path differs from the canonical path of the directory plus the
+ * name of the entry. The canonical path of the directory is computed only
+ * once per listing.
+ *
+ * @author Tran Nam Quang
+ */
+final class DirectoryListing {
+
+	/**
+	 * An entry of a <tt>DirectoryListing</tt>.
+	 */
+	static final class Entry {
+		private final File file;
+		private final boolean isDirectory;
+		private long lastModified;
+		private boolean statted;
+
+		private Entry(File file, boolean isDirectory) {
+			this.file = file;
+			this.isDirectory = isDirectory;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns true if this entry is a directory and false if it is a
+		 * regular file.
+		 */
+		public boolean isDirectory() {
+			return isDirectory;
+		}
+
+		/**
+		 * Returns the last-modified timestamp of this entry, as returned by
+		 * <tt>File.lastModified()</tt> at the first call of this method.
+		 */
+		public long lastModified() {
+			if (! statted) {
+				lastModified = file.lastModified();
+				statted = true;
+			}
+			return lastModified;
+		}
+	}
+
+	private static final Entry[] noEntries = new Entry[0];
+
+	private final Entry[] entries;
+	private final Map<String, Entry> entryMap;
+
+	private DirectoryListing(Entry[] entries) {
+		this.entries = entries;
+		entryMap = new HashMap<String, Entry> (entries.length * 4 / 3 + 1);
+		for (Entry entry : entries)
+			entryMap.put(Scope.getNameKey(entry.file), entry);
+	}
+
+	/**
+	 * Lists the regular files and directories in the given directory,
+	 * excluding symbolic links. Returns an empty listing if the directory
+	 * doesn't exist or can't be read.
+	 */
+	static DirectoryListing read(File dir) {
+		return read(dir, dir.listFiles());
+	}
+
+	/**
+	 * Returns a listing of the given directory that only contains the given
+	 * files, without listing the directory. Files that don't exist, and files
+	 * that are neither regular files nor directories are left out, as well
+	 * as symbolic links. The given files must be located in the given
+	 * directory.
+	 */
+	static DirectoryListing read(File dir, File[] files) {
+		if (files == null || files.length == 0)
+			return new DirectoryListing(noEntries);
+		String dirPath;
+		try {
+			dirPath = dir.getCanonicalPath();
+		} catch (IOException e) {
+			return new DirectoryListing(noEntries);
+		}
+		if (! dirPath.endsWith(File.separator))
+			dirPath += File.separator;
+
+		List<Entry> entries = new ArrayList<Entry> (files.length);
+		for (File file : files) {
+			boolean isDirectory;
+			if (file.isFile())
+				isDirectory = false;
+			else if (file.isDirectory())
+				isDirectory = true;
+			else
+				continue; // Deleted in the meantime, or a special file
+			try {
+				if (! file.getCanonicalPath().equals(dirPath + file.getName()))
+					continue;
+			} catch (IOException e) {
+				continue;
+			}
+			entries.add(new Entry(file, isDirectory));
+		}
+		return new DirectoryListing(entries.toArray(new Entry[entries.size()]));
+	}
+
+	/**
+	 * Returns the entries of this listing, in the order in which they were
+	 * returned by the file system.
+	 */
+	Entry[] getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns the entry with the same name as the given file, or null if
+	 * there is no such entry.
+	 */
+	Entry getEntry(File file) {
+		return entryMap.get(Scope.getNameKey(file));
+	}
+
+}
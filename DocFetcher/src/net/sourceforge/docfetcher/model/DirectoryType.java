@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.enumeration.Pref;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.Constants;
+
+/**
+ * The implementations of the Lucene <tt>Directory</tt> through which the
+ * index files are accessed.
+ * <ul>
+ * <li><tt>SIMPLE</tt>: Reads with a <tt>RandomAccessFile</tt>, on which
+ * concurrent reads are serialized.
+ * <li><tt>NIO</tt>: Reads with positional reads on a <tt>FileChannel</tt>,
+ * which don't block each other. Slow on Windows due to a bug in the JRE.
+ * <li><tt>MMAP</tt>: Maps the index files into memory, so that reads are
+ * served directly from the page cache. Needs address space of the size of
+ * the index.
+ * </ul>
+ * The type is given by <tt>Pref.Str.IndexDirectoryType</tt>. Unless a type
+ * is set there explicitly, it is selected for each index when the index is
+ * opened, see {@link #select(File)}.
+ *
+ * @author Tran Nam Quang
+ */
+public enum DirectoryType {
+
+	SIMPLE ("simple"), //$NON-NLS-1$
+	NIO ("nio"), //$NON-NLS-1$
+	MMAP ("mmap"), //$NON-NLS-1$
+	;
+
+	/** The value of this type in the preferences. */
+	public final String prefValue;
+
+	DirectoryType(String prefValue) {
+		this.prefValue = prefValue;
+	}
+
+	/**
+	 * Returns a Lucene directory of this type for the given index folder.
+	 */
+	public FSDirectory open(File indexDir) throws IOException {
+		switch (this) {
+		case NIO:
+			return new NIOFSDirectory(indexDir);
+		case MMAP:
+			MMapDirectory dir = new MMapDirectory(indexDir);
+			/*
+			 * On Windows, mapped files can't be deleted until they've been
+			 * unmapped, which otherwise only happens on garbage collection.
+			 * Unmapping is safe here since the index readers aren't used
+			 * after they've been closed.
+			 */
+			if (Constants.WINDOWS && MMapDirectory.UNMAP_SUPPORTED)
+				dir.setUseUnmap(true);
+			return dir;
+		default:
+			return new SimpleFSDirectory(indexDir);
+		}
+	}
+
+	/**
+	 * Returns the directory type for the given index folder: The type set in
+	 * the preferences, or if there is none, <tt>MMAP</tt> on a 64-bit JVM and
+	 * for indexes up to <tt>Pref.Int.MMapMaxIndexSize</tt> on a 32-bit JVM.
+	 * Larger indexes on 32-bit JVMs use <tt>SIMPLE</tt> on Windows and
+	 * <tt>NIO</tt> elsewhere.
+	 */
+	public static DirectoryType select(File indexDir) {
+		String prefValue = Pref.Str.IndexDirectoryType.getValue().trim();
+		for (DirectoryType type : values())
+			if (type.prefValue.equalsIgnoreCase(prefValue))
+				return type;
+		if (Constants.JRE_IS_64BIT)
+			return MMAP;
+		long maxSize = Pref.Int.MMapMaxIndexSize.getValue() * 1024L * 1024L;
+		if (getSize(indexDir) <= maxSize)
+			return MMAP;
+		return Constants.WINDOWS ? SIMPLE : NIO;
+	}
+
+	/**
+	 * Returns a Lucene directory for the given index folder, of the type
+	 * returned by {@link #select(File)}.
+	 */
+	public static FSDirectory openSelected(File indexDir) throws IOException {
+		return select(indexDir).open(indexDir);
+	}
+
+	/**
+	 * Returns the total size of the files in the given index folder.
+	 */
+	private static long getSize(File indexDir) {
+		File[] files = indexDir.listFiles();
+		if (files == null)
+			return 0;
+		long size = 0;
+		for (File file : files)
+			size += file.length();
+		return size;
+	}
+
+}
@@ -12,6 +12,11 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.sourceforge.docfetcher.Const;
 import net.sourceforge.docfetcher.parse.Parser;
@@ -24,6 +29,12 @@ import org.apache.lucene.document.Field.Store;
 
 /**
  * An object representation of a parsed document file.
+ * <p>
+ * The contents of a document can either be given as a string, or as a
+ * <tt>Reader</tt> that is read by the indexing engine when the document is
+ * added to the index, so that large files needn't be held in memory as a
+ * whole. A document with <tt>Reader</tt> contents must be closed with
+ * {@link #close()} when it isn't needed anymore.
  * 
  * @author Tran Nam Quang
  */
@@ -39,6 +50,15 @@ public class Document {
 	 */
 	public static final String path = "path"; //$NON-NLS-1$
 	
+	/**
+	 * Lucene field name for the normalized path of a <tt>Document</tt> file,
+	 * which is indexed as a single term so that documents can be looked up
+	 * and deleted by their path.
+	 * 
+	 * @see #getPathKey(File)
+	 */
+	public static final String pathKey = "pathKey"; //$NON-NLS-1$
+	
 	/**
 	 * Lucene field name for the author of a <tt>Document</tt>.
 	 */
@@ -72,10 +92,27 @@ public class Document {
 	 */
 	protected File file;
 	
+	/**
+	 * The readers of the contents fields that have been added with
+	 * <tt>setContents(Reader)</tt>, or null if there are none.
+	 */
+	private List<ContentReader> readers;
+	
 	protected Document() {
 		// This constructor is for subclassers only!
 	}
 	
+	/**
+	 * Constructs a <tt>Document</tt> from the given Lucene document, which
+	 * must already contain all fields for the given file.
+	 * 
+	 * @see TextCache
+	 */
+	Document(File file, org.apache.lucene.document.Document luceneDoc) {
+		this.file = UtilFile.getRelativeFile(Const.USER_DIR_FILE, file);
+		this.luceneDoc = luceneDoc;
+	}
+	
 	/**
 	 * Constructs a new <tt>Document</tt> with the given contents that
 	 * represents the given file, which must not be null. The filename without
@@ -128,6 +165,32 @@ public class Document {
 		setContents(contents);
 	}
 	
+	/**
+	 * Constructs a new <tt>Document</tt> with the given contents that
+	 * represents the given file, which must not be null. The filename without
+	 * extension is used as the default title of the <tt>Document</tt>. To
+	 * specify another title, use <tt>setTitle(String)</tt>.
+	 */
+	public Document(File file, Reader contents) {
+		this(file, getDefaultTitle(file), contents);
+	}
+	
+	/**
+	 * Constructs a new <tt>Document</tt> with the given title and contents that
+	 * represents the given file, which must not be null. If the title parameter
+	 * is null or an empty string, the default title (filename without
+	 * extension) will be used. To explicitly set the title to an empty string,
+	 * use <tt>setTitle(String)</tt>.
+	 */
+	public Document(File file, String title, Reader contents) {
+		luceneDoc = new org.apache.lucene.document.Document();
+		setFile(file);
+		if (title == null || title.equals("")) //$NON-NLS-1$
+			title = getDefaultTitle(file);
+		setTitle(title);
+		setContents(contents);
+	}
+	
 	/**
 	 * Returns the file represented by this <tt>Document</tt>.
 	 */
@@ -145,9 +208,11 @@ public class Document {
 		this.file = UtilFile.getRelativeFile(Const.USER_DIR_FILE, file);
 		luceneDoc.removeFields(lastModified);
 		luceneDoc.removeFields(path);
+		luceneDoc.removeFields(pathKey);
 		luceneDoc.removeFields(filename);
 		luceneDoc.add(new Field(lastModified, String.valueOf(file.lastModified()), Store.YES, Index.NO));
 		luceneDoc.add(new Field(path, UtilFile.getRelativePath(file), Store.YES, Index.NO));
+		luceneDoc.add(new Field(pathKey, getPathKey(file), Store.NO, Index.NOT_ANALYZED_NO_NORMS));
 		
 		String basename = UtilFile.getNameNoExt(file);
 		luceneDoc.add(new Field(filename, basename, Store.NO, Index.ANALYZED));
@@ -155,6 +220,20 @@ public class Document {
 		return this;
 	}
 	
+	/**
+	 * Returns the value of the path key field for the given file. This is the
+	 * path of the file relative to the current working directory, with
+	 * forward slashes as file separators and without trailing slash, so two
+	 * files have the same key iff {@link UtilFile#equalPaths(String, String)}
+	 * is true for their paths.
+	 */
+	public static String getPathKey(File file) {
+		String key = UtilFile.getRelativePath(file).replace("\\", "/"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (key.endsWith("/")) //$NON-NLS-1$
+			key = key.substring(0, key.length() - 1);
+		return key;
+	}
+	
 	/**
 	 * Adds an author to this <tt>Document</tt>. If the given string is null, no author
 	 * will be added. Returns the receiver for convenience.
@@ -232,6 +311,58 @@ public class Document {
 		return this;
 	}
 	
+	/**
+	 * Adds the contents of this <tt>Document</tt> that will be read from the
+	 * given <tt>Reader</tt> when the document is added to the index. If the
+	 * given Reader is null, the contents field will be set to an empty string.
+	 * The reader is closed by {@link #close()}. Returns the receiver for
+	 * convenience.
+	 */
+	public Document setContents(Reader contents) {
+		if (contents == null)
+			return setContents((String) null);
+		ContentReader reader = new ContentReader(contents);
+		if (readers == null)
+			readers = new ArrayList<ContentReader> (1);
+		readers.add(reader);
+		// Don't remove the content field here, because it's used for the filename
+		luceneDoc.add(new Field(Document.contents, reader));
+		return this;
+	}
+	
+	/**
+	 * Returns the first exception that occurred while reading the contents
+	 * readers of this <tt>Document</tt>, or null if there was none. This is
+	 * used to tell read errors apart from index write errors if adding the
+	 * document to the index fails.
+	 */
+	IOException getReadError() {
+		if (readers == null)
+			return null;
+		for (ContentReader reader : readers)
+			if (reader.error != null)
+				return reader.error;
+		return null;
+	}
+	
+	/**
+	 * Closes the contents readers of this <tt>Document</tt>, if there are any.
+	 * This must be called after the document has been added to the index, or
+	 * if it won't be added at all.
+	 */
+	public void close() {
+		if (readers == null)
+			return;
+		for (ContentReader reader : readers) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+		readers = null;
+	}
+	
 	/**
 	 * Returns the default title for the given file, which is the filename
 	 * without extension.
@@ -283,12 +414,42 @@ public class Document {
 	
 	public boolean equals(Object obj) {
 		if (obj != null && (obj instanceof Document))
-			return ((Document) obj).file.equals(file);
+			return ((Document) obj).getFile().equals(getFile());
 		return false;
 	}
 	
 	public String toString() {
-		return file.toString();
+		return getFile().toString();
+	}
+	
+	/**
+	 * A reader for the contents of a <tt>Document</tt> that remembers the
+	 * first exception thrown by the underlying reader.
+	 */
+	private static class ContentReader extends FilterReader {
+		private IOException error;
+		
+		public ContentReader(Reader in) {
+			super(in);
+		}
+		
+		public int read() throws IOException {
+			try {
+				return super.read();
+			} catch (IOException e) {
+				if (error == null) error = e;
+				throw e;
+			}
+		}
+		
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			try {
+				return super.read(cbuf, off, len);
+			} catch (IOException e) {
+				if (error == null) error = e;
+				throw e;
+			}
+		}
 	}
 	
 }
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An indexing task item for updating an existing index for a known set of
+ * added, modified or deleted files and directories only, rather than checking
+ * the entire folder of the index.
+ * <p>
+ * Further changes can be added as long as the job hasn't been started.
+ *
+ * @author Tran Nam Quang
+ */
+public class FileChangeJob extends Job {
+
+	private final Set<File> changedFiles = new LinkedHashSet<File> ();
+
+	/**
+	 * @param scope
+	 *            The <tt>RootScope</tt> the index of which should be updated.
+	 * @param changedFiles
+	 *            The changed files and directories inside the folder of the
+	 *            given <tt>RootScope</tt>.
+	 */
+	public FileChangeJob(RootScope scope, Collection<File> changedFiles) {
+		super(scope, false, false);
+		this.changedFiles.addAll(changedFiles);
+	}
+
+	/**
+	 * Returns a copy of the changed files and directories of this job.
+	 */
+	public synchronized List<File> getChangedFiles() {
+		return new ArrayList<File> (changedFiles);
+	}
+
+	/**
+	 * Adds the given changed files and directories to this job.
+	 */
+	public synchronized void addChangedFiles(Collection<File> files) {
+		changedFiles.addAll(files);
+	}
+
+}
@@ -12,11 +12,15 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
 
 import net.sourceforge.docfetcher.enumeration.Msg;
+import net.sourceforge.docfetcher.enumeration.Pref;
 import net.sourceforge.docfetcher.parse.ParseException;
 import net.sourceforge.docfetcher.parse.Parser;
-import net.sourceforge.docfetcher.parse.ParserRegistry;
+import net.sourceforge.docfetcher.parse.ParserConfig;
 
 /**
  * A represenation of an indexable file object.
@@ -28,42 +32,164 @@ public class FileWrapper extends Indexable {
 	static final long serialVersionUID = 1;
 	
 	protected long lastModified;
-	
+	
+	/**
+	 * The size of the file when its fingerprint was computed, or -1 if no
+	 * fingerprint is available.
+	 */
+	protected long size = -1;
+	
+	/**
+	 * A checksum over samples of the file contents, or -1 if no fingerprint
+	 * is available.
+	 * 
+	 * @see #updateFingerprint()
+	 */
+	protected long fingerprint = -1;
+	
+	/**
+	 * Creates an uninitialized instance. This constructor is only used for
+	 * loading the registry from disk.
+	 */
+	FileWrapper() {
+	}
+	
 	/**
 	 * 
 	 * @param parent The parent representation object.
 	 * @param file The file represented by this object.
 	 */
 	public FileWrapper(Scope parent, File file) {
+		this(parent, file, file.lastModified());
+	}
+	
+	/**
+	 * Same as {@link #FileWrapper(Scope, File)}, but takes the timestamp of
+	 * the file from the caller instead of reading it from the file system.
+	 */
+	FileWrapper(Scope parent, File file, long lastModified) {
 		super(parent, file);
 		if (parent == null)
 			throw new IllegalArgumentException();
-		lastModified = file.lastModified();
+		this.lastModified = lastModified;
 	}
-	
-	/**
-	 * Returns whether the file represented by this object has been modified
-	 * after the creation of the latter.
+	
+	/**
+	 * Returns whether the file represented by this object has been modified
+	 * after the creation of the latter.
 	 */
 	public boolean isModified() {
-		return ! file.exists() ||
-		lastModified != file.lastModified() ||
-		! ParserRegistry.canParseIn(parent.getRootScope(), file);
+		return ! file.exists() || isModified(file.lastModified());
+	}
+	
+	/**
+	 * Returns whether the file represented by this object has been modified
+	 * after the creation of the latter, given the current timestamp of the
+	 * file. The file is assumed to exist.
+	 */
+	boolean isModified(long currentLastModified) {
+		return lastModified != currentLastModified ||
+		! parent.getRootScope().getParserConfig().canParse(file);
+	}
+	
+	/**
+	 * Computes the content fingerprint of the file represented by this object,
+	 * if enabled in the preferences. This should be called before parsing the
+	 * file, so that changes made while parsing cause a mismatch later.
+	 */
+	void updateFingerprint() {
+		size = -1;
+		fingerprint = -1;
+		if (! Pref.Bool.ContentFingerprints.getValue())
+			return;
+		try {
+			long newSize = file.length();
+			fingerprint = computeFingerprint(file, newSize);
+			size = newSize;
+		} catch (IOException e) {
+			// Leave the fingerprint unavailable
+		}
+	}
+	
+	/**
+	 * If the file represented by this object has a new timestamp, but its
+	 * size and content fingerprint haven't changed, this method updates the
+	 * stored timestamp and returns true. In that case, the file doesn't need
+	 * to be parsed again. Otherwise, false is returned.
+	 */
+	boolean restamp() {
+		if (fingerprint == -1 || ! Pref.Bool.ContentFingerprints.getValue())
+			return false;
+		if (! file.exists() || ! parent.getRootScope().getParserConfig().canParse(file))
+			return false;
+		long newLastModified = file.lastModified();
+		long newSize = file.length();
+		if (newSize != size)
+			return false;
+		try {
+			if (computeFingerprint(file, newSize) != fingerprint)
+				return false;
+		} catch (IOException e) {
+			return false;
+		}
+		lastModified = newLastModified;
+		return true;
+	}
+	
+	/**
+	 * Returns a CRC32 checksum over the beginning, the middle and the end of
+	 * the given file, each of the size given by the preferences. Smaller files
+	 * and files for which the sample size is set to 0 are read entirely.
+	 */
+	private static long computeFingerprint(File file, long size) throws IOException {
+		long sampleSize = Pref.Int.FingerprintSampleSize.getValue() * 1024L;
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		RandomAccessFile in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			if (sampleSize <= 0 || size <= 3 * sampleSize) {
+				update(crc, in, 0, size, buffer);
+			}
+			else {
+				update(crc, in, 0, sampleSize, buffer);
+				update(crc, in, (size - sampleSize) / 2, sampleSize, buffer);
+				update(crc, in, size - sampleSize, sampleSize, buffer);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+	
+	/**
+	 * Adds <tt>length</tt> bytes of the given file, starting at
+	 * <tt>offset</tt>, to the given checksum.
+	 */
+	private static void update(CRC32 crc, RandomAccessFile in, long offset, long length, byte[] buffer) throws IOException {
+		in.seek(offset);
+		while (length > 0) {
+			int count = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (count < 0)
+				throw new IOException("File has been truncated"); //$NON-NLS-1$
+			crc.update(buffer, 0, count);
+			length -= count;
+		}
 	}
 	
 	/**
-	 * Parses the file represented by this object and returns the parse result as
-	 * a <tt>Document</tt>.
+	 * Parses the file represented by this object with the parser selected by
+	 * the given configuration and returns the parse result as a
+	 * <tt>Document</tt>.
 	 * <br>
 	 * Note: This method may throw an OutOfMemoryError if the parsed file is too
 	 * big.
 	 */
-	public Document parse() throws ParseException {
-		Parser parser = ParserRegistry.getSingleFileParser(file);
+	public Document parse(ParserConfig config) throws ParseException {
+		Parser parser = config.getSingleFileParser(file);
 		if (parser == null)
 			throw new IllegalStateException("Cannot find parser for this file: " + file.getAbsolutePath()); //$NON-NLS-1$
 		try {
-			Document doc = parser.parse(file);
+			Document doc = TextCache.getInstance().parse(file, parser);
 			doc.setParsedBy(parser);
 			return doc;
 		} catch (RuntimeException e) {
@@ -12,17 +12,11 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
-import net.sourceforge.docfetcher.Const;
 import net.sourceforge.docfetcher.parse.HTMLParser;
 import net.sourceforge.docfetcher.parse.ParseException;
+import net.sourceforge.docfetcher.parse.ParserConfig;
 import net.sourceforge.docfetcher.parse.ParserRegistry;
-import net.sourceforge.docfetcher.util.UtilFile;
-import net.sourceforge.docfetcher.util.UtilList;
 
 /**
  * A pair of an HTML file and its associated folder.
@@ -35,6 +29,13 @@ public class HTMLPair extends FileWrapper {
 	
 	private Modifiable folderWrapper;
 	
+	/**
+	 * Creates an uninitialized instance. This constructor is only used for
+	 * loading the registry from disk.
+	 */
+	HTMLPair() {
+	}
+	
 	/**
 	 * @param htmlFile The HTML file. Must not be null.
 	 * @param htmlFolder The folder associated with the HTML file. Can be null.
@@ -43,6 +44,16 @@ public class HTMLPair extends FileWrapper {
 		super(parent, htmlFile);
 		setHtmlFolder(htmlFolder);
 	}
+	
+	/**
+	 * Same as {@link #HTMLPair(Scope, File, File)}, but takes the timestamp
+	 * of the HTML file from the caller instead of reading it from the file
+	 * system.
+	 */
+	HTMLPair(Scope parent, File htmlFile, long lastModified, File htmlFolder) {
+		super(parent, htmlFile, lastModified);
+		setHtmlFolder(htmlFolder);
+	}
 
 	/**
 	 * Returns the HTML folder of this HTML pair. Returns null if the HTML file
@@ -58,6 +69,18 @@ public class HTMLPair extends FileWrapper {
 		if (htmlFolder != null)
 			folderWrapper = new Modifiable(parent.getRootScope(), htmlFolder);
 	}
+	
+	/**
+	 * Returns the snapshot of the HTML folder, or null if the HTML file does
+	 * not have an attached folder.
+	 */
+	Modifiable getFolderWrapper() {
+		return folderWrapper;
+	}
+	
+	void setFolderWrapper(Modifiable folderWrapper) {
+		this.folderWrapper = folderWrapper;
+	}
 
 	public boolean equals(Object obj) {
 		if (obj == null || !(obj instanceof HTMLPair))
@@ -72,86 +95,41 @@ public class HTMLPair extends FileWrapper {
 	}
 	
 	/**
-	 * Returns whether the HTML pair has been modified. This method checks
-	 * whether the HTML file is missing or has been modified, whether the HTML
-	 * folder is missing and whether indexable files inside the HTML folder have
-	 * been inserted, modified or deleted. <br>
+	 * Returns whether the HTML pair has been modified, given the current
+	 * timestamp of the HTML file. This method checks whether the HTML file has
+	 * been modified, whether the HTML folder is missing and whether indexable
+	 * files inside the HTML folder have been inserted, modified or deleted.
+	 * Whether the HTML file is missing is checked by {@link #isModified()}.
+	 * <br>
 	 * Note: This method does not check whether a single HTML file got a new
 	 * attached folder. This check must be done elsewhere.
 	 */
-	public boolean isModified() {
-		if (super.isModified())
+	boolean isModified(long currentLastModified) {
+		if (super.isModified(currentLastModified))
 			return true;
 		if (folderWrapper != null)
 			return folderWrapper.isModified(); // This also checks whether the folder exists
 		return false;
 	}
 	
+	/**
+	 * Only restamps the HTML file if the HTML folder hasn't been modified.
+	 */
+	boolean restamp() {
+		if (folderWrapper != null && folderWrapper.isModified())
+			return false;
+		return super.restamp();
+	}
+	
 	/**
 	 * Note: This method may throw an OutOfMemoryError if the parsed file is too
 	 * big.
 	 */
-	public Document parse() throws ParseException {
+	public Document parse(ParserConfig config) throws ParseException {
 		HTMLParser htmlParser = ParserRegistry.getHTMLParser();
-		Document doc = htmlParser.parse(file, getHtmlFolder());
+		Document doc = htmlParser.parse(file, getHtmlFolder(), config);
 		doc.setParsedBy(htmlParser);
 		return doc;
 	}
 
 }
-
-//Recursive structure that keeps track of the modified states of all files under it
-class Modifiable implements Serializable {
-	
-	static final long serialVersionUID = 2;
-	
-	private RootScope root;
-	private File file;
-	private long lastModified = -1;
-	private List<Modifiable> children = null;
-	
-	Modifiable (RootScope root, File file) {
-		this.root = root;
-		this.file = UtilFile.getRelativeFile(Const.USER_DIR_FILE, file);
-		if (file.isDirectory()) {
-			children = new ArrayList<Modifiable> ();
-			for (File subFile : UtilFile.listAll(file))
-				if (subFile.isDirectory() ||
-						ParserRegistry.canParseIn(root, subFile))
-					children.add(new Modifiable(root, subFile));
-		}
-		else this.lastModified = file.lastModified();
-	}
-	
-	public File getFile() {
-		return file;
-	}
-	
-	public boolean isModified() {
-		// Modified if file/directory doesn't exist anymore
-		if (! file.exists())
-			return true;
-		// File: Modified if the last modified field of the file has changed
-		if (children == null)
-			return file.lastModified() != lastModified;
-		// Directory: Modified if the directory's children have changed
-		for (Modifiable child : children)
-			if (child.isModified())
-				return true;
-		// Directory: Modified if new files have been inserted
-		File[] newFiles = UtilFile.listAll(file, new FileFilter() {
-			public boolean accept(File candidate) {
-				return candidate.isDirectory() ||
-				ParserRegistry.canParseIn(root, candidate);
-			}
-		});
-		Modifiable[] oldFiles = children.toArray(new Modifiable[children.size()]);
-		UtilList.Equality<File, Modifiable> mapper = new UtilList.Equality<File, Modifiable> () {
-			public boolean equals(File file, Modifiable modif) {
-				return modif.file.equals(file);
-			}
-		};
-		return ! UtilList.isMap(newFiles, oldFiles, mapper);
-	}
-	
-}
\ No newline at end of file
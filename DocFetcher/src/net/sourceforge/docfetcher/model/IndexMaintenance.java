@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.IOException;
+
+import net.sourceforge.docfetcher.enumeration.Pref;
+
+/**
+ * A background thread that compacts the indexes of the registered
+ * <tt>RootScope</tt>s while no indexing jobs are running. Since incremental
+ * index updates only commit their changes, the indexes accumulate segments
+ * and deleted documents over time, which are cleaned up here.
+ * <p>
+ * Maintenance is never carried out while an indexing job is running. If a job
+ * is started during maintenance, the latter is aborted and tried again later.
+ *
+ * @see RootScope#maintainIndex(boolean)
+ * @author Tran Nam Quang
+ */
+class IndexMaintenance extends Thread {
+
+	private final ScopeRegistry scopeReg;
+
+	/** The time of the last start or end of an indexing job. */
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	/** Whether the maintenance of an index is in progress. */
+	private volatile boolean maintaining = false;
+
+	IndexMaintenance(ScopeRegistry scopeReg) {
+		super("IndexMaintenance"); //$NON-NLS-1$
+		this.scopeReg = scopeReg;
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * Notifies this thread that an indexing job has been started or finished.
+	 * A running maintenance process is aborted.
+	 */
+	void indexingActivity() {
+		lastActivity = System.currentTimeMillis();
+		if (maintaining)
+			interrupt();
+	}
+
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(Math.max(1, Pref.Int.IndexMaintenanceInterval.getValue()) * 1000L);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			long idleDelay = Pref.Int.IndexMaintenanceIdleDelay.getValue() * 1000L;
+			boolean idle = System.currentTimeMillis() - lastActivity >= idleDelay;
+			for (RootScope rootScope : scopeReg.getEntries()) {
+				/*
+				 * The flag must be set before checking for running jobs,
+				 * otherwise a job started in between wouldn't abort the
+				 * maintenance.
+				 */
+				maintaining = true;
+				try {
+					if (scopeReg.isIndexing())
+						break;
+					rootScope.maintainIndex(idle);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					maintaining = false;
+					Thread.interrupted(); // Clear the interrupt flag
+				}
+			}
+		}
+	}
+
+}
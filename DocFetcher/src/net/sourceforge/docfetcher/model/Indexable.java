@@ -38,9 +38,16 @@ public class Indexable implements Serializable, Comparable<Indexable> {
 	 */
 	protected File file;
 
-	/**
-	 * @param parent The parent representation object
-	 * @param file The file represented by this object
+	/**
+	 * Creates an uninitialized instance. This constructor is only used for
+	 * loading the registry from disk.
+	 */
+	Indexable() {
+	}
+
+	/**
+	 * @param parent The parent representation object
+	 * @param file The file represented by this object
 	 */
 	public Indexable(Scope parent, File file) {
 		this.file = UtilFile.getRelativeFile(Const.USER_DIR_FILE, file);
@@ -87,6 +94,10 @@ public class Indexable implements Serializable, Comparable<Indexable> {
 				return true;
 		return false;
 	}
+	
+	public int hashCode() {
+		return file.hashCode();
+	}
 
 	public String toString() {
 		return file.getAbsolutePath();
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2008 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.docfetcher.Const;
+import net.sourceforge.docfetcher.util.UtilFile;
+import net.sourceforge.docfetcher.util.UtilList;
+
+/**
+ * Recursive structure that keeps track of the modified states of all files
+ * under it.
+ * 
+ * @author Tran Nam Quang
+ */
+class Modifiable implements Serializable {
+	
+	static final long serialVersionUID = 2;
+	
+	private RootScope root;
+	private File file;
+	private long lastModified = -1;
+	private List<Modifiable> children = null;
+	
+	Modifiable (RootScope root, File file) {
+		this.root = root;
+		this.file = UtilFile.getRelativeFile(Const.USER_DIR_FILE, file);
+		if (file.isDirectory()) {
+			children = new ArrayList<Modifiable> ();
+			for (File subFile : UtilFile.listAll(file))
+				if (subFile.isDirectory() ||
+						root.getParserConfig().canParse(subFile))
+					children.add(new Modifiable(root, subFile));
+		}
+		else this.lastModified = file.lastModified();
+	}
+	
+	/**
+	 * Creates an instance from previously recorded values, without accessing
+	 * the file system. For files, <tt>children</tt> must be null.
+	 */
+	Modifiable (RootScope root, File file, long lastModified, List<Modifiable> children) {
+		this.root = root;
+		this.file = file;
+		this.lastModified = lastModified;
+		this.children = children;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	long getLastModified() {
+		return lastModified;
+	}
+	
+	/**
+	 * Returns the snapshots of the children if this is a directory, otherwise
+	 * null.
+	 */
+	List<Modifiable> getChildren() {
+		return children;
+	}
+	
+	public boolean isModified() {
+		// Modified if file/directory doesn't exist anymore
+		if (! file.exists())
+			return true;
+		// File: Modified if the last modified field of the file has changed
+		if (children == null)
+			return file.lastModified() != lastModified;
+		// Directory: Modified if the directory's children have changed
+		for (Modifiable child : children)
+			if (child.isModified())
+				return true;
+		// Directory: Modified if new files have been inserted
+		File[] newFiles = UtilFile.listAll(file, new FileFilter() {
+			public boolean accept(File candidate) {
+				return candidate.isDirectory() ||
+				root.getParserConfig().canParse(candidate);
+			}
+		});
+		Modifiable[] oldFiles = children.toArray(new Modifiable[children.size()]);
+		UtilList.Equality<File, Modifiable> mapper = new UtilList.Equality<File, Modifiable> () {
+			public boolean equals(File file, Modifiable modif) {
+				return modif.file.equals(file);
+			}
+		};
+		return ! UtilList.isMap(newFiles, oldFiles, mapper);
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.sourceforge.docfetcher.enumeration.Pref;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+
+/**
+ * A <tt>MultiSearcher</tt> that searches its sub-searchers, i.e. the indexes
+ * of the <tt>RootScope</tt>s, in parallel on a pool of threads shared by all
+ * searches. The number of threads is given by
+ * <tt>Pref.Int.SearchThreads</tt>; if it is 1, the sub-searchers are
+ * searched one after another on the calling thread.
+ * <p>
+ * The ranking is the same as that of the <tt>MultiSearcher</tt>: The query
+ * weight is computed from the document frequencies of all indexes, and the
+ * top hits of the indexes are merged by score.
+ * <p>
+ * A search is aborted if the calling thread is interrupted or if the time
+ * limit given in the constructor is exceeded. The abort is propagated to all
+ * sub-searches: Those that haven't started yet are cancelled, and running
+ * ones stop at the next matching document.
+ *
+ * @author Tran Nam Quang
+ */
+class ParallelSearcher extends MultiSearcher {
+
+	/**
+	 * Thrown if a search has been aborted because it has exceeded its time
+	 * limit.
+	 */
+	static class SearchTimeoutException extends IOException {
+		static final long serialVersionUID = 1;
+		SearchTimeoutException() {
+			super("Search time limit exceeded"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Thrown inside a sub-search if the search has been aborted.
+	 */
+	private static class AbortedException extends IOException {
+		static final long serialVersionUID = 1;
+	}
+
+	/** The number of collected documents after which the abort flag is checked. */
+	private static final int ABORT_CHECK_INTERVAL = 256;
+
+	private static ExecutorService sharedExecutor;
+
+	private final Searchable[] searchables;
+	private final int[] starts;
+
+	/** The time at which the search is aborted, or 0 if there's no limit. */
+	private final long deadline;
+
+	private volatile boolean aborted = false;
+
+	/**
+	 * @param searchables
+	 *            The searchables to search in.
+	 * @param timeout
+	 *            The time limit for searches in milliseconds, counted from
+	 *            the construction of this object. If 0, there's no limit.
+	 */
+	ParallelSearcher(Searchable[] searchables, long timeout) throws IOException {
+		super(searchables);
+		this.searchables = searchables;
+		starts = getStarts();
+		deadline = timeout <= 0 ? 0 : System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * Returns the pool of searcher threads shared by all searches, or null if
+	 * the searches should be performed on the calling thread.
+	 */
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor != null)
+			return sharedExecutor;
+		int nThreads = Pref.Int.SearchThreads.getValue();
+		if (nThreads < 1)
+			nThreads = Runtime.getRuntime().availableProcessors();
+		if (nThreads == 1)
+			return null;
+		sharedExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int count = 1;
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Searcher-" + count++); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		return sharedExecutor;
+	}
+
+	/**
+	 * Returns whether searches are performed on more than one thread, as
+	 * given by the preferences.
+	 */
+	static boolean isParallel() {
+		return getSharedExecutor() != null;
+	}
+
+	/**
+	 * Rewrites the given query on all sub-searchers in parallel. This is
+	 * where most of the time is spent on wildcard queries.
+	 */
+	public Query rewrite(final Query original) throws IOException {
+		List<Callable<Query>> tasks = new ArrayList<Callable<Query>> (searchables.length);
+		for (final Searchable searchable : searchables) {
+			tasks.add(new Callable<Query>() {
+				public Query call() throws Exception {
+					checkAborted();
+					return searchable.rewrite(original);
+				}
+			});
+		}
+		List<Query> queries = invokeAll(tasks);
+		return queries.get(0).combine(queries.toArray(new Query[queries.size()]));
+	}
+
+	/**
+	 * Searches all sub-searchers in parallel and merges their top hits.
+	 */
+	public TopDocs search(final Weight weight, final Filter filter, final int nDocs) throws IOException {
+		List<Callable<TopDocs>> tasks = new ArrayList<Callable<TopDocs>> (searchables.length);
+		for (final Searchable searchable : searchables) {
+			tasks.add(new Callable<TopDocs>() {
+				public TopDocs call() throws Exception {
+					checkAborted();
+					TopScoreDocCollector collector = TopScoreDocCollector.create(nDocs, ! weight.scoresDocsOutOfOrder());
+					searchable.search(weight, filter, new AbortableCollector(collector));
+					return collector.topDocs();
+				}
+			});
+		}
+		List<TopDocs> results = invokeAll(tasks);
+
+		// Merge the hits, with the document numbers shifted to the combined index
+		int totalHits = 0;
+		float maxScore = Float.NEGATIVE_INFINITY;
+		List<ScoreDoc> hits = new ArrayList<ScoreDoc> ();
+		for (int i = 0; i < results.size(); i++) {
+			TopDocs topDocs = results.get(i);
+			totalHits += topDocs.totalHits;
+			for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+				scoreDoc.doc += starts[i];
+				hits.add(scoreDoc);
+				maxScore = Math.max(maxScore, scoreDoc.score);
+			}
+		}
+		ScoreDoc[] hitArray = hits.toArray(new ScoreDoc[hits.size()]);
+		Arrays.sort(hitArray, new Comparator<ScoreDoc> () {
+			public int compare(ScoreDoc o1, ScoreDoc o2) {
+				if (o1.score != o2.score)
+					return o1.score > o2.score ? -1 : 1;
+				return o1.doc - o2.doc;
+			}
+		});
+		if (hitArray.length > nDocs) {
+			ScoreDoc[] topHits = new ScoreDoc[nDocs];
+			System.arraycopy(hitArray, 0, topHits, 0, nDocs);
+			hitArray = topHits;
+		}
+		return new TopDocs(totalHits, hitArray, hitArray.length == 0 ? Float.NaN : maxScore);
+	}
+
+	/**
+	 * Runs the given tasks, one per sub-searcher, and returns their results
+	 * in the same order. If one of the tasks fails, or if the search is
+	 * aborted, the remaining tasks are aborted as well, and this method
+	 * returns only after all of them have finished.
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+		ExecutorService executor = tasks.size() > 1 ? getSharedExecutor() : null;
+		List<T> results = new ArrayList<T> (tasks.size());
+
+		// Sequential search
+		if (executor == null) {
+			for (Callable<T> task : tasks) {
+				if (Thread.currentThread().isInterrupted())
+					aborted = true;
+				try {
+					results.add(task.call());
+				} catch (IOException e) {
+					throw translate(e);
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return results;
+		}
+
+		// Parallel search
+		CountDownLatch finished = new CountDownLatch(tasks.size());
+		List<SubSearch<T>> subSearches = new ArrayList<SubSearch<T>> (tasks.size());
+		List<Future<T>> futures = new ArrayList<Future<T>> (tasks.size());
+		for (Callable<T> task : tasks) {
+			SubSearch<T> subSearch = new SubSearch<T> (task, finished);
+			subSearches.add(subSearch);
+			futures.add(executor.submit(subSearch));
+		}
+		try {
+			for (Future<T> future : futures) {
+				if (deadline == 0) {
+					results.add(future.get());
+					continue;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new TimeoutException();
+				results.add(future.get(remaining, TimeUnit.MILLISECONDS));
+			}
+			return results;
+		} catch (InterruptedException e) {
+			abort(subSearches, futures, finished);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (TimeoutException e) {
+			abort(subSearches, futures, finished);
+			throw new SearchTimeoutException();
+		} catch (ExecutionException e) {
+			abort(subSearches, futures, finished);
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw translate((IOException) cause);
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Sets the abort flag for the running sub-searches, cancels those that
+	 * haven't started yet and waits until the running ones have finished, so
+	 * that none of them still uses the index readers after the search has
+	 * returned. The running sub-searches aren't interrupted, since an
+	 * interrupt would close the files of the shared index readers. They stop
+	 * at their next abort check instead.
+	 */
+	private <T> void abort(	List<SubSearch<T>> subSearches,
+							List<Future<T>> futures,
+							CountDownLatch finished) {
+		aborted = true;
+		for (int i = 0; i < subSearches.size(); i++) {
+			if (subSearches.get(i).skip()) {
+				futures.get(i).cancel(false);
+				finished.countDown();
+			}
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				finished.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Throws an exception if the search has been aborted or has exceeded its
+	 * time limit.
+	 */
+	private void checkAborted() throws IOException {
+		if (aborted)
+			throw new AbortedException();
+		if (deadline != 0 && System.currentTimeMillis() > deadline) {
+			aborted = true;
+			throw new SearchTimeoutException();
+		}
+	}
+
+	/**
+	 * Replaces the internal exception of aborted sub-searches with the
+	 * exception to be thrown to the caller.
+	 */
+	private IOException translate(IOException e) {
+		if (! (e instanceof AbortedException))
+			return e;
+		if (deadline != 0 && System.currentTimeMillis() > deadline)
+			return new SearchTimeoutException();
+		return new InterruptedIOException();
+	}
+
+	/**
+	 * A sub-search that counts down a latch when it has finished, unless it
+	 * has been skipped before it started.
+	 */
+	private static class SubSearch<T> implements Callable<T> {
+		private final Callable<T> task;
+		private final CountDownLatch finished;
+		private boolean started = false;
+		private boolean skipped = false;
+
+		public SubSearch(Callable<T> task, CountDownLatch finished) {
+			this.task = task;
+			this.finished = finished;
+		}
+
+		public T call() throws Exception {
+			synchronized (this) {
+				if (skipped)
+					throw new AbortedException();
+				started = true;
+			}
+			try {
+				return task.call();
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		/**
+		 * Prevents this sub-search from running if it hasn't started yet.
+		 * Returns whether it has been skipped by this call.
+		 */
+		public synchronized boolean skip() {
+			if (started || skipped)
+				return false;
+			skipped = true;
+			return true;
+		}
+	}
+
+	/**
+	 * A collector that checks at regular intervals whether the search has
+	 * been aborted, and forwards everything else to another collector.
+	 */
+	private class AbortableCollector extends Collector {
+		private final Collector collector;
+		private int count = 0;
+
+		public AbortableCollector(Collector collector) {
+			this.collector = collector;
+		}
+
+		public void collect(int doc) throws IOException {
+			if (++count % ABORT_CHECK_INTERVAL == 0)
+				checkAborted();
+			collector.collect(doc);
+		}
+
+		public void setNextReader(IndexReader reader, int docBase) throws IOException {
+			checkAborted();
+			collector.setNextReader(reader, docBase);
+		}
+
+		public void setScorer(Scorer scorer) throws IOException {
+			collector.setScorer(scorer);
+		}
+
+		public boolean acceptsDocsOutOfOrder() {
+			return collector.acceptsDocsOutOfOrder();
+		}
+	}
+
+}
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import net.sourceforge.docfetcher.enumeration.Msg;
+import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.parse.ParseException;
+import net.sourceforge.docfetcher.parse.Parser;
+import net.sourceforge.docfetcher.parse.ParserConfig;
+
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * A staged indexing pipeline: The thread calling {@link #submit(FileWrapper)}
+ * acts as the crawler stage that emits candidate files, a bounded pool of
+ * worker threads shared by all pipelines parses them, and the finished
+ * documents are written to the <tt>IndexWriter</tt> by the calling thread
+ * again.
+ * <p>
+ * Writing the documents and registering the parsed files in their parent
+ * <tt>Scope</tt>s is deliberately done on the crawler thread, so that neither
+ * the <tt>IndexWriter</tt> nor the scope tree is ever modified concurrently,
+ * and so that interrupting the crawler thread stops the whole pipeline.
+ * <p>
+ * The written documents are committed in regular intervals, each time
+ * followed by a flush of the registry journal, so that the index and the
+ * registry on disk stay in sync if the program is killed during indexing.
+ * <p>
+ * Each parse process is watched by a {@link ParseWatchdog}, which aborts it
+ * if it exceeds <tt>Pref.Int.ParseTimeout</tt>. Files larger than
+ * <tt>Pref.Int.MaxParseFileSize</tt> aren't parsed at all, unless their
+ * parser streams the contents into the index. Both cases are reported as
+ * parse errors with their own {@link ParseException.Reason}.
+ *
+ * @author Tran Nam Quang
+ */
+class ParsePipeline {
+
+	/**
+	 * The outcome of parsing a single file: Either the parsed document or the
+	 * parse exception that occurred.
+	 */
+	private static class Result {
+		private Document doc;
+		private ParseException exception;
+	}
+
+	/** The parser threads shared by all pipelines. */
+	private static ExecutorService sharedExecutor;
+
+	/** The number of threads of the shared executor. */
+	private static int nSharedWorkers;
+
+	/** The watchdog of the shared executor. */
+	private static ParseWatchdog watchdog;
+
+	private final IndexWriter writer;
+
+	/** The RootScope whose journal records are flushed after each commit. */
+	private final RootScope rootScope;
+
+	/** The parser configuration used for the submitted files. */
+	private final ParserConfig config;
+
+	/** The list the parse errors are put into. */
+	private final List<ParseException> parseExceptions;
+
+	private final CompletionService<Result> completionService;
+
+	/**
+	 * The parse tasks submitted by this pipeline that haven't been written
+	 * yet, mapped to the files they parse.
+	 */
+	private final Map<Future<Result>, FileWrapper> pendingTasks = new HashMap<Future<Result>, FileWrapper> ();
+
+	/**
+	 * The maximum number of files that may be parsed or waiting to be written
+	 * at the same time.
+	 */
+	private final int maxPending;
+
+	/** The parent <tt>Scope</tt>s of the files that couldn't be indexed. */
+	private final Set<Scope> failedScopes = new HashSet<Scope> ();
+
+	/** The number of documents written since the last commit. */
+	private int nUncommitted = 0;
+
+	/**
+	 * @param writer
+	 *            The <tt>IndexWriter</tt> to add the parsed documents to.
+	 * @param parseExceptions
+	 *            The list to put parse errors into.
+	 * @param rootScope
+	 *            The <tt>RootScope</tt> whose index is being updated.
+	 * @param config
+	 *            The parser configuration of the <tt>RootScope</tt>.
+	 */
+	ParsePipeline(IndexWriter writer, List<ParseException> parseExceptions, RootScope rootScope, ParserConfig config) {
+		this.writer = writer;
+		this.rootScope = rootScope;
+		this.config = config;
+		this.parseExceptions = parseExceptions;
+		ExecutorService executor = getSharedExecutor();
+		maxPending = 2 * nSharedWorkers;
+		completionService = new ExecutorCompletionService<Result> (executor);
+	}
+
+	/**
+	 * Returns the pool of parser threads shared by all pipelines, so that the
+	 * number of parser threads stays within the limit given by the preferences
+	 * even if several indexes are updated at the same time.
+	 */
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor != null)
+			return sharedExecutor;
+		nSharedWorkers = Pref.Int.ParserThreads.getValue();
+		if (nSharedWorkers < 1)
+			nSharedWorkers = Runtime.getRuntime().availableProcessors();
+		sharedExecutor = Executors.newFixedThreadPool(nSharedWorkers, new ThreadFactory() {
+			private int count = 1;
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Parser-" + count++); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		watchdog = new ParseWatchdog((ThreadPoolExecutor) sharedExecutor);
+		watchdog.start();
+		return sharedExecutor;
+	}
+
+	/**
+	 * Hands the given file over to the parser threads. If too many files are
+	 * waiting for being parsed or written, this method blocks until some of
+	 * them have been written. The given <tt>FileWrapper</tt> will be registered
+	 * in its parent <tt>Scope</tt> after the corresponding document has been
+	 * written.
+	 *
+	 * @throws IOException
+	 *             if a document could not be written to the index.
+	 */
+	void submit(final FileWrapper wrapper) throws IOException {
+		while (pendingTasks.size() >= maxPending)
+			if (! writeNext(true))
+				return;
+		final ParseWatchdog.Ticket ticket = new ParseWatchdog.Ticket();
+		Future<Result> task = completionService.submit(new Callable<Result> () {
+			public Result call() {
+				Result result = new Result();
+				File file = wrapper.getFile();
+				watchdog.started(ticket);
+				try {
+					/*
+					 * The size limit only applies to parsers that hold the
+					 * whole text in memory; streaming parsers can handle
+					 * files of any size.
+					 */
+					long maxSize = Pref.Int.MaxParseFileSize.getValue();
+					Parser parser = config.getParser(file);
+					boolean streaming = parser != null && parser.isStreaming();
+					if (maxSize > 0 && ! streaming && file.length() > maxSize * 1024 * 1024)
+						throw new ParseException(file, Msg.file_too_large.format(maxSize), ParseException.Reason.TOO_LARGE);
+					wrapper.updateFingerprint();
+					// The parse() method can run out of memory!
+					result.doc = wrapper.parse(config);
+				}
+				catch (ParseException e) {
+					result.exception = e;
+				}
+				catch (OutOfMemoryError e) {
+					result.exception = new ParseException(file, Msg.out_of_jvm_memory.value(), ParseException.Reason.OUT_OF_MEMORY);
+				}
+				catch (StackOverflowError e) {
+					result.exception = new ParseException(file, Msg.send_file_for_debugging.value(), ParseException.Reason.PARSER_CRASH);
+				}
+				finally {
+					watchdog.finished(ticket);
+				}
+				return result;
+			}
+		});
+		ticket.future = task;
+		pendingTasks.put(task, wrapper);
+
+		// Write whatever has been finished in the meantime
+		while (! pendingTasks.isEmpty() && writeNext(false));
+	}
+
+	/**
+	 * Waits for all submitted files to be parsed and written. Returns early if
+	 * the current thread is interrupted.
+	 *
+	 * @throws IOException
+	 *             if a document could not be written to the index.
+	 */
+	void finish() throws IOException {
+		while (! pendingTasks.isEmpty())
+			if (! writeNext(true))
+				return;
+	}
+
+	/**
+	 * Cancels the parse tasks of this pipeline that haven't been written yet;
+	 * the corresponding files are discarded. This method should be called in a
+	 * finally-block after using the pipeline.
+	 */
+	void shutdown() {
+		for (Future<Result> task : pendingTasks.keySet()) {
+			if (task.cancel(true) || ! task.isDone())
+				continue;
+			// Release the documents that have already been parsed
+			try {
+				Result result = task.get();
+				if (result.doc != null)
+					result.doc.close();
+			}
+			catch (CancellationException e) {
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+			}
+		}
+		pendingTasks.clear();
+	}
+
+	/**
+	 * Returns the parent <tt>Scope</tt>s of the files submitted to this
+	 * pipeline that couldn't be parsed or written.
+	 */
+	Set<Scope> getFailedScopes() {
+		return failedScopes;
+	}
+
+	/**
+	 * Writes the next parsed document to the index and registers its file in
+	 * the parent <tt>Scope</tt>. Returns false if no document was available,
+	 * which happens if <tt>block</tt> is false and no parse process has been
+	 * finished yet, or if the current thread was interrupted while waiting.
+	 *
+	 * @throws IOException
+	 *             if the document could not be written to the index.
+	 */
+	private boolean writeNext(boolean block) throws IOException {
+		Future<Result> future;
+		if (block) {
+			try {
+				future = completionService.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		else {
+			future = completionService.poll();
+			if (future == null)
+				return false;
+		}
+		FileWrapper wrapper = pendingTasks.remove(future);
+
+		Result result;
+		try {
+			result = future.get();
+		} catch (CancellationException e) {
+			// The watchdog aborted the parse process
+			int timeout = Pref.Int.ParseTimeout.getValue();
+			result = new Result();
+			result.exception = new ParseException(wrapper.getFile(), Msg.parse_timeout.format(timeout), ParseException.Reason.TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			// Rethrow unexpected runtime exceptions and errors of the parsers
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			return true;
+		}
+
+		try {
+			if (result.exception != null)
+				throw result.exception;
+			try {
+				// The addDocument(..) method can run out of memory!
+				writer.addDocument(result.doc.getLuceneDoc());
+			}
+			catch (OutOfMemoryError e) {
+				throw new ParseException(wrapper.getFile(), Msg.out_of_jvm_memory.value(), ParseException.Reason.OUT_OF_MEMORY);
+			}
+			catch (IOException e) {
+				/*
+				 * Streamed contents are read by the addDocument(..) method, so
+				 * a failure to read them must not be taken for a failure to
+				 * write the index.
+				 */
+				if (result.doc.getReadError() == null)
+					throw e;
+				throw new ParseException(wrapper.getFile(), Msg.file_not_readable.value());
+			}
+			finally {
+				result.doc.close();
+			}
+			Scope parent = wrapper.getParent();
+			if (wrapper instanceof HTMLPair)
+				parent.addSubHTMLPair((HTMLPair) wrapper);
+			else
+				parent.addSubFile(wrapper);
+		}
+		catch (ParseException e) {
+			parseExceptions.add(e);
+			failedScopes.add(wrapper.getParent());
+		}
+		if (++nUncommitted >= Math.max(1, Pref.Int.IndexCommitInterval.getValue()))
+			commit();
+		return true;
+	}
+
+	/**
+	 * Commits the documents written so far and flushes the registry journal,
+	 * in this order, so that the journal never refers to uncommitted
+	 * documents.
+	 *
+	 * @throws IOException
+	 *             if the index or the journal could not be written.
+	 */
+	private void commit() throws IOException {
+		writer.commit();
+		nUncommitted = 0;
+		RegistryJournal journal = rootScope.journal;
+		if (journal != null)
+			journal.flush(rootScope);
+	}
+
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import net.sourceforge.docfetcher.enumeration.Pref;
+
+/**
+ * A background thread that watches the parse processes running on the parser
+ * threads and cancels those that take longer than allowed by
+ * <tt>Pref.Int.ParseTimeout</tt>. Cancelling a parse process completes its
+ * <tt>Future</tt> right away, so the indexing thread can go on, and
+ * interrupts the parser thread.
+ * <p>
+ * Since most parsers ignore interrupts, a cancelled parse process may keep
+ * running. If it hasn't stopped after a grace period, its thread is
+ * abandoned: An additional thread is added to the pool until the abandoned
+ * thread returns, so that a runaway parser doesn't reduce the number of
+ * files being parsed in parallel. The number of additional threads is
+ * limited to the original size of the pool.
+ *
+ * @author Tran Nam Quang
+ */
+class ParseWatchdog extends Thread {
+
+	/**
+	 * The state of a single parse process. A ticket is created before the
+	 * parse task is submitted, and the task's <tt>Future</tt> is attached to
+	 * it after the submission.
+	 */
+	static final class Ticket {
+		/** The future of the parse task; null until it has been submitted. */
+		volatile Future<?> future;
+		private Thread thread;
+		private long startTime;
+		private boolean cancelled = false;
+		private boolean abandoned = false;
+
+		/** Whether an additional thread was added for the abandoned thread. */
+		private boolean replaced = false;
+
+		/**
+		 * Returns whether the parse process was cancelled because it took
+		 * too long.
+		 */
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Number of milliseconds a cancelled parse process may keep running
+	 * before its thread is abandoned.
+	 */
+	private static final long GRACE_PERIOD = 10000;
+
+	/** The interval in milliseconds in which the parse processes are checked. */
+	private static final long CHECK_INTERVAL = 1000;
+
+	/** The pool of parser threads. */
+	private final ThreadPoolExecutor executor;
+
+	/** The parse processes that are currently running. */
+	private final Set<Ticket> running = new HashSet<Ticket> ();
+
+	/** The maximum number of additional threads for abandoned threads. */
+	private final int maxReplacements;
+
+	/** The number of additional threads currently in the pool. */
+	private int nReplacements = 0;
+
+	ParseWatchdog(ThreadPoolExecutor executor) {
+		super("ParseWatchdog"); //$NON-NLS-1$
+		this.executor = executor;
+		maxReplacements = executor.getCorePoolSize();
+		setDaemon(true);
+	}
+
+	/**
+	 * Must be called on the parser thread when the parse process of the given
+	 * ticket starts.
+	 */
+	void started(Ticket ticket) {
+		synchronized (ticket) {
+			ticket.thread = Thread.currentThread();
+			ticket.startTime = System.currentTimeMillis();
+		}
+		synchronized (running) {
+			running.add(ticket);
+		}
+	}
+
+	/**
+	 * Must be called on the parser thread when the parse process of the given
+	 * ticket has ended, regardless of how it ended.
+	 */
+	void finished(Ticket ticket) {
+		synchronized (running) {
+			running.remove(ticket);
+		}
+		synchronized (ticket) {
+			if (ticket.replaced)
+				resizePool(-1);
+			ticket.abandoned = false;
+			ticket.replaced = false;
+		}
+	}
+
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(CHECK_INTERVAL);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			long timeout = Pref.Int.ParseTimeout.getValue() * 1000L;
+			if (timeout <= 0)
+				continue;
+			Ticket[] tickets;
+			synchronized (running) {
+				tickets = running.toArray(new Ticket[running.size()]);
+			}
+			long now = System.currentTimeMillis();
+			for (Ticket ticket : tickets) {
+				synchronized (ticket) {
+					long elapsed = now - ticket.startTime;
+					if (! ticket.cancelled && elapsed > timeout && ticket.future != null) {
+						ticket.cancelled = true;
+						ticket.future.cancel(true);
+					}
+					else if (ticket.cancelled && ! ticket.abandoned && elapsed > timeout + GRACE_PERIOD) {
+						ticket.abandoned = true;
+						ticket.replaced = resizePool(1);
+						abandon(ticket.thread);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called when the given parser thread is abandoned, i.e. when the parse
+	 * process running on it is no longer waited for. The
+	 * <tt>ParserSilencer</tt> aspect hooks into this method, since the
+	 * abandoned parse process might never return.
+	 */
+	void abandon(Thread thread) {
+		// Nothing to do here
+	}
+
+	/**
+	 * Changes the number of threads of the pool by the given amount and
+	 * returns whether this has been done. No threads are added if the
+	 * maximum number of additional threads has been reached.
+	 */
+	private boolean resizePool(int delta) {
+		synchronized (executor) {
+			if (nReplacements + delta > maxReplacements)
+				return false;
+			nReplacements += delta;
+			int size = executor.getCorePoolSize() + delta;
+			if (delta > 0) {
+				executor.setMaximumPoolSize(size);
+				executor.setCorePoolSize(size);
+			}
+			else {
+				executor.setCorePoolSize(size);
+				executor.setMaximumPoolSize(size);
+			}
+		}
+		return true;
+	}
+
+}
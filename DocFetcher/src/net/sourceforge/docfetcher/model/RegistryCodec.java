@@ -0,0 +1,522 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.sourceforge.docfetcher.Const;
+import net.sourceforge.docfetcher.util.UtilFile;
+
+/**
+ * Reads and writes the registered <tt>RootScope</tt>s and the trees of
+ * <tt>Scope</tt>s, <tt>FileWrapper</tt>s and <tt>HTMLPair</tt>s under them in
+ * a compact binary format, which replaces the Java serialization of the
+ * <tt>ScopeRegistry</tt>.
+ * <p>
+ * The file starts with a magic number and a format version, followed by the
+ * entries. Numbers are stored as variable-length integers, timestamps as
+ * differences to the previously written timestamp, and paths are
+ * prefix-compressed against the previously written path. Since the trees are
+ * written depth-first, consecutive paths usually share everything except the
+ * filename.
+ * <p>
+ * The file is read sequentially, so it can be read either from a stream or
+ * from a memory-mapped buffer.
+ *
+ * @author Tran Nam Quang
+ */
+final class RegistryCodec {
+
+	/** The magic number at the beginning of the file ("DFRG"). */
+	private static final int MAGIC = 0x44465247;
+
+	/**
+	 * The current format version. This must be increased whenever the format
+	 * is changed, and the reading code must remain able to read the older
+	 * versions.
+	 * <p>
+	 * Version 2 added the generation number of the snapshot, see
+	 * {@link RegistryJournal}. Version 3 added the content fingerprints of the
+	 * files. Version 4 added the reasons of the parse errors. Version 5 added
+	 * the directory timestamps of the scopes. Version 6 added whether the
+	 * index of a <tt>RootScope</tt> has been checked for path keys and
+	 * whether it lacks them.
+	 */
+	static final int VERSION = 6;
+
+	/**
+	 * Thrown if a registry file or journal has been written by a newer version
+	 * of the program, in a format this version cannot read.
+	 */
+	static class NewerVersionException extends IOException {
+		static final long serialVersionUID = 1;
+		NewerVersionException(File file, int version) {
+			super("Registry format version " + version + " of " + file.getPath() + " is newer than " + VERSION); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	/**
+	 * Files larger than this number of bytes are memory-mapped for reading.
+	 */
+	private static final long MMAP_THRESHOLD = 8 * 1024 * 1024;
+
+	private RegistryCodec() {
+		// Static use only
+	}
+
+	/**
+	 * Writes the given <tt>RootScope</tt>s to the given file, along with the
+	 * given generation number. The data is written to a temporary file first,
+	 * which then replaces the given file, so that the latter isn't corrupted if
+	 * the write process fails. On Windows, the given file must be deleted
+	 * before the temporary file can take its place; if the program is killed
+	 * in between, {@link #load(File, List)} reads the temporary file instead.
+	 *
+	 * @throws IOException
+	 *             if the write process failed.
+	 */
+	static void save(Collection<RootScope> rootScopes, File file, long generation) throws IOException {
+		File parentDir = UtilFile.getParentFile(file.getAbsoluteFile());
+		if (! parentDir.exists())
+			parentDir.mkdirs();
+		File tempFile = getTempFile(file);
+		Output out = new Output(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeVarInt(VERSION);
+			out.writeLong(generation);
+			out.writeVarInt(rootScopes.size());
+			for (RootScope rootScope : rootScopes) {
+				out.writePath(rootScope.file);
+				rootScope.writeSettings(out);
+				writeScope(out, rootScope);
+			}
+		} finally {
+			out.close();
+		}
+		// Elsewhere, the rename replaces the given file atomically
+		if (Const.IS_WINDOWS && file.exists() && ! file.delete())
+			throw new IOException("Cannot replace " + file.getPath()); //$NON-NLS-1$
+		if (! tempFile.renameTo(file))
+			throw new IOException("Cannot rename " + tempFile.getPath()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the temporary file to which the given file is written before it
+	 * replaces the latter.
+	 */
+	private static File getTempFile(File file) {
+		File parentDir = UtilFile.getParentFile(file.getAbsoluteFile());
+		return new File(parentDir, file.getName() + ".tmp"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns whether the given file exists, or on Windows, whether a
+	 * temporary file exists that was meant to replace it when the program was
+	 * killed.
+	 *
+	 * @see #save(Collection, File, long)
+	 */
+	static boolean exists(File file) {
+		return file.exists() || (Const.IS_WINDOWS && getTempFile(file).exists());
+	}
+
+	/**
+	 * Reads the <tt>RootScope</tt>s from the given file into the given list and
+	 * returns the generation number of the file. Files written before
+	 * generation numbers were introduced have the generation number 0. If the
+	 * given file doesn't exist, the temporary file that was meant to replace
+	 * it is read, see {@link #exists(File)}.
+	 *
+	 * @throws IOException
+	 *             if the file could not be read or has an invalid or
+	 *             unsupported format, in particular a
+	 *             <tt>NewerVersionException</tt> if the file has been written
+	 *             by a newer version.
+	 */
+	static long load(File file, List<RootScope> rootScopes) throws IOException {
+		if (! file.exists() && Const.IS_WINDOWS)
+			file = getTempFile(file);
+		InputStream stream;
+		FileInputStream fileStream = new FileInputStream(file);
+		/*
+		 * Memory-mapped files cannot be deleted or replaced on Windows until
+		 * the buffer has been garbage collected, which would break saving.
+		 */
+		if (file.length() > MMAP_THRESHOLD && ! Const.IS_WINDOWS) {
+			try {
+				FileChannel channel = fileStream.getChannel();
+				stream = new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} finally {
+				fileStream.close();
+			}
+		}
+		else {
+			stream = new BufferedInputStream(fileStream);
+		}
+		Input in = new Input(stream);
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a registry file: " + file.getPath()); //$NON-NLS-1$
+			int version = in.readVarInt();
+			if (version < 1)
+				throw new IOException("Unsupported registry format version: " + version); //$NON-NLS-1$
+			if (version > VERSION)
+				throw new NewerVersionException(file, version);
+			in.version = version;
+			long generation = version >= 2 ? in.readLong() : 0;
+			int nRootScopes = in.readVarInt();
+			for (int i = 0; i < nRootScopes; i++) {
+				RootScope rootScope = new RootScope();
+				rootScope.file = in.readPath();
+				rootScope.readSettings(in);
+				readScope(in, rootScope, rootScope);
+				rootScopes.add(rootScope);
+			}
+			return generation;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Recursively writes the directory timestamp and the children of the
+	 * given <tt>Scope</tt>.
+	 */
+	static void writeScope(Output out, Scope scope) throws IOException {
+		out.writeTime(scope.dirLastModified);
+		out.writeVarInt(scope.subFiles.size());
+		for (FileWrapper fileWrapper : scope.subFiles.values()) {
+			out.writePath(fileWrapper.file);
+			writeStamp(out, fileWrapper);
+		}
+		out.writeVarInt(scope.subHTMLPairs.size());
+		for (HTMLPair htmlPair : scope.subHTMLPairs.values()) {
+			out.writePath(htmlPair.file);
+			writeStamp(out, htmlPair);
+			Modifiable folderWrapper = htmlPair.getFolderWrapper();
+			out.writeBoolean(folderWrapper != null);
+			if (folderWrapper != null)
+				writeModifiable(out, folderWrapper);
+		}
+		out.writeVarInt(scope.subScopes.size());
+		for (Scope subScope : scope.subScopes.values()) {
+			out.writePath(subScope.file);
+			writeScope(out, subScope);
+		}
+	}
+
+	/**
+	 * Recursively reads the directory timestamp and the children of the given
+	 * <tt>Scope</tt>, as written by {@link #writeScope(Output, Scope)}.
+	 */
+	static void readScope(Input in, Scope scope, RootScope root) throws IOException {
+		if (in.version >= 5)
+			scope.dirLastModified = in.readTime();
+		int nFiles = in.readVarInt();
+		for (int i = 0; i < nFiles; i++) {
+			FileWrapper fileWrapper = new FileWrapper();
+			fileWrapper.parent = scope;
+			fileWrapper.file = in.readPath();
+			readStamp(in, fileWrapper);
+			scope.addSubFile(fileWrapper);
+		}
+		int nHTMLPairs = in.readVarInt();
+		for (int i = 0; i < nHTMLPairs; i++) {
+			HTMLPair htmlPair = new HTMLPair();
+			htmlPair.parent = scope;
+			htmlPair.file = in.readPath();
+			readStamp(in, htmlPair);
+			if (in.readBoolean())
+				htmlPair.setFolderWrapper(readModifiable(in, root));
+			scope.addSubHTMLPair(htmlPair);
+		}
+		int nScopes = in.readVarInt();
+		for (int i = 0; i < nScopes; i++) {
+			Scope subScope = new Scope();
+			subScope.parent = scope;
+			subScope.file = in.readPath();
+			readScope(in, subScope, root);
+			scope.addSubScope(subScope);
+		}
+	}
+
+	/**
+	 * Writes the timestamp and the content fingerprint of the given
+	 * <tt>FileWrapper</tt>.
+	 */
+	static void writeStamp(Output out, FileWrapper fileWrapper) throws IOException {
+		out.writeTime(fileWrapper.lastModified);
+		boolean hasFingerprint = fileWrapper.fingerprint != -1;
+		out.writeBoolean(hasFingerprint);
+		if (hasFingerprint) {
+			out.writeVarLong(fileWrapper.size);
+			out.writeInt((int) fileWrapper.fingerprint);
+		}
+	}
+
+	/**
+	 * Reads the timestamp and the content fingerprint of the given
+	 * <tt>FileWrapper</tt>, as written by
+	 * {@link #writeStamp(Output, FileWrapper)}.
+	 */
+	static void readStamp(Input in, FileWrapper fileWrapper) throws IOException {
+		fileWrapper.lastModified = in.readTime();
+		if (in.version >= 3 && in.readBoolean()) {
+			fileWrapper.size = in.readVarLong();
+			fileWrapper.fingerprint = in.readInt() & 0xFFFFFFFFL;
+		}
+	}
+
+	static void writeModifiable(Output out, Modifiable modifiable) throws IOException {
+		out.writePath(modifiable.getFile());
+		List<Modifiable> children = modifiable.getChildren();
+		out.writeBoolean(children != null);
+		if (children == null) {
+			out.writeTime(modifiable.getLastModified());
+			return;
+		}
+		out.writeVarInt(children.size());
+		for (Modifiable child : children)
+			writeModifiable(out, child);
+	}
+
+	static Modifiable readModifiable(Input in, RootScope root) throws IOException {
+		File file = in.readPath();
+		if (! in.readBoolean())
+			return new Modifiable(root, file, in.readTime(), null);
+		int nChildren = in.readVarInt();
+		List<Modifiable> children = new ArrayList<Modifiable> (nChildren);
+		for (int i = 0; i < nChildren; i++)
+			children.add(readModifiable(in, root));
+		return new Modifiable(root, file, -1, children);
+	}
+
+	/**
+	 * The encoder for the primitive values of the registry format.
+	 */
+	static final class Output {
+		private final DataOutputStream out;
+		private String lastPath = ""; //$NON-NLS-1$
+		private long lastTime = 0;
+
+		Output(OutputStream out) {
+			this.out = new DataOutputStream(out);
+		}
+
+		void writeInt(int value) throws IOException {
+			out.writeInt(value);
+		}
+
+		void writeLong(long value) throws IOException {
+			out.writeLong(value);
+		}
+
+		void writeBoolean(boolean value) throws IOException {
+			out.writeBoolean(value);
+		}
+
+		/** Writes a non-negative integer in 1 to 5 bytes. */
+		void writeVarInt(int value) throws IOException {
+			writeVarLong(value & 0xFFFFFFFFL);
+		}
+
+		/** Writes a non-negative long in 1 to 10 bytes. */
+		void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				out.writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.writeByte((int) value);
+		}
+
+		/** Writes a long that may be negative, using zigzag encoding. */
+		void writeSignedVarLong(long value) throws IOException {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		/**
+		 * Writes a timestamp as the difference to the previously written
+		 * timestamp.
+		 */
+		void writeTime(long time) throws IOException {
+			writeSignedVarLong(time - lastTime);
+			lastTime = time;
+		}
+
+		void writeString(String str) throws IOException {
+			byte[] bytes = str.getBytes("UTF-8"); //$NON-NLS-1$
+			writeVarInt(bytes.length);
+			out.write(bytes);
+		}
+
+		void writeStrings(String[] strings) throws IOException {
+			writeVarInt(strings.length);
+			for (String str : strings)
+				writeString(str);
+		}
+
+		/**
+		 * Writes the path of the given file as the length of the prefix it
+		 * shares with the previously written path, followed by the remainder.
+		 */
+		void writePath(File file) throws IOException {
+			String path = file.getPath();
+			int maxPrefix = Math.min(path.length(), lastPath.length());
+			int prefix = 0;
+			while (prefix < maxPrefix && path.charAt(prefix) == lastPath.charAt(prefix))
+				prefix++;
+			if (prefix > 0 && Character.isHighSurrogate(path.charAt(prefix - 1)))
+				prefix--; // Don't split surrogate pairs
+			writeVarInt(prefix);
+			writeString(path.substring(prefix));
+			lastPath = path;
+		}
+
+		/** Writes a path that may be null. */
+		void writeOptionalPath(File file) throws IOException {
+			writeBoolean(file != null);
+			if (file != null)
+				writePath(file);
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * The decoder for the primitive values of the registry format.
+	 */
+	static final class Input {
+		private final DataInputStream in;
+		private String lastPath = ""; //$NON-NLS-1$
+		private long lastTime = 0;
+
+		/** The format version of the data being read. */
+		int version = VERSION;
+
+		Input(InputStream in) {
+			this.in = new DataInputStream(in);
+		}
+
+		int readInt() throws IOException {
+			return in.readInt();
+		}
+
+		long readLong() throws IOException {
+			return in.readLong();
+		}
+
+		boolean readBoolean() throws IOException {
+			return in.readBoolean();
+		}
+
+		int readVarInt() throws IOException {
+			long value = readVarLong();
+			if (value > Integer.MAX_VALUE)
+				throw new IOException("Corrupted registry file"); //$NON-NLS-1$
+			return (int) value;
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.readUnsignedByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IOException("Corrupted registry file"); //$NON-NLS-1$
+		}
+
+		long readSignedVarLong() throws IOException {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		long readTime() throws IOException {
+			lastTime += readSignedVarLong();
+			return lastTime;
+		}
+
+		String readString() throws IOException {
+			byte[] bytes = new byte[readVarInt()];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8"); //$NON-NLS-1$
+		}
+
+		String[] readStrings() throws IOException {
+			String[] strings = new String[readVarInt()];
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = readString();
+			return strings;
+		}
+
+		File readPath() throws IOException {
+			int prefix = readVarInt();
+			if (prefix > lastPath.length())
+				throw new IOException("Corrupted registry file"); //$NON-NLS-1$
+			String path = lastPath.substring(0, prefix) + readString();
+			lastPath = path;
+			return new File(path);
+		}
+
+		File readOptionalPath() throws IOException {
+			return readBoolean() ? readPath() : null;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * An <tt>InputStream</tt> reading from a (memory-mapped) byte buffer.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (! buffer.hasRemaining())
+				return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+
+}
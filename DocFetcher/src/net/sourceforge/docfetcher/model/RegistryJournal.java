@@ -0,0 +1,557 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import net.sourceforge.docfetcher.util.UtilFile;
+
+/**
+ * An append-only log of the changes made to the registered scope trees since
+ * the last snapshot of the registry was written. The <tt>Scope</tt>s record
+ * their changes here as indexing proceeds, so that the registry doesn't have
+ * to be rewritten as a whole after each indexing job. On startup, the journal
+ * is replayed on top of the snapshot; it is emptied whenever a new snapshot
+ * is written.
+ * <p>
+ * The records are collected in memory, separately for each
+ * <tt>RootScope</tt>, and appended to the journal file in batches by
+ * {@link #flush(RootScope)}, which should be called whenever the index
+ * changes of the <tt>RootScope</tt> have been committed. Keeping the records
+ * apart ensures that a commit of one index doesn't write records that refer
+ * to uncommitted changes of another index being updated at the same time.
+ * Each batch is stored with its length and checksum, so that an incompletely
+ * written batch at the end of the file is detected and discarded when the
+ * journal is replayed.
+ * <p>
+ * The journal file starts with a magic number, the format version of the
+ * registry and the generation number of the snapshot it belongs to. A journal
+ * whose generation number doesn't match that of the snapshot is outdated and
+ * ignored.
+ * <p>
+ * Since the records are encoded into memory, the <tt>IOException</tt>s
+ * declared by the encoder cannot occur while recording.
+ *
+ * @see RegistryCodec
+ * @author Tran Nam Quang
+ */
+public final class RegistryJournal {
+
+	/** The magic number at the beginning of the file ("DFJL"). */
+	private static final int MAGIC = 0x44464A4C;
+
+	/** The length of the file header in bytes. */
+	private static final int HEADER_LENGTH = 4 + 4 + 8;
+
+	// Record types
+	private static final int END_OF_BATCH = 0;
+	private static final int ROOT_ADDED = 1;
+	private static final int ROOT_REMOVED = 2;
+	private static final int ROOT_UPDATED = 3;
+	private static final int SCOPE_CLEARED = 4;
+	private static final int FILE_ADDED = 5;
+	private static final int FILE_REMOVED = 6;
+	private static final int HTML_PAIR_ADDED = 7;
+	private static final int HTML_PAIR_REMOVED = 8;
+	private static final int SCOPE_ADDED = 9;
+	private static final int SCOPE_REMOVED = 10;
+	private static final int SCOPE_STAMPED = 11;
+
+	/**
+	 * The records of a single batch. Each batch has its own encoder, so that
+	 * it can be decoded on its own.
+	 */
+	private static final class Batch {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final RegistryCodec.Output out = new RegistryCodec.Output(bytes);
+	}
+
+	private final File file;
+
+	/** The generation number of the snapshot this journal belongs to. */
+	private long generation;
+
+	/**
+	 * The records that haven't been flushed yet, mapped to the
+	 * <tt>RootScope</tt>s they belong to.
+	 */
+	private final Map<RootScope, Batch> batches = new IdentityHashMap<RootScope, Batch> ();
+
+	/** The length of the journal file, including the flushed batches. */
+	private long length;
+
+	/**
+	 * Whether the journal file must not be written, because the registry
+	 * has been written by a newer version.
+	 */
+	private final boolean readOnly;
+
+	/**
+	 * Creates a journal that appends to the given file. The file must have
+	 * been replayed before, or reset with {@link #reset(long)}.
+	 *
+	 * @param length
+	 *            The length of the valid part of the file as returned by
+	 *            {@link #replay(File, long, List)}; any remains of incomplete
+	 *            batches after it are cut off on the next flush.
+	 * @param readOnly
+	 *            Whether the records should be dropped instead of being
+	 *            written to the file.
+	 */
+	RegistryJournal(File file, long generation, long length, boolean readOnly) {
+		this.file = file;
+		this.generation = generation;
+		this.length = length;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Applies the changes recorded in the given journal file to the given
+	 * list of <tt>RootScope</tt>s, which has been loaded from the snapshot
+	 * with the given generation number. Returns the length of the part of the
+	 * journal that could be read, or 0 if the journal file doesn't exist or
+	 * doesn't belong to the snapshot. An incomplete or corrupted batch and
+	 * everything after it is skipped.
+	 *
+	 * @throws IOException
+	 *             if the journal file could not be read, in particular a
+	 *             <tt>NewerVersionException</tt> if it has been written by a
+	 *             newer version.
+	 */
+	static long replay(File file, long generation, List<RootScope> rootScopes) throws IOException {
+		if (! file.exists())
+			return 0;
+		Map<String, RootScope> rootMap = new HashMap<String, RootScope> ();
+		for (RootScope rootScope : rootScopes)
+			rootMap.put(rootScope.file.getPath(), rootScope);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int version;
+			try {
+				if (in.readInt() != MAGIC)
+					return 0;
+				version = in.readInt();
+				if (version < 2)
+					return 0;
+				if (version > RegistryCodec.VERSION)
+					throw new RegistryCodec.NewerVersionException(file, version);
+				if (in.readLong() != generation)
+					return 0;
+			} catch (EOFException e) {
+				return 0;
+			}
+			long validLength = HEADER_LENGTH;
+			CRC32 crc = new CRC32();
+			while (true) {
+				byte[] bytes;
+				try {
+					int batchLength = in.readInt();
+					int checksum = in.readInt();
+					if (batchLength < 0 || batchLength > file.length())
+						break;
+					bytes = new byte[batchLength];
+					in.readFully(bytes);
+					crc.reset();
+					crc.update(bytes);
+					if ((int) crc.getValue() != checksum)
+						break;
+				} catch (EOFException e) {
+					break;
+				}
+				RegistryCodec.Input batchIn = new RegistryCodec.Input(new ByteArrayInputStream(bytes));
+				batchIn.version = version;
+				replayBatch(batchIn, rootMap);
+				validLength += 8 + bytes.length;
+			}
+			rootScopes.clear();
+			rootScopes.addAll(rootMap.values());
+			/*
+			 * An empty journal in an older format is treated as missing, so
+			 * that its header is rewritten before new records are appended.
+			 */
+			if (validLength == HEADER_LENGTH && version < RegistryCodec.VERSION)
+				return 0;
+			return validLength;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Applies the records of a single batch.
+	 */
+	private static void replayBatch(RegistryCodec.Input in, Map<String, RootScope> rootMap) throws IOException {
+		while (true) {
+			int type = in.readVarInt();
+			if (type == END_OF_BATCH)
+				return;
+			File rootFile = in.readPath();
+			if (type == ROOT_ADDED) {
+				RootScope rootScope = new RootScope();
+				rootScope.file = rootFile;
+				rootScope.readSettings(in);
+				RegistryCodec.readScope(in, rootScope, rootScope);
+				rootMap.put(rootFile.getPath(), rootScope);
+				continue;
+			}
+			RootScope rootScope = rootMap.get(rootFile.getPath());
+			if (type == ROOT_REMOVED) {
+				rootMap.remove(rootFile.getPath());
+				continue;
+			}
+			if (type == ROOT_UPDATED) {
+				/*
+				 * The settings must be read even if the RootScope is missing,
+				 * otherwise the following records couldn't be decoded.
+				 */
+				RootScope target = rootScope != null ? rootScope : new RootScope();
+				target.readSettings(in);
+				continue;
+			}
+			File file = in.readPath();
+			Scope parent = rootScope == null ? null : findScope(rootScope, UtilFile.getParentFile(file));
+			switch (type) {
+			case SCOPE_CLEARED:
+				Scope scope = rootScope == null ? null : findScope(rootScope, file);
+				if (scope != null)
+					scope.clearChildren();
+				break;
+			case FILE_ADDED:
+				FileWrapper fileWrapper = new FileWrapper();
+				fileWrapper.file = file;
+				RegistryCodec.readStamp(in, fileWrapper);
+				if (parent != null) {
+					fileWrapper.parent = parent;
+					parent.addSubFile(fileWrapper);
+				}
+				break;
+			case HTML_PAIR_ADDED:
+				HTMLPair htmlPair = new HTMLPair();
+				htmlPair.file = file;
+				RegistryCodec.readStamp(in, htmlPair);
+				if (in.readBoolean())
+					htmlPair.setFolderWrapper(RegistryCodec.readModifiable(in, rootScope));
+				if (parent != null) {
+					htmlPair.parent = parent;
+					parent.addSubHTMLPair(htmlPair);
+				}
+				break;
+			case SCOPE_ADDED:
+				if (parent != null && parent.getRegisteredScope(file) == null) {
+					Scope subScope = new Scope();
+					subScope.parent = parent;
+					subScope.file = file;
+					parent.addSubScope(subScope);
+				}
+				break;
+			case FILE_REMOVED:
+				if (parent != null) {
+					FileWrapper removed = parent.subFiles.get(Scope.getNameKey(file));
+					if (removed != null)
+						parent.removeSubFile(removed);
+				}
+				break;
+			case HTML_PAIR_REMOVED:
+				if (parent != null) {
+					HTMLPair removed = parent.subHTMLPairs.get(Scope.getNameKey(file));
+					if (removed != null)
+						parent.removeSubHTMLPair(removed);
+				}
+				break;
+			case SCOPE_REMOVED:
+				if (parent != null) {
+					Scope removed = parent.getRegisteredScope(file);
+					if (removed != null)
+						parent.removeSubScope(removed);
+				}
+				break;
+			case SCOPE_STAMPED:
+				long dirLastModified = in.readTime();
+				Scope stamped = rootScope == null ? null : findScope(rootScope, file);
+				if (stamped != null)
+					stamped.dirLastModified = dirLastModified;
+				break;
+			default:
+				throw new IOException("Unknown journal record type: " + type); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Returns the <tt>Scope</tt> under the given <tt>RootScope</tt> that
+	 * represents the given directory, or null if there is none.
+	 */
+	private static Scope findScope(RootScope rootScope, File dir) {
+		if (dir == null)
+			return null;
+		if (dir.equals(rootScope.file))
+			return rootScope;
+		if (dir.getPath().length() <= rootScope.file.getPath().length())
+			return null;
+		Scope parent = findScope(rootScope, UtilFile.getParentFile(dir));
+		return parent == null ? null : parent.getRegisteredScope(dir);
+	}
+
+	synchronized void rootAdded(RootScope rootScope) {
+		try {
+			RegistryCodec.Output out = writeHeader(ROOT_ADDED, rootScope);
+			rootScope.writeSettings(out);
+			RegistryCodec.writeScope(out, rootScope);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void rootRemoved(RootScope rootScope) {
+		try {
+			writeHeader(ROOT_REMOVED, rootScope);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Records the settings and the parse results of the given
+	 * <tt>RootScope</tt>.
+	 */
+	synchronized void rootUpdated(RootScope rootScope) {
+		try {
+			RegistryCodec.Output out = writeHeader(ROOT_UPDATED, rootScope);
+			rootScope.writeSettings(out);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void scopeCleared(RootScope rootScope, Scope scope) {
+		try {
+			writeHeader(SCOPE_CLEARED, rootScope, scope.file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void fileAdded(RootScope rootScope, FileWrapper fileWrapper) {
+		try {
+			RegistryCodec.Output out = writeHeader(FILE_ADDED, rootScope, fileWrapper.file);
+			RegistryCodec.writeStamp(out, fileWrapper);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void fileRemoved(RootScope rootScope, FileWrapper fileWrapper) {
+		try {
+			writeHeader(FILE_REMOVED, rootScope, fileWrapper.file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void htmlPairAdded(RootScope rootScope, HTMLPair htmlPair) {
+		try {
+			RegistryCodec.Output out = writeHeader(HTML_PAIR_ADDED, rootScope, htmlPair.file);
+			RegistryCodec.writeStamp(out, htmlPair);
+			Modifiable folderWrapper = htmlPair.getFolderWrapper();
+			out.writeBoolean(folderWrapper != null);
+			if (folderWrapper != null)
+				RegistryCodec.writeModifiable(out, folderWrapper);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void htmlPairRemoved(RootScope rootScope, HTMLPair htmlPair) {
+		try {
+			writeHeader(HTML_PAIR_REMOVED, rootScope, htmlPair.file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void scopeAdded(RootScope rootScope, Scope scope) {
+		try {
+			writeHeader(SCOPE_ADDED, rootScope, scope.file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	synchronized void scopeRemoved(RootScope rootScope, Scope scope) {
+		try {
+			writeHeader(SCOPE_REMOVED, rootScope, scope.file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Records the directory timestamp of the given <tt>Scope</tt>.
+	 */
+	synchronized void scopeStamped(RootScope rootScope, Scope scope) {
+		try {
+			RegistryCodec.Output out = writeHeader(SCOPE_STAMPED, rootScope, scope.file);
+			out.writeTime(scope.dirLastModified);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the type and the <tt>RootScope</tt> of a new record into the
+	 * batch of the <tt>RootScope</tt> and returns the encoder of the batch.
+	 */
+	private RegistryCodec.Output writeHeader(int type, RootScope rootScope) throws IOException {
+		Batch batch = batches.get(rootScope);
+		if (batch == null) {
+			batch = new Batch();
+			batches.put(rootScope, batch);
+		}
+		batch.out.writeVarInt(type);
+		batch.out.writePath(rootScope.file);
+		return batch.out;
+	}
+
+	private RegistryCodec.Output writeHeader(int type, RootScope rootScope, File file) throws IOException {
+		RegistryCodec.Output out = writeHeader(type, rootScope);
+		out.writePath(file);
+		return out;
+	}
+
+	/**
+	 * Appends the records of the given <tt>RootScope</tt> collected since the
+	 * last flush to the journal file.
+	 *
+	 * @throws IOException
+	 *             if the journal file could not be written.
+	 */
+	synchronized void flush(RootScope rootScope) throws IOException {
+		Batch batch = batches.remove(rootScope);
+		if (batch == null)
+			return;
+		batch.out.writeVarInt(END_OF_BATCH);
+		writeBatch(batch.bytes.toByteArray());
+	}
+
+	/**
+	 * Drops the records of the given <tt>RootScope</tt> collected since the
+	 * last flush, e.g. because the corresponding index changes couldn't be
+	 * committed.
+	 */
+	synchronized void discard(RootScope rootScope) {
+		batches.remove(rootScope);
+	}
+
+	/**
+	 * Appends all records collected since the last flush to the journal file.
+	 * This should only be called while no indexes are being updated.
+	 *
+	 * @throws IOException
+	 *             if the journal file could not be written.
+	 */
+	synchronized void flush() throws IOException {
+		for (RootScope rootScope : new ArrayList<RootScope> (batches.keySet()))
+			flush(rootScope);
+	}
+
+	/**
+	 * Appends the given batch to the journal file and forces it to disk.
+	 */
+	private void writeBatch(byte[] bytes) throws IOException {
+		if (readOnly) return;
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			if (length < HEADER_LENGTH) {
+				writeFileHeader(out);
+			}
+			out.setLength(length);
+			out.seek(length);
+			out.writeInt(bytes.length);
+			out.writeInt((int) crc.getValue());
+			out.write(bytes);
+			out.getFD().sync();
+			length = out.getFilePointer();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns whether the journal file contains any records.
+	 */
+	synchronized boolean hasRecords() {
+		return length > HEADER_LENGTH;
+	}
+
+	/**
+	 * Returns the number of bytes written to the journal file.
+	 */
+	synchronized long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the generation number of the snapshot this journal belongs to.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Empties the journal after a snapshot with the given generation number
+	 * has been written. Records that haven't been flushed yet are discarded
+	 * as well, since their changes are contained in the snapshot.
+	 *
+	 * @throws IOException
+	 *             if the journal file could not be written.
+	 */
+	synchronized void reset(long generation) throws IOException {
+		this.generation = generation;
+		batches.clear();
+		if (readOnly) return;
+		RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			writeFileHeader(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Truncates the given journal file and writes the file header.
+	 */
+	private void writeFileHeader(RandomAccessFile out) throws IOException {
+		out.setLength(0);
+		out.writeInt(MAGIC);
+		out.writeInt(RegistryCodec.VERSION);
+		out.writeLong(generation);
+		length = HEADER_LENGTH;
+	}
+
+}
@@ -12,7 +12,10 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
 
+import net.sourceforge.docfetcher.parse.Parser;
 import net.sourceforge.docfetcher.util.UtilFile;
 
 import org.apache.lucene.search.Query;
@@ -20,6 +23,11 @@ import org.apache.lucene.search.Query;
 /**
  * A <code>net.sourceforge.docfetcher.model.Document</code> with an additional
  * score field.
+ * <p>
+ * The results of a search don't contain their stored fields initially; these
+ * are loaded by a {@link StoredFieldLoader} on the first call to one of the
+ * getters, as long as the results haven't been released with
+ * {@link #release(ResultDocument[], ResultDocument[])}.
  * 
  * @author Tran Nam Quang
  */
@@ -40,6 +48,15 @@ public class ResultDocument extends Document implements Comparable<ResultDocumen
 	/** The query used to obtain this result object. */
 	private Query query;
 	
+	/**
+	 * The loader of the stored fields, or null if the Lucene document has
+	 * been given in the constructor.
+	 */
+	private final StoredFieldLoader loader;
+	
+	/** The document number in the reader of the loader. */
+	private final int doc;
+	
 	/**
 	 * @param doc
 	 *            The Lucene document returned by a Lucene search.
@@ -47,20 +64,83 @@ public class ResultDocument extends Document implements Comparable<ResultDocumen
 	 *            The score achieved in the search.
 	 */
 	public ResultDocument(org.apache.lucene.document.Document doc, float score, Query query) {
-		luceneDoc = doc;
+		loader = null;
+		this.doc = -1;
+		this.score = score;
+		this.query = query;
+		setLuceneDoc(doc);
+	}
+	
+	/**
+	 * Constructs a result whose stored fields are loaded by the given loader
+	 * when they're first needed.
+	 * 
+	 * @see StoredFieldLoader#newResult(int, float, Query)
+	 */
+	ResultDocument(StoredFieldLoader loader, int doc, float score, Query query) {
+		this.loader = loader;
+		this.doc = doc;
 		this.score = score;
 		this.query = query;
+	}
+	
+	/**
+	 * Sets the stored fields of this result.
+	 */
+	void setLuceneDoc(org.apache.lucene.document.Document doc) {
+		luceneDoc = doc;
 		
 		/*
 		 * The call to UtilFile.normPathSep(..) is needed here because the
 		 * stored path could have been generated in a different environment
 		 * (Windows/Linux).
 		 */
-		file = new File(UtilFile.normPathSep(doc.get(path)));
+		String path = doc.get(Document.path);
+		file = new File(path == null ? "" : UtilFile.normPathSep(path)); //$NON-NLS-1$
 		
 		title = doc.get(Document.title);
 	}
 	
+	/**
+	 * Returns whether the stored fields of this result have been loaded.
+	 */
+	boolean isLoaded() {
+		return luceneDoc != null;
+	}
+	
+	/**
+	 * Returns the document number of this result in the reader of its
+	 * loader.
+	 */
+	int getDocNumber() {
+		return doc;
+	}
+	
+	/**
+	 * Loads the stored fields of this result if they haven't been loaded yet.
+	 */
+	private void load() {
+		if (loader != null)
+			loader.load(this);
+	}
+	
+	/**
+	 * Releases the index readers held by the given results for loading their
+	 * stored fields, except for those also needed by the results in
+	 * <tt>keep</tt>, which may be null. Fields that haven't been loaded until
+	 * then can't be loaded anymore. This method should be called when search
+	 * results are discarded or replaced.
+	 */
+	public static void release(ResultDocument[] results, ResultDocument[] keep) {
+		Set<StoredFieldLoader> keptLoaders = new HashSet<StoredFieldLoader> ();
+		if (keep != null)
+			for (ResultDocument result : keep)
+				keptLoaders.add(result.loader);
+		for (ResultDocument result : results)
+			if (result.loader != null && ! keptLoaders.contains(result.loader))
+				result.loader.release();
+	}
+	
 	/**
 	 * Returns the score achieved in a Lucene search.
 	 */
@@ -72,10 +152,31 @@ public class ResultDocument extends Document implements Comparable<ResultDocumen
 		return query;
 	}
 	
+	public File getFile() {
+		load();
+		return file;
+	}
+	
 	public String getTitle() {
+		load();
 		return title;
 	}
 	
+	public String getAuthor() {
+		load();
+		return super.getAuthor();
+	}
+	
+	public Parser getParser() {
+		load();
+		return super.getParser();
+	}
+	
+	public String getParserName() {
+		load();
+		return super.getParserName();
+	}
+	
 	/**
 	 * Returns 0 if this ResultDocument has the same score as the given
 	 * ResultDocument. Returns -1 if this ResultDocument has a <b>higher</b>
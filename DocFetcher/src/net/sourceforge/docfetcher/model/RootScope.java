@@ -12,19 +12,26 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.sourceforge.docfetcher.Const;
-import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
 import net.sourceforge.docfetcher.parse.ParseException;
-import net.sourceforge.docfetcher.parse.ParserRegistry;
+import net.sourceforge.docfetcher.parse.ParserConfig;
+import net.sourceforge.docfetcher.util.FilenameMatcher;
 import net.sourceforge.docfetcher.util.UtilFile;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -33,9 +40,10 @@ import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.lucene.util.ThreadInterruptedException;
 import org.apache.lucene.util.Version;
 
@@ -52,11 +60,22 @@ public class RootScope extends Scope {
 	/** The Lucene Analyzer used. */
 	public static final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT, new HashSet<String> ());
 	
+	/**
+	 * The minimum age in milliseconds of the timestamp of a directory for it
+	 * to be recorded after listing the directory. On file systems with a
+	 * coarse timestamp resolution (2 seconds on FAT), a directory modified
+	 * again within the same interval would otherwise appear unchanged.
+	 */
+	private static final long DIR_STAMP_RESOLUTION = 2000;
+	
 	/** The Lucene IndexWriter used. */
 	private transient IndexWriter writer;
 	
-	/** The Lucene IndexReader used. */
-	private transient IndexReader reader;
+	/**
+	 * The deletions by stored path collected during an update of a legacy
+	 * index; null for other indexes and outside of updates.
+	 */
+	private transient StoredPathDeletions storedPathDeletions;
 	
 	/** The directory in which the index files for this RootScope are stored. */
 	private File indexDir;
@@ -86,6 +105,50 @@ public class RootScope extends Scope {
 	
 	/** Whether this object and its indexes should be deleted on program termination */
 	private boolean deleteOnExit = false;
+	
+	/**
+	 * Whether the index has been checked with
+	 * {@link #lacksPathKeys(Directory)}, so that it doesn't need to be
+	 * checked again.
+	 */
+	private boolean pathKeysChecked = false;
+	
+	/**
+	 * Whether the index was created by an older version, so that some of its
+	 * documents lack the path key field. Documents are deleted by their
+	 * stored paths from such an index until it is rebuilt.
+	 */
+	private boolean legacyIndex = false;
+	
+	/**
+	 * The lock that must be held while the index files of this RootScope are
+	 * being modified.
+	 */
+	private transient Lock indexLock;
+	
+	/**
+	 * The parser configuration built from the text and HTML extensions of
+	 * this RootScope; null if it hasn't been built yet.
+	 */
+	private transient volatile ParserConfig parserConfig;
+	
+	/**
+	 * The matcher compiled from the exclusion filters of this RootScope; null
+	 * if it hasn't been compiled yet.
+	 */
+	private transient volatile FilenameMatcher exclusionMatcher;
+	
+	/** The number of segments of the index, or -1 if unknown. */
+	private transient int segmentCount = -1;
+	
+	/** The ratio of deleted documents in the index, or -1 if unknown. */
+	private transient float deletedRatio = -1;
+	
+	/**
+	 * The journal in which the changes to this RootScope and the tree under it
+	 * are recorded, or null if this RootScope isn't registered.
+	 */
+	transient RegistryJournal journal;
 
 	/**
 	 * Creates an instance of this class that represents the given file, which
@@ -102,6 +165,80 @@ public class RootScope extends Scope {
 		 * character.
 		 */
 		indexDir = new File(Const.INDEX_PARENT_FILE, file.getName() + "_" + id); //$NON-NLS-1$
+		pathKeysChecked = true;
+	}
+
+	/**
+	 * Creates an uninitialized instance. This constructor is only used for
+	 * loading the registry from disk.
+	 */
+	RootScope() {
+	}
+
+	/**
+	 * Writes the settings and the status of the last update of this RootScope
+	 * to the given registry output.
+	 */
+	void writeSettings(RegistryCodec.Output out) throws IOException {
+		out.writeOptionalPath(indexDir);
+		out.writeString(id);
+		out.writeBoolean(detectHTMLPairs);
+		out.writeStrings(textExtensions);
+		out.writeStrings(htmlExtensions);
+		out.writeStrings(exclusionFilters);
+		out.writeVarInt(parseExceptions.size());
+		for (ParseException e : parseExceptions) {
+			out.writePath(e.getFile());
+			out.writeString(e.getMessage() == null ? "" : e.getMessage()); //$NON-NLS-1$
+			out.writeVarInt(e.getReason().ordinal());
+		}
+		out.writeSignedVarLong(parseTime);
+		out.writeBoolean(finishedWithErrors);
+		out.writeBoolean(deleteOnExit);
+		out.writeBoolean(pathKeysChecked);
+		out.writeBoolean(legacyIndex);
+	}
+
+	/**
+	 * Reads the settings and the status of the last update of this RootScope
+	 * from the given registry input.
+	 * 
+	 * @see #writeSettings(RegistryCodec.Output)
+	 */
+	void readSettings(RegistryCodec.Input in) throws IOException {
+		indexDir = in.readOptionalPath();
+		id = in.readString();
+		detectHTMLPairs = in.readBoolean();
+		textExtensions = in.readStrings();
+		htmlExtensions = in.readStrings();
+		parserConfig = null;
+		exclusionFilters = in.readStrings();
+		exclusionMatcher = null;
+		int nParseExceptions = in.readVarInt();
+		parseExceptions = new ArrayList<ParseException> (nParseExceptions);
+		ParseException.Reason[] reasons = ParseException.Reason.values();
+		for (int i = 0; i < nParseExceptions; i++) {
+			File file = in.readPath();
+			String msg = in.readString();
+			ParseException.Reason reason = ParseException.Reason.PARSER_ERROR;
+			if (in.version >= 4) {
+				int ordinal = in.readVarInt();
+				if (ordinal < reasons.length)
+					reason = reasons[ordinal];
+			}
+			parseExceptions.add(new ParseException(file, msg, reason));
+		}
+		parseTime = in.readSignedVarLong();
+		finishedWithErrors = in.readBoolean();
+		deleteOnExit = in.readBoolean();
+		if (in.version >= 6) {
+			pathKeysChecked = in.readBoolean();
+			legacyIndex = in.readBoolean();
+		}
+		else {
+			pathKeysChecked = false;
+			legacyIndex = false;
+		}
 	}
 
 	/**
@@ -113,13 +250,68 @@ public class RootScope extends Scope {
 	}
 	
 	/**
-	 * Updates the index that corresponds to this RootScope.
+	 * Updates the index that corresponds to this RootScope. Unless the index
+	 * has just been created, the changes are only committed and the index is
+	 * not optimized, so the costs of an update only depend on the number of
+	 * changed files. Compacting the index is left to the
+	 * <tt>IndexMaintenance</tt> thread.
+	 * <p>
+	 * Directories whose timestamps haven't changed since they were last listed
+	 * have had no files added or removed, so they aren't listed again; only
+	 * the timestamps of the files registered in them are checked. Callers that
+	 * know the changes should use {@link #updateFiles(Collection)} instead.
 	 * 
 	 * @throws FileNotFoundException
 	 *             if the directory represented by this class does not exist
 	 *             anymore.
 	 */
 	void updateIndex() throws FileNotFoundException, IOException {
+		update(null);
+	}
+	
+	/**
+	 * Updates the index that corresponds to this RootScope for the given
+	 * changed files and directories only, which may have been added,
+	 * modified or deleted. Changed directories are updated recursively, while
+	 * the other directories aren't visited at all. Files outside of this
+	 * RootScope are ignored.
+	 * <p>
+	 * The parse exceptions of the last update are only replaced for the given
+	 * files.
+	 * 
+	 * @throws FileNotFoundException
+	 *             if the directory represented by this class does not exist
+	 *             anymore.
+	 */
+	void updateFiles(Collection<File> changedFiles) throws FileNotFoundException, IOException {
+		update(changedFiles);
+	}
+	
+	/**
+	 * Acquires the index lock and updates the index, either entirely or for
+	 * the given changed files only if <tt>changedFiles</tt> is not null.
+	 */
+	private void update(Collection<File> changedFiles) throws FileNotFoundException, IOException {
+		Lock lock = getIndexLock();
+		try {
+			lock.lockInterruptibly();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			doUpdateIndex(changedFiles);
+		} finally {
+			lock.unlock();
+		}
+		updateIndexStatistics();
+	}
+	
+	/**
+	 * Does the actual work for {@link #updateIndex()} and
+	 * {@link #updateFiles(Collection)}. The caller must hold the index lock.
+	 */
+	private void doUpdateIndex(Collection<File> changedFiles) throws FileNotFoundException, IOException {
 		if (! file.exists()) {
 			setFinishedWithErrors(true);
 			throw new FileNotFoundException(file.getAbsolutePath());
@@ -127,143 +319,560 @@ public class RootScope extends Scope {
 		
 		// Initialization
 		parseTime = System.currentTimeMillis();
-		parseExceptions.clear();
-		finishedWithErrors = false;
-		ParserRegistry.setTextExtensions(textExtensions);
-		ParserRegistry.setHTMLExtensions(htmlExtensions);
+		if (changedFiles == null) {
+			parseExceptions.clear();
+			finishedWithErrors = false;
+		}
+		else {
+			removeParseExceptions(changedFiles);
+			finishedWithErrors = ! parseExceptions.isEmpty();
+		}
+		ParserConfig config = getParserConfig();
+		boolean committed = false;
 		
 		try {
+			/*
+			 * Indexes created by older versions lack the path key field, so
+			 * their documents can't be deleted by term. Since the contents of
+			 * the documents aren't stored in the index, the key can't be added
+			 * to them afterwards. Instead, the documents without path key are
+			 * deleted by their stored paths after the update, until the user
+			 * rebuilds the index. The result of the check is stored in the
+			 * registry, so each index is only checked once.
+			 */
+			Directory luceneIndexDir = DirectoryType.openSelected(indexDir);
+			if (! pathKeysChecked) {
+				legacyIndex = lacksPathKeys(luceneIndexDir);
+				pathKeysChecked = true;
+			}
+			storedPathDeletions = legacyIndex ? new StoredPathDeletions(luceneIndexDir) : null;
+			
 			// Create index if it doesn't exist yet
-			Directory luceneIndexDir = new SimpleFSDirectory(indexDir);
-			writer = new IndexWriter(luceneIndexDir, analyzer, MaxFieldLength.UNLIMITED); 
-			writer.close();
+			writer = new IndexWriter(luceneIndexDir, analyzer, MaxFieldLength.UNLIMITED);
+			boolean newIndex = writer.maxDoc() == 0;
 			
 			/*
-			 * Clean up ScopeRegistry from missing and modified entries. Cache
-			 * the changes for later use when running over the index
+			 * Recursively remove missing and modified entries from the
+			 * ScopeRegistry and the Lucene index, and index new files
 			 */
-			List<File> removeFromIndex = new ArrayList<File> ();
-			cleanupRegistry(this, removeFromIndex);
-			
-			// Delete missing files from Lucene index
-			try {
-				reader = IndexReader.open(luceneIndexDir, false);
+			if (! Thread.currentThread().isInterrupted()) {
+				Map<Scope, Long> dirStamps = new HashMap<Scope, Long> ();
+				ParsePipeline pipeline = new ParsePipeline(writer, parseExceptions, this, config);
+				try {
+					if (changedFiles == null)
+						updateScope(this, pipeline, config, dirStamps);
+					else
+						updateChangedFiles(changedFiles, pipeline, config, dirStamps);
+					pipeline.finish();
+				} finally {
+					pipeline.shutdown();
+				}
 				
 				/*
-				 * Do not use 'reader.numDocs()' in the for-loop header; it will
-				 * decrease with each deleted document, causing the loop to
-				 * terminate prematurely!
+				 * The directory timestamps are only recorded after a complete
+				 * update, so that directories with files that haven't been
+				 * indexed will be listed again on the next update.
 				 */
-				int numDocs = reader.numDocs();
-				for (int i = 0; i < numDocs; i++) {
-					if (Thread.currentThread().isInterrupted()) break;
-					
-					/*
-					 * DocFetcher crashes if we try to access a deleted
-					 * document. See bug #2881245 and bug #2925127.
-					 */
-					if (reader.isDeleted(i)) continue;
-					
-					String pathCandidate = reader.document(i).get(Document.path);
-					pathCandidate = new File(pathCandidate).getAbsolutePath();
-					File removeFile = null;
-					for (File f : removeFromIndex) {
-						if (UtilFile.equalPaths(f.getAbsolutePath(), pathCandidate)) {
-							reader.deleteDocument(i);
-							removeFile = f;
-							break;
-						}
+				if (! Thread.currentThread().isInterrupted()) {
+					Set<Scope> failedScopes = pipeline.getFailedScopes();
+					for (Map.Entry<Scope, Long> entry : dirStamps.entrySet()) {
+						Scope scope = entry.getKey();
+						boolean complete = ! failedScopes.contains(scope);
+						scope.setDirLastModified(complete ? entry.getValue() : 0);
 					}
-					if (removeFile != null)
-						removeFromIndex.remove(removeFile);
 				}
-			}
-			finally {
-				if (reader != null) {
+				if (newIndex) {
 					try {
-						reader.close();
-						reader = null;
-					} catch (IOException e) {
-						e.printStackTrace();
+						writer.optimize();
+					} catch (ThreadInterruptedException e) {
+						// Ignore, see bug report #2971390 and #2953613
 					}
 				}
 			}
-
-			// Recursively index new files
-			if (! Thread.currentThread().isInterrupted()) {
-				writer = new IndexWriter(luceneIndexDir, analyzer, MaxFieldLength.UNLIMITED);
-				indexNewFiles(this);
-				try {
-					writer.optimize();
-				} catch (ThreadInterruptedException e) {
-					// Ignore, see bug report #2971390 and #2953613
-				}
-			}
 		} finally {
-			ParserRegistry.resetExtensions();
 			if (writer != null) {
 				try {
 					writer.close();
 					writer = null;
+					committed = true;
+					SearcherManager.getInstance().invalidate(this);
 				} catch (ThreadInterruptedException e) {
 					// Ignore, see bug report #2971390 and #2953613
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
+				
+				/*
+				 * If the writer couldn't be closed, the last documents may not
+				 * have been committed, so the records collected since the last
+				 * commit are dropped: The journal must never refer to
+				 * documents that aren't in the index.
+				 */
+				if (! committed && journal != null)
+					journal.discard(this);
+			}
+			if (committed && storedPathDeletions != null) {
+				try {
+					storedPathDeletions.apply();
+					SearcherManager.getInstance().invalidate(this);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
+			storedPathDeletions = null;
 		}
 		
 		parseTime = System.currentTimeMillis() - parseTime;
+		if (committed && journal != null) {
+			journal.rootUpdated(this);
+			journal.flush(this);
+		}
+	}
+
+	/**
+	 * Compacts the index if necessary: If the ratio of deleted documents has
+	 * reached the threshold given by the preferences, the deletions are
+	 * expunged. If <tt>idle</tt> is true and the index has more segments than
+	 * allowed by the preferences, the segments are merged. Returns immediately
+	 * if the index is being modified by another thread.
+	 * <p>
+	 * Maintenance is aborted if the current thread is interrupted; the changes
+	 * made so far are kept.
+	 */
+	void maintainIndex(boolean idle) throws IOException {
+		Lock lock = getIndexLock();
+		if (! lock.tryLock())
+			return;
+		try {
+			if (indexDir == null || ! indexDir.exists())
+				return;
+			updateIndexStatistics();
+			int maxSegments = Math.max(1, Pref.Int.MaxIndexSegments.getValue());
+			boolean compact = idle && segmentCount > maxSegments;
+			boolean expunge = deletedRatio * 100 >= Pref.Int.MaxDeletedPercent.getValue();
+			if (! compact && ! expunge)
+				return;
+			
+			Directory luceneIndexDir = DirectoryType.openSelected(indexDir);
+			IndexWriter writer = new IndexWriter(luceneIndexDir, analyzer, MaxFieldLength.UNLIMITED);
+			boolean aborted = false;
+			try {
+				if (compact)
+					writer.optimize(maxSegments);
+				if (expunge && ! Thread.currentThread().isInterrupted())
+					writer.expungeDeletes();
+			} catch (ThreadInterruptedException e) {
+				aborted = true;
+			} finally {
+				try {
+					// Abort running merges if maintenance was interrupted
+					writer.close(! aborted && ! Thread.currentThread().isInterrupted());
+				} catch (ThreadInterruptedException e) {
+					// Ignore, see bug report #2971390 and #2953613
+				}
+				SearcherManager.getInstance().invalidate(this);
+			}
+		} finally {
+			lock.unlock();
+		}
+		updateIndexStatistics();
+	}
+	
+	/**
+	 * Returns the lock that must be held while the index files of this
+	 * RootScope are being modified.
+	 */
+	private synchronized Lock getIndexLock() {
+		if (indexLock == null)
+			indexLock = new ReentrantLock();
+		return indexLock;
+	}
+	
+	/**
+	 * Reads the number of segments and the ratio of deleted documents from
+	 * the index.
+	 * 
+	 * @see #getSegmentCount()
+	 * @see #getDeletedRatio()
+	 */
+	private void updateIndexStatistics() {
+		if (indexDir == null || ! indexDir.exists())
+			return;
+		try {
+			if (! IndexReader.indexExists(DirectoryType.openSelected(indexDir)))
+				return;
+			/*
+			 * Reading the statistics through the shared reader also reopens
+			 * it after an update, so that the next search doesn't have to.
+			 */
+			SearcherManager searcherManager = SearcherManager.getInstance();
+			IndexReader reader = searcherManager.acquire(this);
+			try {
+				IndexReader[] subReaders = reader.getSequentialSubReaders();
+				segmentCount = subReaders == null ? 1 : subReaders.length;
+				int maxDoc = reader.maxDoc();
+				deletedRatio = maxDoc == 0 ? 0 : (float) reader.numDeletedDocs() / maxDoc;
+			} finally {
+				searcherManager.release(reader);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns the number of segments the index consisted of after the last
+	 * update or maintenance, or -1 if this is unknown.
+	 */
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+	
+	/**
+	 * Returns the ratio (between 0 and 1) of deleted documents in the index
+	 * after the last update or maintenance, or -1 if this is unknown.
+	 */
+	public float getDeletedRatio() {
+		return deletedRatio;
+	}
+
+	/**
+	 * Returns true if the given Lucene directory contains documents, but none
+	 * of them has a path key field.
+	 * 
+	 * @see Document#pathKey
+	 */
+	private static boolean lacksPathKeys(Directory luceneIndexDir) throws IOException {
+		if (! IndexReader.indexExists(luceneIndexDir))
+			return false;
+		IndexReader reader = IndexReader.open(luceneIndexDir, true);
+		try {
+			if (reader.numDocs() == 0)
+				return false;
+			TermEnum terms = reader.terms(new Term(Document.pathKey, "")); //$NON-NLS-1$
+			try {
+				Term term = terms.term();
+				return term == null || ! term.field().equals(Document.pathKey);
+			} finally {
+				terms.close();
+			}
+		} finally {
+			reader.close();
+		}
 	}
 
 	/**
-	 * Removes missing and modified entries from the <tt>ScopeRegistry</tt>
-	 * and puts them into the provided list.
+	 * Recursively updates the registry and the index for the directory
+	 * represented by the given <tt>Scope</tt>: Missing and modified entries
+	 * are removed from both, and new and modified files are handed over to
+	 * the given <tt>ParsePipeline</tt>, which will index them and remember
+	 * them in local fields. Each directory is listed only once, and the
+	 * listing is shared by the cleanup and the indexing step.
+	 * <p>
+	 * Directories that haven't changed since they were last listed are
+	 * skipped, see {@link #updateIndex()}. The timestamps of the
+	 * listed directories are put into the given map, to be recorded once the
+	 * update is complete.
+	 * 
+	 * @throws IOException
+	 *             if documents could not be written to or deleted from the
+	 *             index.
 	 */
-	private void cleanupRegistry(Scope scope, List<File> removeFromIndex) {
+	private void updateScope(Scope scope, ParsePipeline pipeline, ParserConfig config, Map<Scope, Long> dirStamps) throws IOException {
 		if (Thread.currentThread().isInterrupted()) return;
 		
-		// Remove modified files
+		// Skip unchanged directories, but not their subdirectories
+		long dirLastModified = scope.file.lastModified();
+		if (Pref.Bool.SkipUnchangedDirs.getValue() &&
+				scope.dirLastModified != 0 &&
+				scope.dirLastModified == dirLastModified &&
+				! hasModifiedFiles(scope)) {
+			for (Scope subScope : scope.subScopes.values().toArray(new Scope[scope.subScopes.size()])) {
+				if (Thread.currentThread().isInterrupted()) return;
+				updateScope(subScope, pipeline, config, dirStamps);
+			}
+			return;
+		}
+		
+		/*
+		 * If the directory was modified shortly before it is listed, further
+		 * modifications might not change its timestamp, given the coarse
+		 * timestamp resolution of some file systems. In that case, the
+		 * timestamp isn't recorded.
+		 */
+		boolean racy = System.currentTimeMillis() - dirLastModified < DIR_STAMP_RESOLUTION;
+		dirStamps.put(scope, racy ? 0 : dirLastModified);
+		DirectoryListing listing = DirectoryListing.read(scope.file);
+		updateEntries(scope, listing, null, null, pipeline, config, dirStamps);
+	}
+	
+	/**
+	 * Removes missing and modified entries in the given listing of the
+	 * directory represented by <tt>scope</tt> from the registry and the
+	 * Lucene index, submits new and modified files to the given pipeline and
+	 * recurses into the subdirectories.
+	 * <p>
+	 * If <tt>cleanupKeys</tt> is not null, only the registered entries with the
+	 * given name keys are checked. If <tt>changedKeys</tt> is not null, only
+	 * new subdirectories and the registered subdirectories with the given name
+	 * keys are recursed into.
+	 */
+	private void updateEntries(	Scope scope,
+								DirectoryListing listing,
+								Set<String> cleanupKeys,
+								Set<String> changedKeys,
+								ParsePipeline pipeline,
+								ParserConfig config,
+								Map<Scope, Long> dirStamps) throws IOException {
+		// Delete missing and modified files from Lucene index
+		List<File> removeFromIndex = new ArrayList<File> ();
+		cleanupRegistry(scope, listing, cleanupKeys, removeFromIndex, config);
+		if (! removeFromIndex.isEmpty()) {
+			Term[] removeTerms = new Term[removeFromIndex.size()];
+			for (int i = 0; i < removeTerms.length; i++)
+				removeTerms[i] = new Term(Document.pathKey, Document.getPathKey(removeFromIndex.get(i)));
+			writer.deleteDocuments(removeTerms);
+			if (storedPathDeletions != null)
+				storedPathDeletions.add(removeFromIndex);
+		}
+		
+		List<File> subDirs = new ArrayList<File> ();
+		indexNewFiles(scope, listing, pipeline, subDirs, config);
+		
+		// Recursion
+		for (File subDir : subDirs) {
+			if (Thread.currentThread().isInterrupted()) return;
+			Scope subScope = scope.getRegisteredScope(subDir);
+			if (subScope == null) {
+				subScope = new Scope(scope, subDir);
+				scope.addSubScope(subScope);
+			}
+			else if (changedKeys != null && ! changedKeys.contains(Scope.getNameKey(subDir))) {
+				continue;
+			}
+			updateScope(subScope, pipeline, config, dirStamps);
+		}
+	}
+	
+	/**
+	 * Updates the registry and the Lucene index for the given changed files
+	 * and directories. The changed entries are grouped by the deepest
+	 * registered directory containing them, and only the changed entries of
+	 * each such directory are checked, without listing the directory.
+	 * <p>
+	 * If an HTML file or an HTML folder has changed, the directory is listed
+	 * and all of its entries are checked, since the change may affect the
+	 * pairing of other entries. If this RootScope itself is among the changed
+	 * files, all directories are updated.
+	 */
+	private void updateChangedFiles(Collection<File> changedFiles,
+	                                ParsePipeline pipeline,
+	                                ParserConfig config,
+	                                Map<Scope, Long> dirStamps) throws IOException {
+		Set<File> changedSet = new HashSet<File> ();
+		for (File changedFile : changedFiles)
+			changedSet.add(UtilFile.getRelativeFile(Const.USER_DIR_FILE, changedFile));
+		
+		// Group the changed entries by the deepest registered directory containing them
+		Map<Scope, Map<String, File>> groups = new LinkedHashMap<Scope, Map<String, File>> ();
+		for (File changedFile : changedSet) {
+			if (changedFile.equals(file)) {
+				updateScope(this, pipeline, config, dirStamps);
+				return;
+			}
+			if (! contains(changedFile) || hasChangedAncestor(changedFile, changedSet))
+				continue;
+			LinkedList<File> path = new LinkedList<File> ();
+			for (File f = changedFile; ! f.equals(file); f = UtilFile.getParentFile(f))
+				path.addFirst(f);
+			Scope scope = this;
+			File entry = path.removeFirst();
+			while (! path.isEmpty()) {
+				Scope subScope = scope.getRegisteredScope(entry);
+				if (subScope == null)
+					break;
+				scope = subScope;
+				entry = path.removeFirst();
+			}
+			Map<String, File> entries = groups.get(scope);
+			if (entries == null) {
+				entries = new LinkedHashMap<String, File> ();
+				groups.put(scope, entries);
+			}
+			entries.put(Scope.getNameKey(entry), entry);
+		}
+		
+		/*
+		 * The directories are only partially checked here, so their
+		 * timestamps aren't recorded. Subdirectories that are recursed into
+		 * are checked entirely and get their timestamps recorded as usual.
+		 */
+		for (Map.Entry<Scope, Map<String, File>> group : groups.entrySet()) {
+			if (Thread.currentThread().isInterrupted()) return;
+			Scope scope = group.getKey();
+			if (! isAttached(scope))
+				continue; // Removed while handling a previous group
+			Map<String, File> entries = group.getValue();
+			boolean affectsPairing = false;
+			for (File entry : entries.values()) {
+				if (config.isHTMLFile(entry) || UtilFile.getHTMLDirBasename(entry.getName()) != null) {
+					affectsPairing = true;
+					break;
+				}
+			}
+			if (affectsPairing) {
+				DirectoryListing listing = DirectoryListing.read(scope.file);
+				updateEntries(scope, listing, null, entries.keySet(), pipeline, config, dirStamps);
+			}
+			else {
+				File[] files = entries.values().toArray(new File[entries.size()]);
+				DirectoryListing listing = DirectoryListing.read(scope.file, files);
+				updateEntries(scope, listing, entries.keySet(), entries.keySet(), pipeline, config, dirStamps);
+			}
+		}
+	}
+	
+	/**
+	 * Returns whether one of the ancestors of the given file is an existing
+	 * directory contained in the given set of changed files, which means that
+	 * the given file is covered by the update of that directory.
+	 */
+	private boolean hasChangedAncestor(File changedFile, Set<File> changedSet) {
+		for (File f = UtilFile.getParentFile(changedFile); ! f.equals(file); f = UtilFile.getParentFile(f))
+			if (changedSet.contains(f) && f.isDirectory())
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Returns whether the given <tt>Scope</tt> is still reachable from this
+	 * RootScope.
+	 */
+	private boolean isAttached(Scope scope) {
+		for (Scope s = scope; s != this; s = s.parent)
+			if (s.parent == null || s.parent.getRegisteredScope(s.file) != s)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Removes the parse exceptions for the given files and for the files
+	 * inside the given directories.
+	 */
+	private void removeParseExceptions(Collection<File> changedFiles) {
+		Iterator<ParseException> it = parseExceptions.iterator();
+		outer: while (it.hasNext()) {
+			File failedFile = it.next().getFile();
+			for (File changedFile : changedFiles) {
+				if (UtilFile.equalPaths(changedFile.getAbsolutePath(), failedFile.getAbsolutePath()) || UtilFile.contains(changedFile, failedFile)) {
+					it.remove();
+					continue outer;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns whether any of the files registered directly under the given
+	 * <tt>Scope</tt> is missing or has been modified.
+	 */
+	private static boolean hasModifiedFiles(Scope scope) {
+		for (FileWrapper fileWrapper : scope.subFiles.values()) {
+			long lastModified = fileWrapper.file.lastModified();
+			if (lastModified == 0 || fileWrapper.isModified(lastModified))
+				return true;
+		}
+		for (HTMLPair htmlPair : scope.subHTMLPairs.values())
+			if (htmlPair.isModified())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Removes missing and modified entries directly under the given
+	 * <tt>Scope</tt> from the <tt>ScopeRegistry</tt> and puts them into the
+	 * provided list (non-recursive). Removed sub-scopes are put into the list
+	 * together with everything underneath them.
+	 * 
+	 * @param listing
+	 *            The current contents of the directory represented by
+	 *            <tt>scope</tt>.
+	 * @param nameKeys
+	 *            The name keys of the registered entries to check, or null to
+	 *            check all registered entries.
+	 */
+	private void cleanupRegistry(Scope scope, DirectoryListing listing, Set<String> nameKeys, List<File> removeFromIndex, ParserConfig config) {
+		// Remove modified files, restamp files whose contents haven't changed
 		List<Indexable> removeLocal = new ArrayList<Indexable> ();
-		for (FileWrapper fileWrapper : scope.subFiles) {
-			if (fileWrapper.isModified() || isExcluded(fileWrapper.getFile())) {
+		List<Indexable> restamped = new ArrayList<Indexable> ();
+		for (FileWrapper fileWrapper : scope.subFiles.values()) {
+			if (nameKeys != null && ! nameKeys.contains(Scope.getNameKey(fileWrapper.file)))
+				continue;
+			DirectoryListing.Entry entry = listing.getEntry(fileWrapper.file);
+			if (isExcluded(fileWrapper.getFile())) {
+				removeFromIndex.add(fileWrapper.file);
+				removeLocal.add(fileWrapper);
+			}
+			else if (entry == null || entry.isDirectory() || fileWrapper.isModified(entry.lastModified())) {
+				if (entry != null && fileWrapper.restamp()) {
+					restamped.add(fileWrapper);
+					continue;
+				}
 				removeFromIndex.add(fileWrapper.file);
 				removeLocal.add(fileWrapper);
 			}
 		}
-		scope.subFiles.removeAll(removeLocal);
+		for (Indexable indexable : removeLocal)
+			scope.removeSubFile((FileWrapper) indexable);
+		for (Indexable indexable : restamped)
+			scope.addSubFile((FileWrapper) indexable); // Records the new timestamp
 		
 		// List basenames of new HTML folders and
 		// new HTML files (separately)
 		Set<String> newHTMLDirBasenames = new HashSet<String> ();
 		Set<String> newHTMLFileBasenames = new HashSet<String> ();
-		getHTMLBasenames(scope, newHTMLDirBasenames, newHTMLFileBasenames);
+		getHTMLBasenames(scope, listing, newHTMLDirBasenames, newHTMLFileBasenames, config);
 		
-		// Remove modified HTML files
+		// Remove modified HTML files, restamp HTML files whose contents haven't changed
 		removeLocal.clear(); // We can reuse the list from the previous step
-		for (HTMLPair htmlPair : scope.subHTMLPairs) {
-			if (htmlPair.isModified() || isExcluded(htmlPair.getFile()) ||
+		restamped.clear();
+		for (HTMLPair htmlPair : scope.subHTMLPairs.values()) {
+			if (nameKeys != null && ! nameKeys.contains(Scope.getNameKey(htmlPair.file)))
+				continue;
+			DirectoryListing.Entry entry = listing.getEntry(htmlPair.file);
+			if (isExcluded(htmlPair.getFile()) ||
 					newHTMLDirBasenames.contains(UtilFile.getNameNoExt(htmlPair.file))) {
 				removeFromIndex.add(htmlPair.file);
 				removeLocal.add(htmlPair);
 			}
+			else if (entry == null || entry.isDirectory() || htmlPair.isModified(entry.lastModified())) {
+				if (entry != null && htmlPair.restamp()) {
+					restamped.add(htmlPair);
+					continue;
+				}
+				removeFromIndex.add(htmlPair.file);
+				removeLocal.add(htmlPair);
+			}
 		}
-		scope.subHTMLPairs.removeAll(removeLocal);
+		for (Indexable indexable : removeLocal)
+			scope.removeSubHTMLPair((HTMLPair) indexable);
+		for (Indexable indexable : restamped)
+			scope.addSubHTMLPair((HTMLPair) indexable); // Records the new timestamp
 		
 		// Remove deleted scopes and everything underneath them
 		removeLocal.clear(); // We can reuse the list from the previous step
-		for (Scope subScope : scope.subScopes) {
-			if (! subScope.file.exists() ||
-					newHTMLFileBasenames.contains(UtilFile.getHTMLDirBasename(subScope.file))) {
+		for (Scope subScope : scope.subScopes.values()) {
+			if (nameKeys != null && ! nameKeys.contains(Scope.getNameKey(subScope.file)))
+				continue;
+			DirectoryListing.Entry entry = listing.getEntry(subScope.file);
+			if (entry == null || ! entry.isDirectory() ||
+					newHTMLFileBasenames.contains(UtilFile.getHTMLDirBasename(subScope.file.getName()))) {
 				removeLocal.add(subScope);
 				insertAllIndexables(subScope, removeFromIndex);
 			}
 		}
-		scope.subScopes.removeAll(removeLocal);
-		
-		// Recursion
-		for (Scope subScope : scope.subScopes)
-			cleanupRegistry(subScope, removeFromIndex);
+		for (Indexable indexable : removeLocal)
+			scope.removeSubScope((Scope) indexable);
 	}
 	
 	/**
@@ -271,18 +880,18 @@ public class RootScope extends Scope {
 	 * list (a.k.a. "flattening").
 	 */
 	private void insertAllIndexables(Scope scope, List<File> list) {
-		for (FileWrapper fileWrapper : scope.subFiles)
+		for (FileWrapper fileWrapper : scope.subFiles.values())
 			list.add(fileWrapper.file);
-		for (HTMLPair htmlPair : scope.subHTMLPairs)
+		for (HTMLPair htmlPair : scope.subHTMLPairs.values())
 			list.add(htmlPair.file);
-		for (Scope subScope : scope.subScopes)
+		for (Scope subScope : scope.subScopes.values())
 			insertAllIndexables(subScope, list);
 	}
 	
 	/**
-	 * Puts the basenames of all new HTML files and HTML folders under the
-	 * folder represented by <tt>scope</tt> into the two provided lists
-	 * (non-recursive).
+	 * Puts the basenames of all new HTML files and HTML folders in the given
+	 * listing of the folder represented by <tt>scope</tt> into the two
+	 * provided lists (non-recursive).
 	 * <p>
 	 * A file or folder is 'new' if no representation of it in
 	 * <tt>scope</tt> has been created yet.
@@ -292,87 +901,58 @@ public class RootScope extends Scope {
 	 * "foo_files" -> "foo"). The basename of an HTML file is simply its
 	 * filename without the file extension (e.g. "foo.htm" -> "foo").
 	 */
-	private void getHTMLBasenames(final Scope scope, Set<String> newHTMLDirBasenames, Set<String> newHTMLFileBasenames) {
-		FileFilter newHTMLFolderFilter = new FileFilter() {
-			public boolean accept(File candidate) {
-				if (! candidate.isDirectory()) return false;
-				String baseName = UtilFile.getHTMLDirBasename(candidate);
-				if (baseName == null) return false;
-				if (scope.getRegisteredScope(candidate) != null) return false;
-				for (HTMLPair htmlPair : scope.subHTMLPairs)
+	private void getHTMLBasenames(Scope scope, DirectoryListing listing, Set<String> newHTMLDirBasenames, Set<String> newHTMLFileBasenames, ParserConfig config) {
+		outer: for (DirectoryListing.Entry entry : listing.getEntries()) {
+			File candidate = entry.getFile();
+			if (entry.isDirectory()) {
+				String baseName = UtilFile.getHTMLDirBasename(candidate.getName());
+				if (baseName == null) continue;
+				if (scope.getRegisteredScope(candidate) != null) continue;
+				for (HTMLPair htmlPair : scope.subHTMLPairs.values())
 					if (candidate.equals(htmlPair.getHtmlFolder()))
-						return false;
-				return true;
+						continue outer;
+				newHTMLDirBasenames.add(baseName);
 			}
-		};
-		FileFilter newHTMLFileFilter = new FileFilter() {
-			public boolean accept(File candidate) {
-				return candidate.isFile() &&
-				ParserRegistry.isHTMLFile(candidate) &&
-				! (scope.isHTMLFileRegistered(candidate));
+			else if (config.isHTMLFile(candidate) && ! scope.isHTMLFileRegistered(candidate)) {
+				newHTMLFileBasenames.add(UtilFile.getNameNoExt(candidate));
 			}
-		};
-		File[] newHTMLFolders = UtilFile.listAll(scope.file, newHTMLFolderFilter);
-		File[] newHTMLFiles = UtilFile.listAll(scope.file, newHTMLFileFilter);
-		if (newHTMLFolders != null)
-			for (File newHTMLFolder : newHTMLFolders)
-				newHTMLDirBasenames.add(UtilFile.getHTMLDirBasename(newHTMLFolder));
-		if (newHTMLFiles != null)
-			for (File newHTMLFile : newHTMLFiles)
-				newHTMLFileBasenames.add(UtilFile.getNameNoExt(newHTMLFile));
+		}
 	}
 
 	/**
-	 * Recursively indexes all newly inserted documents in the directory
-	 * represented by the given <tt>Scope</tt> and remembers them in local
-	 * fields. It is expected that the <tt>writer</tt> field has been set.
+	 * Collects all newly inserted documents in the given listing of the
+	 * directory represented by the given <tt>Scope</tt> and hands them over
+	 * to the given <tt>ParsePipeline</tt> (non-recursive). The subdirectories
+	 * to be visited next are put into the provided list.
 	 * 
 	 * @throws IOException
 	 *             if documents could not be written to the index.
 	 */
-	private void indexNewFiles(Scope scope) throws IOException {
-		if (Thread.currentThread().isInterrupted()) return;
-		
+	private void indexNewFiles(Scope scope, DirectoryListing listing, ParsePipeline pipeline, List<File> subDirs, ParserConfig config) throws IOException {
 		// Separate files in the current directory
-		List<File> subFiles = new ArrayList<File> ();
-		List<File> subDirs = new ArrayList<File> ();
+		List<DirectoryListing.Entry> subFiles = new ArrayList<DirectoryListing.Entry> ();
 		List<HTMLPair> subHTMLPairs = new ArrayList<HTMLPair> ();
 		if (detectHTMLPairs)
-			separateChildrenHTMLPaired(scope, subFiles, subDirs, subHTMLPairs);
+			separateChildrenHTMLPaired(scope, listing, subFiles, subDirs, subHTMLPairs, config);
 		else
-			separateChildrenHTMLUnpaired(scope, subFiles, subDirs, subHTMLPairs);
+			separateChildrenHTMLUnpaired(scope, listing, subFiles, subDirs, subHTMLPairs, config);
 		
 		/*
 		 * The regex-based file exclusion must be applied *after* the HTML pairing.
 		 */
 
 		// Process normal files in the current directory
-		for (File subFile : subFiles) {
+		for (DirectoryListing.Entry entry : subFiles) {
 			if (Thread.currentThread().isInterrupted()) return;
+			File subFile = entry.getFile();
 			
 			// See bug #2927439: DocFetcher fails on temporary MS Word files
-			if (subFile.getName().matches("~\\$.*\\.docx?")) //$NON-NLS-1$
+			if (UtilFile.isMSWordTempFile(subFile))
 				continue;
 			
 			if (scope.isFileRegistered(subFile)) continue;
 			if (isExcluded(subFile)) continue;
-			try {
-				FileWrapper wrapper = new FileWrapper(scope, subFile);
-				try {
-					// Both the addDocument(..) and the parse() method can run out of memory!
-					writer.addDocument(wrapper.parse().getLuceneDoc());
-				}
-				catch (OutOfMemoryError e) {
-					throw new ParseException(subFile, Msg.out_of_jvm_memory.value());
-				}
-				catch (StackOverflowError e) {
-					throw new ParseException(subFile, Msg.send_file_for_debugging.value());
-				}
-				scope.subFiles.add(wrapper);
-			}
-			catch (ParseException e) {
-				parseExceptions.add(e);
-			}
+			pipeline.submit(new FileWrapper(scope, subFile, entry.lastModified()));
 		}
 		
 		// Process HTML pairs in the current directory
@@ -380,43 +960,20 @@ public class RootScope extends Scope {
 			if (Thread.currentThread().isInterrupted()) return;
 			if (scope.isHTMLPairRegistered(subHTMLPair)) continue;
 			if (isExcluded(subHTMLPair.getFile())) continue;
-			try {
-				subHTMLPair.setParent(scope);
-				try {
-					// Both the addDocument(..) and the parse() method can run out of memory!
-					writer.addDocument(subHTMLPair.parse().getLuceneDoc());
-				}
-				catch (OutOfMemoryError e) {
-					throw new ParseException(subHTMLPair.file, Msg.out_of_jvm_memory.value());
-				}
-				catch (StackOverflowError e) {
-					throw new ParseException(subHTMLPair.file, Msg.send_file_for_debugging.value());
-				}
-				scope.subHTMLPairs.add(subHTMLPair);
-			} catch (ParseException e) {
-				parseExceptions.add(e);
-			}
-		}
-
-		// Process subdirectories
-		for (File subDir : subDirs) {
-			if (Thread.currentThread().isInterrupted()) return;
-			Scope subScope = scope.getRegisteredScope(subDir);
-			if (subScope == null) {
-				subScope = new Scope(scope, subDir);
-				scope.subScopes.add(subScope);
-			}
-			indexNewFiles(subScope);
+			subHTMLPair.setParent(scope);
+			pipeline.submit(subHTMLPair);
 		}
 	}
 
 	/**
-	 * Puts the folders and parsable files inside the <tt>parent</tt>
-	 * directory into the provided lists. Pairs of HTML files and their
-	 * associated directories are grouped together. Symbolic links are excluded.
+	 * Puts the folders and parsable files in the given listing of the
+	 * <tt>parent</tt> directory into the provided lists. Pairs of HTML files
+	 * and their associated directories are grouped together.
 	 * 
 	 * @param parent
 	 *            The directory whose File contents should be separated.
+	 * @param listing
+	 *            The current contents of the <tt>parent</tt> directory.
 	 * @param files
 	 *            A list for the parsable files in <tt>parent</tt>, excluding
 	 *            HTML files.
@@ -426,25 +983,24 @@ public class RootScope extends Scope {
 	 * @param htmlPairs
 	 *            A list for pairs of HTML files and their associated folders
 	 *            inside <tt>parent</tt>
-	 * @throws IOException
-	 *             if the <tt>parent</tt> directory could not be read.
+	 * @param config
+	 *            The parser configuration that determines which files are
+	 *            parsable.
 	 */
 	private void separateChildrenHTMLPaired(
 			Scope parent,
-			List<File> files,
+			DirectoryListing listing,
+			List<DirectoryListing.Entry> files,
 			List<File> directories,
-			List<HTMLPair> htmlPairs) {
-		File[] entries = UtilFile.listAll(parent.file);
-		if (entries.length == 0) return;
-
-		// Preprocessing: Separation of files without HTML pair detection,
-		// excluding symbolic links
-		List<File> tmpDirs = new ArrayList<File> (entries.length);
-		separateChildrenHTMLUnpaired(parent, files, tmpDirs, htmlPairs);
+			List<HTMLPair> htmlPairs,
+			ParserConfig config) {
+		// Preprocessing: Separation of files without HTML pair detection
+		List<File> tmpDirs = new ArrayList<File> ();
+		separateChildrenHTMLUnpaired(parent, listing, files, tmpDirs, htmlPairs, config);
 
 		// HTML pair detection based on the lists of separated files in the previous step
 		for (File dirCandidate : tmpDirs) {
-			String dirBasename = UtilFile.getHTMLDirBasename(dirCandidate);
+			String dirBasename = UtilFile.getHTMLDirBasename(dirCandidate.getName());
 
 			if (dirBasename == null) { // Directory is not an HTML directory
 				directories.add(dirCandidate);
@@ -470,13 +1026,14 @@ public class RootScope extends Scope {
 	}
 	
 	/**
-	 * Puts the folders and parsable files inside the <tt>parent</tt>
-	 * directory into the provided lists. Pairs of HTML files and their
-	 * associated directories are <b>not</b> grouped together. Symbolic links
-	 * are excluded.
+	 * Puts the folders and parsable files in the given listing of the
+	 * <tt>parent</tt> directory into the provided lists. Pairs of HTML files
+	 * and their associated directories are <b>not</b> grouped together.
 	 * 
 	 * @param parent
 	 *            The directory whose File contents should be separated.
+	 * @param listing
+	 *            The current contents of the <tt>parent</tt> directory.
 	 * @param files
 	 *            A list for the parsable files in <tt>parent</tt>, excluding
 	 *            HTML files.
@@ -486,35 +1043,34 @@ public class RootScope extends Scope {
 	 * @param htmlPairs
 	 *            A list for pairs of HTML files and their associated folders
 	 *            inside <tt>parent</tt>
-	 * @throws IOException
-	 *             if the <tt>parent</tt> directory could not be read.
+	 * @param config
+	 *            The parser configuration that determines which files are
+	 *            parsable.
 	 */
 	private void separateChildrenHTMLUnpaired(
 			Scope parent,
-			List<File> files,
+			DirectoryListing listing,
+			List<DirectoryListing.Entry> files,
 			List<File> directories,
-			List<HTMLPair> htmlPairs) {
-		File[] entries = UtilFile.listAll(parent.file);
-		if (entries.length == 0) return;
-
-		for (File entry : entries) {
-			if (UtilFile.isSymLink(entry)) continue;
-			if (entry.isFile()) {
+			List<HTMLPair> htmlPairs,
+			ParserConfig config) {
+		for (DirectoryListing.Entry entry : listing.getEntries()) {
+			File file = entry.getFile();
+			if (! entry.isDirectory()) {
 				/*
 				 * Check if it's an HTML file first, so that the (possibly user
 				 * customized) HTML extensions will get higher priority in case
 				 * they contradict the predefined extensions.
 				 */
-				if (ParserRegistry.isHTMLFile(entry))
-					htmlPairs.add(new HTMLPair(parent, entry, null));
-				else if (ParserRegistry.getSingleFileParser(entry) != null)
+				if (config.isHTMLFile(file))
+					htmlPairs.add(new HTMLPair(parent, file, entry.lastModified(), null));
+				else if (config.getSingleFileParser(file) != null)
 					files.add(entry);
 			}
 			// Make sure we don't index the index files themselves
-			else if (entry.isDirectory() && ! entry.equals(Const.INDEX_PARENT_FILE))
-				directories.add(entry);
+			else if (! file.equals(Const.INDEX_PARENT_FILE))
+				directories.add(file);
 		}
-
 	}
 	
 	/**
@@ -522,10 +1078,7 @@ public class RootScope extends Scope {
 	 * to the set file exclusion patterns.
 	 */
 	private boolean isExcluded(File file) {
-		for (String pattern : exclusionFilters)
-			if (file.getName().matches(pattern))
-				return true;
-		return false;
+		return getExclusionMatcher().matches(file.getName());
 	}
 
 	/**
@@ -536,11 +1089,23 @@ public class RootScope extends Scope {
 	 *             anymore.
 	 */
 	void reindex() throws FileNotFoundException, IOException {
-		UtilFile.delete(indexDir, false);
-		subFiles.clear();
-		subScopes.clear();
-		subHTMLPairs.clear();
-		updateIndex();
+		Lock lock = getIndexLock();
+		try {
+			lock.lockInterruptibly();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			SearcherManager.getInstance().close(this);
+			UtilFile.delete(indexDir, false);
+			clearChildren();
+			legacyIndex = false;
+			pathKeysChecked = true;
+			updateIndex();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -549,9 +1114,16 @@ public class RootScope extends Scope {
 	 * index files.
 	 */
 	void deleteIndex() {
-		UtilFile.delete(indexDir, true);
-		indexDir = null;
-		parseExceptions.clear();
+		Lock lock = getIndexLock();
+		lock.lock();
+		try {
+			SearcherManager.getInstance().close(this);
+			UtilFile.delete(indexDir, true);
+			indexDir = null;
+			parseExceptions.clear();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public boolean isDetectHTMLPairs() {
@@ -560,6 +1132,7 @@ public class RootScope extends Scope {
 
 	public void setDetectHTMLPairs(boolean detectHTMLPairs) {
 		this.detectHTMLPairs = detectHTMLPairs;
+		clearDirStamps(this);
 	}
 
 	public String[] getTextExtensions() {
@@ -568,6 +1141,8 @@ public class RootScope extends Scope {
 
 	public void setTextExtensions(String[] textExtensions) {
 		this.textExtensions = textExtensions;
+		parserConfig = null;
+		clearDirStamps(this);
 	}
 
 	public String[] getHtmlExtensions() {
@@ -576,6 +1151,20 @@ public class RootScope extends Scope {
 
 	public void setHtmlExtensions(String[] htmlExtensions) {
 		this.htmlExtensions = htmlExtensions;
+		parserConfig = null;
+		clearDirStamps(this);
+	}
+	
+	/**
+	 * Returns the parser configuration for the text and HTML extensions of
+	 * this RootScope. The returned object is immutable; it is replaced when
+	 * the extensions are changed.
+	 */
+	public ParserConfig getParserConfig() {
+		ParserConfig config = parserConfig;
+		if (config == null)
+			parserConfig = config = new ParserConfig(textExtensions, htmlExtensions);
+		return config;
 	}
 
 	public String[] getExclusionFilters() {
@@ -584,6 +1173,32 @@ public class RootScope extends Scope {
 
 	public void setExclusionFilters(String[] exclusionFilters) {
 		this.exclusionFilters = exclusionFilters;
+		exclusionMatcher = null;
+		clearDirStamps(this);
+	}
+	
+	/**
+	 * Resets the directory timestamps of the given <tt>Scope</tt> and all
+	 * <tt>Scope</tt>s under it, so that the next update lists all
+	 * directories again. This must be done whenever the settings that
+	 * determine which files are indexed are changed.
+	 */
+	private static void clearDirStamps(Scope scope) {
+		scope.setDirLastModified(0);
+		for (Scope subScope : scope.subScopes.values())
+			clearDirStamps(subScope);
+	}
+	
+	/**
+	 * Returns the matcher for the filenames excluded by the exclusion filters
+	 * of this RootScope. The returned object is immutable; it is replaced
+	 * when the exclusion filters are changed.
+	 */
+	public FilenameMatcher getExclusionMatcher() {
+		FilenameMatcher matcher = exclusionMatcher;
+		if (matcher == null)
+			exclusionMatcher = matcher = new FilenameMatcher(exclusionFilters);
+		return matcher;
 	}
 
 	public List<ParseException> getParseExceptions() {
@@ -638,36 +1253,46 @@ public class RootScope extends Scope {
 			rootScopeSet.add(scope.getRootScope());
 		RootScope[] rootScopes = rootScopeSet.toArray(new RootScope[rootScopeSet.size()]);
 		
+		SearcherManager searcherManager = SearcherManager.getInstance();
+		List<IndexReader> readers = new ArrayList<IndexReader> (rootScopes.length);
 		try {
-			// Get all documents under the root elements
-			IndexReader[] readers = new IndexReader[rootScopes.length];
-			for (int i = 0; i < rootScopes.length; i++) {
-				Directory dir = new SimpleFSDirectory(rootScopes[i].getIndexDir());
-				readers[i] = IndexReader.open(dir);
-			}
-			MultiReader multiReader = new MultiReader(readers);
-			ResultDocument[] rootScopeDocs = new ResultDocument[multiReader.numDocs()];
-			for (int i = 0; i < multiReader.numDocs(); i++)
-				rootScopeDocs[i] = new ResultDocument(multiReader.document(i), 0, null);
+			// Get all documents under the root elements, from the shared readers
+			for (RootScope rootScope : rootScopes)
+				readers.add(searcherManager.acquire(rootScope));
+			MultiReader multiReader = new MultiReader(readers.toArray(new IndexReader[readers.size()]), false);
+			List<ResultDocument> rootScopeDocs = new ArrayList<ResultDocument> (multiReader.numDocs());
+			for (int i = 0; i < multiReader.maxDoc(); i++)
+				if (! multiReader.isDeleted(i))
+					rootScopeDocs.add(new ResultDocument(multiReader.document(i, StoredFieldLoader.FIELD_SELECTOR), 0, null));
 			multiReader.close();
 			
 			/*
 			 * From the documents of the previous step, filter out those that
 			 * aren't inside the given scopes, and return the remaining
-			 * documents.
+			 * documents. Each document is checked by looking up the
+			 * directories on its path in the set of the given scopes.
 			 */
+			Set<File> scopeDirs = new HashSet<File> ();
+			for (Scope scope : scopes)
+				scopeDirs.add(scope.file.getAbsoluteFile());
 			Set<ResultDocument> scopeDocs = new HashSet<ResultDocument> ();
-			for (ResultDocument rootScopeDoc : rootScopeDocs)
-				for (Scope scope : scopes)
-					if (scope.contains(rootScopeDoc.file)) {
+			for (ResultDocument rootScopeDoc : rootScopeDocs) {
+				File dir = rootScopeDoc.file.getAbsoluteFile().getParentFile();
+				for (; dir != null; dir = dir.getParentFile()) {
+					if (scopeDirs.contains(dir)) {
 						scopeDocs.add(rootScopeDoc);
 						break;
 					}
+				}
+			}
 			return scopeDocs.toArray(new ResultDocument[scopeDocs.size()]);
 		} catch (CorruptIndexException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			for (IndexReader reader : readers)
+				searcherManager.release(reader);
 		}
 		return new ResultDocument[0];
 	}
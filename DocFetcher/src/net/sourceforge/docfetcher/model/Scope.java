@@ -12,10 +12,18 @@
 package net.sourceforge.docfetcher.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
-import net.sourceforge.docfetcher.parse.ParserRegistry;
+import net.sourceforge.docfetcher.Const;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.UtilFile;
 
@@ -28,29 +36,52 @@ public class Scope extends Indexable {
 	
 	static final long serialVersionUID = 1;
 	
+	/**
+	 * The serialized form of this class. The children are written as sets, as
+	 * in earlier versions, so that existing registries can still be loaded and
+	 * the name-keyed maps are rebuilt on deserialization.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("subFiles", Set.class), //$NON-NLS-1$
+		new ObjectStreamField("subHTMLPairs", Set.class), //$NON-NLS-1$
+		new ObjectStreamField("subScopes", Set.class) //$NON-NLS-1$
+	};
+	
 	/**
 	 * Event: Check state of this object has changed.
 	 */
 	public static final Event<Scope> checkStateChanged = new Event<Scope> ();
 
 	/**
-	 * The set of files in the directory represented by this class. Only
-	 * contains files for which a parser is available. Does not contain HTML
+	 * The files in the directory represented by this class, mapped to their
+	 * name keys. Only contains files for which a parser is available. Does not
+	 * contain HTML files.
+	 * 
+	 * @see #getNameKey(File)
+	 */
+	protected Map<String, FileWrapper> subFiles = new HashMap<String, FileWrapper> ();
+
+	/**
+	 * The pairs of HTML files and their associated folders located in the
+	 * directory represented by this class, mapped to the name keys of the HTML
 	 * files.
 	 */
-	protected Set<FileWrapper> subFiles = new HashSet<FileWrapper> ();
+	protected Map<String, HTMLPair> subHTMLPairs = new HashMap<String, HTMLPair> ();
 
 	/**
-	 * The set of pairs of HTML files and their associated folders located in
-	 * the directory represented by this class.
+	 * The child Scopes under this scope, mapped to their name keys. Does not
+	 * include Scopes whose underlying folders are associated with HTML files.
 	 */
-	protected Set<HTMLPair> subHTMLPairs = new HashSet<HTMLPair> ();
+	protected Map<String, Scope> subScopes = new HashMap<String, Scope> ();
 
 	/**
-	 * The child Scopes under this scope. Does not include Scopes whose
-	 * underlying folders are associated with HTML files.
+	 * The last-modified timestamp of the directory represented by this Scope
+	 * at the time its contents were last listed during a complete index
+	 * update, or 0 if unknown. As long as the directory still has this
+	 * timestamp, no files have been added to, removed from or renamed in it,
+	 * so an index update doesn't need to list it again.
 	 */
-	protected Set<Scope> subScopes = new HashSet<Scope> ();
+	long dirLastModified;
 
 	/**
 	 * The check state of this Scope.
@@ -62,6 +93,13 @@ public class Scope extends Indexable {
 	 */
 	private transient boolean unchecked = false;
 
+	/**
+	 * Creates an uninitialized instance. This constructor is only used for
+	 * loading the registry from disk.
+	 */
+	Scope() {
+	}
+
 	/**
 	 * @param parent
 	 *            The parent Scope
@@ -74,6 +112,112 @@ public class Scope extends Indexable {
 			throw new IllegalStateException("The scope object must not be initialized with a file object"); //$NON-NLS-1$
 	}
 
+	/**
+	 * Returns the key under which the representation of the given file is
+	 * stored in its parent <tt>Scope</tt>. Since all children of a
+	 * <tt>Scope</tt> are located in the same directory, this is simply the
+	 * filename, which is converted to lower case on Windows, where filenames
+	 * are case-insensitive.
+	 */
+	static String getNameKey(File file) {
+		String name = file.getName();
+		return Const.IS_WINDOWS ? name.toLowerCase() : name;
+	}
+	
+	/**
+	 * Adds the given file representation to this <tt>Scope</tt>, replacing
+	 * any existing representation of the same file.
+	 */
+	void addSubFile(FileWrapper fileWrapper) {
+		subFiles.put(getNameKey(fileWrapper.file), fileWrapper);
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.fileAdded(root, fileWrapper);
+	}
+	
+	/**
+	 * Adds the given HTML pair to this <tt>Scope</tt>, replacing any existing
+	 * representation of the same HTML file.
+	 */
+	void addSubHTMLPair(HTMLPair htmlPair) {
+		subHTMLPairs.put(getNameKey(htmlPair.file), htmlPair);
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.htmlPairAdded(root, htmlPair);
+	}
+	
+	/**
+	 * Adds the given child <tt>Scope</tt> to this <tt>Scope</tt>, replacing any
+	 * existing representation of the same directory.
+	 */
+	void addSubScope(Scope scope) {
+		subScopes.put(getNameKey(scope.file), scope);
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.scopeAdded(root, scope);
+	}
+	
+	/**
+	 * Removes the given file representation from this <tt>Scope</tt>.
+	 */
+	void removeSubFile(FileWrapper fileWrapper) {
+		if (subFiles.remove(getNameKey(fileWrapper.file)) == null)
+			return;
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.fileRemoved(root, fileWrapper);
+	}
+	
+	/**
+	 * Removes the given HTML pair from this <tt>Scope</tt>.
+	 */
+	void removeSubHTMLPair(HTMLPair htmlPair) {
+		if (subHTMLPairs.remove(getNameKey(htmlPair.file)) == null)
+			return;
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.htmlPairRemoved(root, htmlPair);
+	}
+	
+	/**
+	 * Removes the given child <tt>Scope</tt> and everything underneath it from
+	 * this <tt>Scope</tt>.
+	 */
+	void removeSubScope(Scope scope) {
+		if (subScopes.remove(getNameKey(scope.file)) == null)
+			return;
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.scopeRemoved(root, scope);
+	}
+	
+	/**
+	 * Sets the timestamp of the directory represented by this <tt>Scope</tt>
+	 * as recorded after a complete listing of the directory, or 0 if
+	 * unknown.
+	 */
+	void setDirLastModified(long dirLastModified) {
+		if (this.dirLastModified == dirLastModified)
+			return;
+		this.dirLastModified = dirLastModified;
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.scopeStamped(root, this);
+	}
+	
+	/**
+	 * Removes all children from this <tt>Scope</tt>.
+	 */
+	void clearChildren() {
+		subFiles.clear();
+		subHTMLPairs.clear();
+		subScopes.clear();
+		dirLastModified = 0;
+		RootScope root = getRootScope();
+		if (root.journal != null)
+			root.journal.scopeCleared(root, this);
+	}
+	
 	/**
 	 * Returns the top-level parent of the receiver.
 	 */
@@ -89,20 +233,12 @@ public class Scope extends Indexable {
 	 * directory. Returns null if no representation object is found.
 	 */
 	public FileWrapper getFileWrapperDeep(File file) {
-		if (UtilFile.getParentFile(file).equals(this.file)) {
-			if (ParserRegistry.isHTMLFile(getRootScope(), file)) {
-				for (HTMLPair candidate : subHTMLPairs)
-					if (candidate.getFile().equals(file))
-						return candidate;
-			}
-			else for (FileWrapper candidate : subFiles)
-				if (candidate.getFile().equals(file))
-					return candidate;
-		}
-		else for (Scope subScope : subScopes)
-			if (subScope.contains(file))
-				return subScope.getFileWrapperDeep(file);
-		return null;
+		Scope scope = getScopeDeep(file.getAbsoluteFile().getParentFile());
+		if (scope == null)
+			return null;
+		if (getRootScope().getParserConfig().isHTMLFile(file))
+			return scope.subHTMLPairs.get(getNameKey(file));
+		return scope.subFiles.get(getNameKey(file));
 	}
 
 	/**
@@ -134,7 +270,7 @@ public class Scope extends Indexable {
 	 * Returns all scopes under this Scope object.
 	 */
 	public Scope[] getChildren() {
-		return subScopes.toArray(new Scope[subScopes.size()]);
+		return subScopes.values().toArray(new Scope[subScopes.size()]);
 	}
 
 	/**
@@ -159,15 +295,28 @@ public class Scope extends Indexable {
 	/**
 	 * Returns a Scope object for the given directory if it is identical to the
 	 * receiver or a child of the receiver (recursive). Otherwise returns null.
+	 * <p>
+	 * The Scope is found by descending from the receiver along the path
+	 * segments of the given directory, so the costs depend on the depth of the
+	 * directory, not on the number of registered Scopes.
 	 */
 	public Scope getScopeDeep(File directory) {
-		if (file.equals(directory))
-			return this;
-		for (Scope child : subScopes) {
-			Scope candidate = child.getScopeDeep(directory);
-			if (candidate != null) return candidate;
+		if (directory == null)
+			return null;
+		File thisDir = file.getAbsoluteFile();
+		LinkedList<String> nameKeys = new LinkedList<String> ();
+		for (File dir = directory.getAbsoluteFile(); ! dir.equals(thisDir); dir = dir.getParentFile()) {
+			if (dir.getParentFile() == null)
+				return null; // Not inside the receiver
+			nameKeys.addFirst(getNameKey(dir));
 		}
-		return null;
+		Scope scope = this;
+		for (String nameKey : nameKeys) {
+			scope = scope.subScopes.get(nameKey);
+			if (scope == null)
+				return null;
+		}
+		return scope;
 	}
 
 	/**
@@ -175,10 +324,8 @@ public class Scope extends Indexable {
 	 * under this <tt>Scope</tt> (non-recursive).
 	 */
 	public boolean isFileRegistered(File file) {
-		for (FileWrapper wrapper : subFiles)
-			if (wrapper.file.equals(file))
-				return true;
-		return false;
+		FileWrapper wrapper = subFiles.get(getNameKey(file));
+		return wrapper != null && wrapper.file.equals(file);
 	}
 
 	/**
@@ -186,10 +333,8 @@ public class Scope extends Indexable {
 	 * this <tt>Scope</tt> (non-recursive).
 	 */
 	public boolean isHTMLPairRegistered(HTMLPair candidate) {
-		for (HTMLPair htmlPair : subHTMLPairs)
-			if (htmlPair.equals(candidate))
-				return true;
-		return false;
+		HTMLPair htmlPair = subHTMLPairs.get(getNameKey(candidate.file));
+		return htmlPair != null && htmlPair.equals(candidate);
 	}
 	
 	/**
@@ -198,13 +343,11 @@ public class Scope extends Indexable {
 	 */
 	public HTMLPair getHTMLPair(File directory) {
 		if (directory == null) return null;
-		for (HTMLPair htmlPair : subHTMLPairs)
+		Scope scope = getScopeDeep(directory.getAbsoluteFile().getParentFile());
+		if (scope == null) return null;
+		for (HTMLPair htmlPair : scope.subHTMLPairs.values())
 			if (directory.equals(htmlPair.getHtmlFolder()))
 				return htmlPair;
-		for (Scope subScope : subScopes) {
-			HTMLPair htmlPair = subScope.getHTMLPair(directory);
-			if (htmlPair != null) return htmlPair;
-		}
 		return null;
 	}
 
@@ -213,10 +356,8 @@ public class Scope extends Indexable {
 	 * this <tt>Scope</tt> (non-recursive).
 	 */
 	public boolean isHTMLFileRegistered(File candidate) {
-		for (HTMLPair htmlPair : subHTMLPairs)
-			if (htmlPair.file.equals(candidate))
-				return true;
-		return false;
+		HTMLPair htmlPair = subHTMLPairs.get(getNameKey(candidate));
+		return htmlPair != null && htmlPair.file.equals(candidate);
 	}
 
 	/**
@@ -224,10 +365,36 @@ public class Scope extends Indexable {
 	 * file. Non-recursive.
 	 */
 	public Scope getRegisteredScope(File dir) {
-		for (Scope scope : subScopes)
-			if (scope.file.equals(dir))
-				return scope;
-		return null;
+		Scope scope = subScopes.get(getNameKey(dir));
+		return scope != null && scope.file.equals(dir) ? scope : null;
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("subFiles", new HashSet<FileWrapper> (subFiles.values())); //$NON-NLS-1$
+		fields.put("subHTMLPairs", new HashSet<HTMLPair> (subHTMLPairs.values())); //$NON-NLS-1$
+		fields.put("subScopes", new HashSet<Scope> (subScopes.values())); //$NON-NLS-1$
+		out.writeFields();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		subFiles = new HashMap<String, FileWrapper> ();
+		subHTMLPairs = new HashMap<String, HTMLPair> ();
+		subScopes = new HashMap<String, Scope> ();
+		Collection<FileWrapper> fileWrappers = (Collection<FileWrapper>) fields.get("subFiles", null); //$NON-NLS-1$
+		Collection<HTMLPair> htmlPairs = (Collection<HTMLPair>) fields.get("subHTMLPairs", null); //$NON-NLS-1$
+		Collection<Scope> scopes = (Collection<Scope>) fields.get("subScopes", null); //$NON-NLS-1$
+		if (fileWrappers != null)
+			for (FileWrapper fileWrapper : fileWrappers)
+				addSubFile(fileWrapper);
+		if (htmlPairs != null)
+			for (HTMLPair htmlPair : htmlPairs)
+				addSubHTMLPair(htmlPair);
+		if (scopes != null)
+			for (Scope scope : scopes)
+				addSubScope(scope);
 	}
 
 }
\ No newline at end of file
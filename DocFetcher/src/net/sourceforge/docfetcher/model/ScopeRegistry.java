@@ -17,7 +17,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -27,19 +33,21 @@ import net.sourceforge.docfetcher.enumeration.Pref;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.UtilFile;
 import net.sourceforge.docfetcher.util.UtilGUI;
+import net.sourceforge.docfetcher.util.UtilList;
 
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.MultiSearcher;
 import org.apache.lucene.search.MultiTermQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 import org.eclipse.swt.widgets.Display;
 
@@ -57,6 +65,24 @@ public class ScopeRegistry implements Serializable {
 	
 	static final long serialVersionUID = 1;
 	
+	/**
+	 * The file inside {@link Const#INDEX_PARENT_FILE} where the registry is
+	 * stored.
+	 */
+	private static final File REGISTRY_FILE = new File(Const.INDEX_PARENT_FILE, "ScopeRegistry.dat"); //$NON-NLS-1$
+	
+	/**
+	 * The file the registry was serialized into by older versions. It is
+	 * converted into the new format on startup and then deleted.
+	 */
+	private static final File LEGACY_REGISTRY_FILE = new File(Const.INDEX_PARENT_FILE, "ScopeRegistry.ser"); //$NON-NLS-1$
+	
+	/**
+	 * The file where the changes made since the registry file was written are
+	 * recorded.
+	 */
+	private static final File JOURNAL_FILE = new File(Const.INDEX_PARENT_FILE, "ScopeRegistry.journal"); //$NON-NLS-1$
+	
 	/**
 	 * Singleton instance
 	 */
@@ -67,20 +93,48 @@ public class ScopeRegistry implements Serializable {
 	 */
 	private Set<RootScope> rootScopes = new TreeSet<RootScope> ();
 	
+	/**
+	 * The entries of this registry, mapped to their absolute directories.
+	 * Together with the child maps of the <tt>Scope</tt>s, this forms a tree
+	 * of path segments in which the owner of a given file can be looked up
+	 * with a cost proportional to the depth of the file. Must be updated
+	 * along with <tt>rootScopes</tt>.
+	 */
+	private transient Map<File, RootScope> rootIndex = new HashMap<File, RootScope> ();
+	
 	/**
 	 * The indexing queue.
 	 */
 	private transient List<Job> indexingJobs = new ArrayList<Job> ();
 	
 	/**
-	 * The currently processed indexing job.
+	 * The currently processed indexing jobs, in the order they were started.
+	 */
+	private transient List<Job> runningJobs = new ArrayList<Job> ();
+	
+	/**
+	 * The threads that carry out the indexing, mapped to their jobs. Unlike
+	 * <tt>runningJobs</tt>, this also contains the jobs that have been removed
+	 * from the queue, but whose threads haven't terminated yet.
+	 */
+	private transient Map<Job, Thread> indexingThreads = new IdentityHashMap<Job, Thread> ();
+	
+	/**
+	 * The thread that compacts the indexes while no indexing jobs are running.
+	 */
+	private transient IndexMaintenance indexMaintenance;
+	
+	/**
+	 * The journal in which the changes to the registry are recorded between
+	 * two snapshots.
 	 */
-	private transient Job currentJob;
+	private transient RegistryJournal journal;
 	
 	/**
-	 * The thread that carries out the indexing.
+	 * Whether the registry file has been written by a newer version and must
+	 * not be overwritten.
 	 */
-	private transient Thread indexingThread;
+	private transient boolean readOnly = false;
 	
 	/**
 	 * Event: Changes in the indexing queue.
@@ -126,14 +180,14 @@ public class ScopeRegistry implements Serializable {
 	/**
 	 * Returns the entries of this registry.
 	 */
-	public RootScope[] getEntries() {
+	public synchronized RootScope[] getEntries() {
 		return rootScopes.toArray(new RootScope[rootScopes.size()]);
 	}
 	
 	/**
 	 * Returns the entries of this registry.
 	 */
-	public List<RootScope> getEntriesList() {
+	public synchronized List<RootScope> getEntriesList() {
 		return new ArrayList<RootScope> (rootScopes);
 	}
 	
@@ -205,11 +259,12 @@ public class ScopeRegistry implements Serializable {
 	
 	/**
 	 * Returns whether the given <tt>RootScope</tt> intersects with entries in
-	 * the indexing queue, excluding the currently processed entry.
+	 * the indexing queue, excluding the currently processed entries.
 	 */
 	public boolean intersectsInactiveQueue(RootScope newScope) {
+		Job[] runningJobs = getRunningJobs();
 		for (Job job : getJobs()) {
-			if (job == currentJob) // Don't use equals(..) here, this must be identity
+			if (UtilList.containsIdentity(runningJobs, job)) // Don't use equals(..) here, this must be identity
 				continue;
 			Scope js = job.getScope();
 			Scope ns = newScope;
@@ -220,28 +275,59 @@ public class ScopeRegistry implements Serializable {
 	}
 	
 	/**
-	 * Returns whether the given directory is already registered herein.
+	 * Adds the changed files of the given job to a job in the indexing queue
+	 * that updates the same <tt>RootScope</tt> and hasn't been started yet.
+	 * If such a job updates the entire <tt>RootScope</tt>, the changed files
+	 * are already covered by it. Returns false if there is no such job.
 	 */
-	public boolean containsEntry(File directory) {
-		File relativeDir = UtilFile.getRelativeFile(Const.USER_DIR_FILE, directory);
-		for (RootScope rootScope : rootScopes) {
-			if (rootScope.file.equals(relativeDir))
-				return true;
+	public synchronized boolean mergeIntoInactiveQueue(FileChangeJob newJob) {
+		for (Job job : indexingJobs) {
+			if (UtilList.containsIdentity(runningJobs, job) || ! job.getScope().equals(newJob.getScope()))
+				continue;
+			if (job instanceof FileChangeJob)
+				((FileChangeJob) job).addChangedFiles(newJob.getChangedFiles());
+			return true;
 		}
 		return false;
 	}
+	
+	/**
+	 * Returns whether the given directory is already registered herein.
+	 */
+	public boolean containsEntry(File directory) {
+		return getEntry(directory) != null;
+	}
 
 	/**
 	 * Returns the <tt>RootScope</tt> for a given directory
 	 */
-	public RootScope getEntry(File directory) {
-		File relativeDir = UtilFile.getRelativeFile(Const.USER_DIR_FILE, directory);
-		for (RootScope rootScope : rootScopes) {
-			if (rootScope.file.equals(relativeDir))
+	public synchronized RootScope getEntry(File directory) {
+		return rootIndex.get(directory.getAbsoluteFile());
+	}
+	
+	/**
+	 * Returns the <tt>RootScope</tt> that represents or contains the given
+	 * file or directory, or null if there is no such <tt>RootScope</tt>.
+	 */
+	public synchronized RootScope getOwner(File fileOrDir) {
+		for (File f = fileOrDir.getAbsoluteFile(); f != null; f = f.getParentFile()) {
+			RootScope rootScope = rootIndex.get(f);
+			if (rootScope != null)
 				return rootScope;
 		}
 		return null;
 	}
+	
+	/**
+	 * Adds the given <tt>RootScope</tt>s to the entries of this registry. The
+	 * caller must hold the lock on this registry.
+	 */
+	private void addEntries(Collection<RootScope> newRootScopes) {
+		for (RootScope rootScope : newRootScopes) {
+			rootScopes.add(rootScope);
+			rootIndex.put(rootScope.file.getAbsoluteFile(), rootScope);
+		}
+	}
 
 	/**
 	 * Returns whether the given <tt>RootScope</tt> is already registered
@@ -251,6 +337,16 @@ public class ScopeRegistry implements Serializable {
 		return rootScopes.contains(rootScope);
 	}
 	
+	/**
+	 * Returns whether the registry file has been written by a newer version
+	 * and couldn't be loaded. In this case, the registry starts out empty,
+	 * and neither the registry file nor the indexes must be touched, so that
+	 * the newer version can still use them.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+	
 	/**
 	 * Returns whether the given directory is an index directory of one of the
 	 * registered <tt>RootScope</tt> entries. An index directory of a
@@ -270,12 +366,8 @@ public class ScopeRegistry implements Serializable {
 	 * returned if the directory is not registered.
 	 */
 	public Scope getScopeDeep(File directory) {
-		for (RootScope rootScope : rootScopes) {
-			Scope scope = rootScope.getScopeDeep(directory);
-			if (scope != null)
-				return scope;
-		}
-		return null;
+		RootScope rootScope = getOwner(directory);
+		return rootScope == null ? null : rootScope.getScopeDeep(directory);
 	}
 	
 	/**
@@ -283,12 +375,8 @@ public class ScopeRegistry implements Serializable {
 	 * given HTML directory, or null if none is found (recursive).
 	 */
 	public HTMLPair getHTMLPair(File directory) {
-		for (RootScope rootScope : rootScopes) {
-			HTMLPair htmlPair = rootScope.getHTMLPair(directory);
-			if (htmlPair != null)
-				return htmlPair;
-		}
-		return null;
+		RootScope rootScope = getOwner(directory);
+		return rootScope == null ? null : rootScope.getHTMLPair(directory);
 	}
 
 	/**
@@ -296,9 +384,26 @@ public class ScopeRegistry implements Serializable {
 	 * their corresponding index files.
 	 */
 	public void remove(RootScope... scopes) {
-		for (RootScope rootScope : scopes)
-			if (rootScopes.remove(rootScope))
+		if (indexMaintenance != null)
+			indexMaintenance.indexingActivity(); // Abort maintenance of the indexes to be deleted
+		for (RootScope rootScope : scopes) {
+			boolean removed;
+			synchronized (this) {
+				removed = rootScopes.remove(rootScope);
+				if (removed)
+					rootIndex.remove(rootScope.file.getAbsoluteFile());
+			}
+			if (removed) {
+				journal.rootRemoved(rootScope);
+				rootScope.journal = null;
+				try {
+					journal.flush(rootScope);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 				rootScope.deleteIndex();
+			}
+		}
 		evtRegistryRootChanged.fireUpdate(this);
 		evtRegistryChanged.fireUpdate(this);
 	}
@@ -310,31 +415,52 @@ public class ScopeRegistry implements Serializable {
 	 * should be used istead.
 	 */
 	public void addJob(Job newJob) {
-		indexingJobs.add(newJob);
+		synchronized (this) {
+			indexingJobs.add(newJob);
+		}
 		newJob.evtReadyStateChanged.add(new Event.Listener<Job> () {
 			public void update(Job job) {
 				evtQueueChanged.fireUpdate(ScopeRegistry.this);
-				startNextJob();
+				startNextJobs();
 			}
 		});
 		evtQueueChanged.fireUpdate(this);
-		startNextJob();
+		startNextJobs();
 	}
 	
 	/**
 	 * Returns the entries of the indexing queue.
 	 */
-	public Job[] getJobs() {
+	public synchronized Job[] getJobs() {
 		return indexingJobs.toArray(new Job[indexingJobs.size()]);
 	}
 	
 	/**
-	 * Returns the currently processed entry in the indexing queue, or null if
-	 * none is processed right now. This is not necessarily the first item in
-	 * the queue.
+	 * Returns the first of the currently processed entries in the indexing
+	 * queue, or null if none is processed right now. This is not necessarily
+	 * the first item in the queue.
+	 * 
+	 * @see #getRunningJobs()
+	 */
+	public synchronized Job getCurrentJob() {
+		return runningJobs.isEmpty() ? null : runningJobs.get(0);
+	}
+	
+	/**
+	 * Returns the entries in the indexing queue that are processed right now,
+	 * in the order they were started.
 	 */
-	public Job getCurrentJob() {
-		return currentJob;
+	public synchronized Job[] getRunningJobs() {
+		return runningJobs.toArray(new Job[runningJobs.size()]);
+	}
+	
+	/**
+	 * Returns whether any indexing threads are running, including the threads
+	 * of jobs that have been removed from the queue, but haven't terminated
+	 * yet.
+	 */
+	synchronized boolean isIndexing() {
+		return ! indexingThreads.isEmpty();
 	}
 	
 	/**
@@ -342,7 +468,7 @@ public class ScopeRegistry implements Serializable {
 	 * i.e. the entries for which the user has given indexing permission by
 	 * pressing the 'submit' button on the corresponding indexing tab.
 	 */
-	public Job[] getSubmittedJobs() {
+	public synchronized Job[] getSubmittedJobs() {
 		List<Job> sj = new ArrayList<Job> ();
 		for (Job candidate : indexingJobs)
 			if (candidate.isReadyForIndexing())
@@ -351,107 +477,189 @@ public class ScopeRegistry implements Serializable {
 	}
 	
 	/**
-	 * Process the next entry in the indexing queue. After each processed entry,
-	 * the method will move on to the next allowed entry until none is left.
-	 */
-	private void startNextJob() {
-		if (indexingThread != null) return;
-		
-		// Get the next entry that is ready for indexing
-		currentJob = null;
-		for (Job candidate : indexingJobs) {
-			if (candidate.isReadyForIndexing()) {
-				currentJob = candidate;
-				break;
+	 * Starts processing as many entries in the indexing queue as the thread and
+	 * memory budget allows. After each processed entry, the method will move on
+	 * to the next allowed entries until none is left.
+	 * <p>
+	 * Jobs are only run concurrently if they operate on different indexes, and
+	 * at most <tt>Pref.Int.MaxConcurrentJobs</tt> of them. Additional jobs are
+	 * only started if at least <tt>Pref.Int.IndexingMemoryReserve</tt>
+	 * megabytes of heap memory are still available.
+	 */
+	private void startNextJobs() {
+		List<Thread> newThreads = new ArrayList<Thread> ();
+		boolean idle;
+		synchronized (this) {
+			int maxJobs = Math.max(1, Pref.Int.MaxConcurrentJobs.getValue());
+			while (indexingThreads.size() < maxJobs) {
+				Job nextJob = getNextStartableJob();
+				if (nextJob == null)
+					break;
+				Thread thread = new IndexingThread(nextJob);
+				runningJobs.add(nextJob);
+				indexingThreads.put(nextJob, thread);
+				newThreads.add(thread);
 			}
+			idle = indexingThreads.isEmpty();
 		}
 		
 		// Stop if there's no ready entry left
-		if (currentJob == null) {
+		if (idle) {
 			try {
-				save(); // Save registry after queue is emptied, just in case the user successfully kills the app...
+				saveIncrementally(); // Save registry after queue is emptied, just in case the user successfully kills the app...
 			} catch (IOException e) {
 				UtilGUI.showErrorMsg(Msg.write_error.value());
 			}
 			return;
 		}
+		if (newThreads.isEmpty())
+			return;
+		if (indexMaintenance != null)
+			indexMaintenance.indexingActivity();
 		
+		/*
+		 * The listeners must be notified before the threads are started, so
+		 * the indexing box knows where to put the feedback of the new jobs.
+		 */
 		evtQueueChanged.fireUpdate(this);
-		indexingThread = new Thread() {
-			public void run() {
-				try {
-					// Caching variables (necessary, because later currentJob may be null)
-					boolean addToReg = currentJob.isAddToRegistry();
-					boolean doRebuild = currentJob.isDoRebuild();
-					RootScope currentScope = currentJob.getScope();
-					
-					// Indexing
-					if (doRebuild && ! addToReg)
-						currentScope.reindex();
+		for (Thread thread : newThreads)
+			thread.start();
+	}
+	
+	/**
+	 * Returns the next entry in the indexing queue that is ready for indexing
+	 * and may be run alongside the currently running jobs, or null if there is
+	 * no such entry. The caller must hold the lock on this registry.
+	 */
+	private Job getNextStartableJob() {
+		if (! indexingThreads.isEmpty()) {
+			Runtime runtime = Runtime.getRuntime();
+			long freeMemory = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+			if (freeMemory < Pref.Int.IndexingMemoryReserve.getValue() * 1024L * 1024L)
+				return null;
+		}
+		outer: for (Job candidate : indexingJobs) {
+			if (! candidate.isReadyForIndexing())
+				continue;
+			if (indexingThreads.containsKey(candidate))
+				continue;
+			RootScope cs = candidate.getScope();
+			for (Job runningJob : indexingThreads.keySet()) {
+				RootScope rs = runningJob.getScope();
+				if (cs.equals(rs) || cs.contains(rs) || rs.contains(cs))
+					continue outer;
+			}
+			return candidate;
+		}
+		return null;
+	}
+	
+	/**
+	 * The thread that carries out a single indexing job.
+	 */
+	private class IndexingThread extends Thread {
+		private final Job job;
+		
+		public IndexingThread(Job job) {
+			this.job = job;
+		}
+		
+		public void run() {
+			try {
+				boolean addToReg = job.isAddToRegistry();
+				boolean doRebuild = job.isDoRebuild();
+				RootScope currentScope = job.getScope();
+				
+				// Indexing
+				if (doRebuild && ! addToReg)
+					currentScope.reindex();
+				else if (job instanceof FileChangeJob)
+					currentScope.updateFiles(((FileChangeJob) job).getChangedFiles());
+				else
+					currentScope.updateIndex();
+				
+				// Postprocessing
+				boolean interrupted = Thread.currentThread().isInterrupted();
+				if (doRebuild && interrupted) {
+					if (addToReg)
+						currentScope.deleteIndex();
 					else
-						currentScope.updateIndex();
-					
-					// Postprocessing
-					boolean interrupted = Thread.currentThread().isInterrupted();
-					if (doRebuild && interrupted) {
-						if (addToReg)
-							currentScope.deleteIndex();
-						else
-							remove(currentScope);
+						remove(currentScope);
+				}
+				else if (addToReg && ! interrupted) {
+					synchronized (ScopeRegistry.this) {
+						addEntries(Collections.singleton(currentScope));
+						currentScope.journal = journal;
 					}
-					else if (addToReg && ! interrupted) {
-						rootScopes.add(currentScope);
-						evtRegistryRootChanged.fireUpdate(ScopeRegistry.this);
+					journal.rootAdded(currentScope);
+					journal.flush(currentScope);
+					evtRegistryRootChanged.fireUpdate(ScopeRegistry.this);
+				}
+				evtRegistryChanged.fireUpdate(ScopeRegistry.this);
+			} catch (FileNotFoundException e) {
+				// Do nothing here, this will be handled by aspect 'IndexingFeedback'
+			} catch (IOException e) {
+				// This happens when the file system is not writable for some reason
+				Display.getDefault().syncExec(new Runnable() {
+					public void run() {
+						UtilGUI.showErrorMsg(Msg.write_error.value());
 					}
-					evtRegistryChanged.fireUpdate(ScopeRegistry.this);
-				} catch (FileNotFoundException e) {
-					// Do nothing here, this will be handled by aspect 'IndexingFeedback'
-				} catch (IOException e) {
-					// This happens when the file system is not writable for some reason
-					Display.getDefault().syncExec(new Runnable() {
-						public void run() {
-							UtilGUI.showErrorMsg(Msg.write_error.value());
-						}
-					});
-				} finally {
-					indexingThread = null;
-					indexingJobs.remove(currentJob);
-					currentJob = null;
-					evtQueueChanged.fireUpdate(ScopeRegistry.this);
-					startNextJob();
+				});
+			} finally {
+				synchronized (ScopeRegistry.this) {
+					indexingThreads.remove(job);
+					removeIdentical(runningJobs, job);
+					removeIdentical(indexingJobs, job);
 				}
+				if (indexMaintenance != null)
+					indexMaintenance.indexingActivity();
+				evtQueueChanged.fireUpdate(ScopeRegistry.this);
+				startNextJobs();
+			}
+		}
+	}
+	
+	/**
+	 * Removes the given object from the given list, based on an identity check.
+	 */
+	private static void removeIdentical(List<?> list, Object object) {
+		for (Iterator<?> it = list.iterator(); it.hasNext();) {
+			if (it.next() == object) {
+				it.remove();
+				return;
 			}
-		};
-		indexingThread.start();
+		}
 	}
 
 	/**
 	 * Removes the given job from the queue (based on an equality check). If the
-	 * given job is the currently processed job, the processing will be
-	 * terminated and processing of the next entry will start.
+	 * given job is being processed, the processing will be terminated and
+	 * processing of the next entries will start.
 	 * <p>
 	 * If the indexing box is open, the appropriate method in the
 	 * <tt>IndexingDialog</tt> should be used instead.
 	 */
 	public void removeFromQueue(Job job) {
-		// Remove entries from queue
-		List<Job> removals = new ArrayList<Job> ();
-		for (Job candidate : indexingJobs)
-			if (candidate.equals(job))
-				removals.add(candidate);
-		indexingJobs.removeAll(removals);
-		
-		// Send interrupt signal to the indexing thread if it's processing the given job
-		if (job.equals(currentJob)) {
+		synchronized (this) {
+			// Remove entries from queue
+			List<Job> removals = new ArrayList<Job> ();
+			for (Job candidate : indexingJobs)
+				if (candidate.equals(job))
+					removals.add(candidate);
+			indexingJobs.removeAll(removals);
+			
 			/*
-			 * This assignment here is important, because the next interrupt
-			 * call won't be fast enough in doing the very same thing, causing
-			 * the program to freeze under some circumstances. (And I have no
-			 * idea why...)
+			 * Send interrupt signal to the indexing thread if it's processing
+			 * the given job. The job is removed from the running jobs right
+			 * away, but no other job on the same index will be started until
+			 * the thread has terminated.
 			 */
-			currentJob = null;
-			
-			indexingThread.interrupt(); // thread will continue with the next entry
+			for (Job runningJob : new ArrayList<Job> (runningJobs)) {
+				if (! runningJob.equals(job))
+					continue;
+				removeIdentical(runningJobs, runningJob);
+				indexingThreads.get(runningJob).interrupt();
+			}
 		}
 		evtQueueChanged.fireUpdate(this);
 	}
@@ -462,11 +670,12 @@ public class ScopeRegistry implements Serializable {
 	 * instead.
 	 */
 	public void clearQueue() {
-		if (indexingThread != null)
-			indexingThread.interrupt();
-		indexingJobs.clear();
-		currentJob = null;
-		indexingThread = null;
+		synchronized (this) {
+			for (Thread thread : indexingThreads.values())
+				thread.interrupt();
+			indexingJobs.clear();
+			runningJobs.clear();
+		}
 		evtQueueChanged.fireUpdate(this);
 	}
 	
@@ -476,35 +685,127 @@ public class ScopeRegistry implements Serializable {
 	 */
 	public static ScopeRegistry getInstance() {
 		if (instance != null) return instance;
-		try {
-			instance = (ScopeRegistry) Serializer.load(ScopeRegistry.class, Const.INDEX_PARENT_FILE);
-		} catch (IOException e) {
-		} catch (ClassNotFoundException e) {
+		List<RootScope> loadedScopes = new ArrayList<RootScope> ();
+		long generation = 0;
+		long journalLength = 0;
+		boolean convert = false;
+		boolean readOnly = false;
+		/*
+		 * If the legacy file still exists, a new registry file has never been
+		 * written completely, so a leftover temporary file is ignored.
+		 */
+		if (REGISTRY_FILE.exists() || (RegistryCodec.exists(REGISTRY_FILE) && ! LEGACY_REGISTRY_FILE.exists())) {
+			try {
+				generation = RegistryCodec.load(REGISTRY_FILE, loadedScopes);
+				journalLength = RegistryJournal.replay(JOURNAL_FILE, generation, loadedScopes);
+			} catch (IOException e) {
+				e.printStackTrace();
+				// Don't use a partially loaded registry
+				loadedScopes.clear();
+				generation = 0;
+				journalLength = 0;
+				readOnly = e instanceof RegistryCodec.NewerVersionException;
+			}
 		}
-		if (instance == null) {
-			instance = new ScopeRegistry();
+		else if (LEGACY_REGISTRY_FILE.exists()) {
+			ScopeRegistry legacy = loadLegacyRegistry();
+			if (legacy != null) {
+				loadedScopes.addAll(legacy.rootScopes);
+				convert = true;
+			}
 		}
-		else {
-			instance.indexingJobs = new ArrayList<Job> ();
-			instance.evtQueueChanged = new Event<ScopeRegistry> ();
-			instance.evtRegistryRootChanged = new Event<ScopeRegistry> ();
-			instance.evtRegistryChanged = new Event<ScopeRegistry> ();
+		instance = new ScopeRegistry();
+		instance.readOnly = readOnly;
+		instance.addEntries(loadedScopes);
+		instance.journal = new RegistryJournal(JOURNAL_FILE, generation, journalLength, readOnly);
+		for (RootScope rootScope : loadedScopes)
+			rootScope.journal = instance.journal;
+		/*
+		 * A non-empty journal means that the program wasn't shut down
+		 * properly. It is folded into a new snapshot right away, which also
+		 * ensures that new records aren't appended to a journal written in an
+		 * older format.
+		 */
+		if (convert || instance.journal.hasRecords()) {
+			try {
+				instance.save();
+				// Saving might have been suppressed
+				if (convert && REGISTRY_FILE.exists())
+					LEGACY_REGISTRY_FILE.delete();
+			} catch (IOException e) {
+				// Try again on the next start
+				e.printStackTrace();
+			}
 		}
+		instance.indexMaintenance = new IndexMaintenance(instance);
+		instance.indexMaintenance.start();
 		return instance;
 	}
 	
 	/**
-	 * Saves this registry to disk.
+	 * Loads the registry from the serialized file written by older versions.
+	 * Returns null if the old file could not be read.
+	 */
+	private static ScopeRegistry loadLegacyRegistry() {
+		try {
+			return (ScopeRegistry) Serializer.load(ScopeRegistry.class, Const.INDEX_PARENT_FILE);
+		} catch (IOException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Saves this registry to disk: A snapshot of the registry is written and
+	 * the journal is emptied. While indexing jobs are running, the scope trees
+	 * are being modified, so no snapshot is written; the journal contains all
+	 * committed changes anyway. Nothing is written if the registry file has
+	 * been written by a newer version.
 	 * 
 	 * @throws IOException
 	 *             if the write process failed.
 	 */
 	public void save() throws IOException {
-		Serializer.save(this, Const.INDEX_PARENT_FILE);
-		
-		// Write indexes.txt file used by the daemon
+		if (readOnly) return;
+		synchronized (this) {
+			if (indexingThreads.isEmpty()) {
+				journal.flush();
+				long generation = journal.getGeneration() + 1;
+				RegistryCodec.save(rootScopes, REGISTRY_FILE, generation);
+				journal.reset(generation);
+			}
+		}
+		writeDaemonFile();
+	}
+	
+	/**
+	 * Saves the registry after the indexing queue has been emptied. Since the
+	 * changes are already in the journal, a new snapshot is only written if
+	 * the journal has grown beyond the size given by the preferences.
+	 * 
+	 * @throws IOException
+	 *             if the write process failed.
+	 */
+	private void saveIncrementally() throws IOException {
+		if (readOnly) return;
+		journal.flush();
+		if (journal.length() >= Pref.Int.RegistryJournalLimit.getValue() * 1024L)
+			save();
+		else
+			writeDaemonFile();
+	}
+	
+	/**
+	 * Writes the indexes.txt file used by the daemon.
+	 * 
+	 * @throws IOException
+	 *             if the write process failed.
+	 */
+	private void writeDaemonFile() throws IOException {
+		List<RootScope> entries = getEntriesList();
 		FileWriter writer = new FileWriter(Const.INDEX_DAEMON_FILE);
-		for (RootScope rootScope : rootScopes) {
+		for (RootScope rootScope : entries) {
 			writer.write(rootScope.file.getAbsolutePath());
 			writer.write(Const.LS);
 		}
@@ -527,7 +828,9 @@ public class ScopeRegistry implements Serializable {
 	
 	/**
 	 * Performs a search on the given list of indexes for <tt>searchString</tt>
-	 * and returns an array of results.
+	 * and returns an array of results. The results must be released with
+	 * {@link ResultDocument#release(ResultDocument[], ResultDocument[])} when
+	 * they're no longer needed.
 	 * 
 	 * @param searchString
 	 *            The search string
@@ -541,7 +844,10 @@ public class ScopeRegistry implements Serializable {
 	 */
 	public ResultDocument[] search(	final String searchString,
 									List<RootScope> searchScopes) throws SearchException {
-		MultiSearcher multiSearcher = null;
+		SearcherManager searcherManager = SearcherManager.getInstance();
+		List<IndexReader> readers = new ArrayList<IndexReader> ();
+		Searcher searcher = null;
+		int timeout = Pref.Int.SearchTimeout.getValue();
 		try {
 			if (searchScopes == null) {
 				searchScopes = new ArrayList<RootScope>();
@@ -569,48 +875,101 @@ public class ScopeRegistry implements Serializable {
 												rootScope	.getIndexDir()
 															.getAbsolutePath());
 
-			// Perform search
-			Searchable[] searchables = new Searchable[searchScopes.size()];
-			int i = 0;
-			for (RootScope rootScope : searchScopes) {
-				Directory luceneIndexDir = new SimpleFSDirectory(rootScope.getIndexDir());
-				searchables[i++] = new IndexSearcher(luceneIndexDir);
+			/*
+			 * Perform search on the shared readers, either through a combined
+			 * reader or with the indexes being searched in parallel. The
+			 * searchers created on top of the readers are cheap and don't
+			 * close them.
+			 */
+			for (RootScope rootScope : searchScopes)
+				readers.add(searcherManager.acquire(rootScope));
+			int maxResults = Pref.Int.MaxResultsTotal.getValue();
+			ScoreDoc[] hits;
+			if (isCompositeSearch(readers.size())) {
+				searcher = new CompositeSearcher(readers.toArray(new IndexReader[readers.size()]));
+				TopScoreDocCollector collector = TopScoreDocCollector.create(maxResults, false);
+				if (timeout > 0)
+					searcher.search(query, new TimeLimitingCollector(collector, timeout * 1000L));
+				else
+					searcher.search(query, collector);
+				hits = collector.topDocs().scoreDocs;
+			}
+			else {
+				Searchable[] searchables = new Searchable[readers.size()];
+				for (int i = 0; i < searchables.length; i++)
+					searchables[i] = new IndexSearcher(readers.get(i));
+				searcher = new ParallelSearcher(searchables, timeout * 1000L);
+				hits = searcher.search(query, null, maxResults).scoreDocs;
 			}
-			multiSearcher = new MultiSearcher(searchables);
-
-			TopScoreDocCollector collector = TopScoreDocCollector.create(	Pref.Int.MaxResultsTotal.getValue(),
-																			false);
-			multiSearcher.search(	query,
-									collector);
-			ScoreDoc[] hits = collector.topDocs().scoreDocs;
 
-			// Process results
+			/*
+			 * Process results. Both searchers number the documents of the
+			 * indexes consecutively, so each hit can be mapped to its index.
+			 * The stored fields of the hits aren't loaded here, but only when
+			 * the results are displayed, filtered or sorted, by one loader
+			 * per index. The loaders keep the readers open until the results
+			 * are released with ResultDocument.release(..).
+			 */
+			int[] starts = new int[readers.size()];
+			for (int i = 1; i < starts.length; i++)
+				starts[i] = starts[i - 1] + readers.get(i - 1).maxDoc();
+			StoredFieldLoader[] loaders = new StoredFieldLoader[readers.size()];
 			final ResultDocument[] results = new ResultDocument[hits.length];
-			for (i = 0; i < results.length; i++)
-				results[i] = new ResultDocument(multiSearcher.doc(hits[i].doc),
-												hits[i].score,
-												query);
+			for (int i = 0; i < results.length; i++) {
+				int index = ReaderUtil.subIndex(hits[i].doc, starts);
+				if (loaders[index] == null)
+					loaders[index] = new StoredFieldLoader(readers.get(index));
+				results[i] = loaders[index].newResult(	hits[i].doc - starts[index],
+														hits[i].score,
+														query);
+			}
+			for (int i = 0; i < loaders.length; i++)
+				if (loaders[i] != null)
+					searcherManager.register(searchScopes.get(i), loaders[i]);
 
 			return results;
 		}
 		catch (final ParseException e) {
 			throw new SearchException(Msg.invalid_query.value() + "\n" + e.getLocalizedMessage()); //$NON-NLS-1$
 		}
+		catch (final ParallelSearcher.SearchTimeoutException e) {
+			throw new SearchException(Msg.search_timeout.format(timeout));
+		}
+		catch (final TimeLimitingCollector.TimeExceededException e) {
+			throw new SearchException(Msg.search_timeout.format(timeout));
+		}
 		catch (final IOException e) {
 			throw new SearchException(e.getLocalizedMessage());
 		}
 		finally {
-			if (multiSearcher != null) {
+			if (searcher != null) {
 				try {
-					multiSearcher.close();
+					searcher.close();
 				}
 				catch (IOException e) {
 					e.printStackTrace();
 				}
 			}
+			for (IndexReader reader : readers)
+				searcherManager.release(reader);
 		}
 	}
 	
+	/**
+	 * Returns whether the given number of indexes should be searched through
+	 * a {@link CompositeSearcher} rather than a {@link ParallelSearcher}.
+	 * 
+	 * @see Pref.Str#SearchMode
+	 */
+	private static boolean isCompositeSearch(int nIndexes) {
+		String mode = Pref.Str.SearchMode.getValue().trim();
+		if (mode.equalsIgnoreCase("composite")) //$NON-NLS-1$
+			return true;
+		if (mode.equalsIgnoreCase("parallel")) //$NON-NLS-1$
+			return false;
+		return nIndexes == 1 || ! ParallelSearcher.isParallel();
+	}
+	
 	public class SearchException extends Exception {
 		static final long serialVersionUID = 1;
 		public SearchException(String msg) {
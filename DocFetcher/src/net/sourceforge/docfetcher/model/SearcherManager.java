@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+
+/**
+ * Keeps one open, read-only <tt>IndexReader</tt> per <tt>RootScope</tt>, so
+ * that searches don't have to open the index files and load the term index
+ * each time.
+ * <p>
+ * The readers are reference-counted: A reader obtained with
+ * {@link #acquire(RootScope)} stays open until it is passed to
+ * {@link #release(IndexReader)}, even if the index has been reopened or
+ * closed in the meantime, so that concurrent searches can share it. After the
+ * index has been modified, it must be marked with
+ * {@link #invalidate(RootScope)}; the next call to <tt>acquire</tt> will then
+ * reopen the reader, which only loads the segments that have changed. Before
+ * the index files are deleted, {@link #close(RootScope)} must be called.
+ * <p>
+ * The stored fields of search results are loaded lazily from the reader that
+ * was searched, through a {@link StoredFieldLoader} that holds its own
+ * reference on the reader. The loaders are registered with
+ * {@link #register(RootScope, StoredFieldLoader)}, so that those still in use
+ * can be detached before the index files are deleted.
+ *
+ * @author Tran Nam Quang
+ */
+public class SearcherManager {
+
+	/**
+	 * The open reader of a <tt>RootScope</tt>.
+	 */
+	private static final class Entry {
+		/** The current reader, holding one reference for this manager. */
+		private IndexReader reader;
+		/** Whether the index has been modified since the reader was opened. */
+		private boolean stale = false;
+		/** Whether this entry has been removed from the manager. */
+		private boolean closed = false;
+		/**
+		 * The loaders for the results of searches on this index. Loaders
+		 * whose results have been discarded are garbage collected.
+		 */
+		private final List<WeakReference<StoredFieldLoader>> loaders = new ArrayList<WeakReference<StoredFieldLoader>> ();
+	}
+
+	private static SearcherManager instance;
+
+	private final Map<RootScope, Entry> entries = new IdentityHashMap<RootScope, Entry> ();
+
+	private SearcherManager() {
+	}
+
+	/**
+	 * Returns the singleton instance of this class.
+	 */
+	public static synchronized SearcherManager getInstance() {
+		if (instance == null)
+			instance = new SearcherManager();
+		return instance;
+	}
+
+	/**
+	 * Returns an up-to-date reader for the index of the given
+	 * <tt>RootScope</tt>, opening or reopening it if necessary. The returned
+	 * reader must be passed to {@link #release(IndexReader)} when it is no
+	 * longer needed, and must not be closed by the caller.
+	 *
+	 * @throws IOException
+	 *             if the index doesn't exist or can't be read.
+	 */
+	public IndexReader acquire(RootScope rootScope) throws IOException {
+		while (true) {
+			Entry entry;
+			synchronized (this) {
+				entry = entries.get(rootScope);
+				if (entry == null) {
+					entry = new Entry();
+					entries.put(rootScope, entry);
+				}
+			}
+			IndexReader reader = acquire(rootScope, entry);
+			if (reader != null)
+				return reader;
+		}
+	}
+
+	/**
+	 * Returns the up-to-date reader of the given entry with an incremented
+	 * reference count, or null if the entry has been closed in the meantime.
+	 * Opening and reopening are done while holding the lock of the entry
+	 * only, so that searches on other indexes aren't held up.
+	 */
+	private static IndexReader acquire(RootScope rootScope, Entry entry) throws IOException {
+		synchronized (entry) {
+			if (entry.closed)
+				return null;
+			if (entry.reader == null) {
+				if (rootScope.getIndexDir() == null)
+					throw new FileNotFoundException(rootScope.file.getAbsolutePath());
+				entry.reader = IndexReader.open(DirectoryType.openSelected(rootScope.getIndexDir()), true);
+				entry.stale = false;
+			}
+			else if (entry.stale) {
+				IndexReader newReader = entry.reader.reopen();
+				if (newReader != entry.reader) {
+					entry.reader.decRef();
+					entry.reader = newReader;
+				}
+				entry.stale = false;
+			}
+			entry.reader.incRef();
+			return entry.reader;
+		}
+	}
+
+	/**
+	 * Releases a reader obtained from {@link #acquire(RootScope)}. The reader
+	 * is closed if it has been replaced or closed in the meantime and isn't
+	 * used by anyone else.
+	 */
+	public void release(IndexReader reader) {
+		try {
+			reader.decRef();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Registers a loader for the results of a search on the given
+	 * <tt>RootScope</tt>, so that it is detached by {@link #close(RootScope)}.
+	 * If the index has been closed in the meantime, the loader is detached
+	 * immediately.
+	 */
+	void register(RootScope rootScope, StoredFieldLoader loader) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(rootScope);
+		}
+		if (entry != null) {
+			synchronized (entry) {
+				if (! entry.closed) {
+					for (Iterator<WeakReference<StoredFieldLoader>> it = entry.loaders.iterator(); it.hasNext();)
+						if (it.next().get() == null)
+							it.remove();
+					entry.loaders.add(new WeakReference<StoredFieldLoader> (loader));
+					return;
+				}
+			}
+		}
+		loader.detach();
+	}
+
+	/**
+	 * Marks the index of the given <tt>RootScope</tt> as modified, so that its
+	 * reader is reopened on the next call to {@link #acquire(RootScope)}. This
+	 * method should be called after changes to the index have been committed.
+	 */
+	public void invalidate(RootScope rootScope) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(rootScope);
+		}
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			entry.stale = true;
+		}
+	}
+
+	/**
+	 * Closes the reader of the given <tt>RootScope</tt>, or defers this until
+	 * the reader has been released by all searches currently using it. The
+	 * loaders of the results of previous searches are detached, so that they
+	 * release their readers as well. This method should be called before the
+	 * index files are deleted.
+	 */
+	public void close(RootScope rootScope) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.remove(rootScope);
+		}
+		if (entry != null)
+			close(entry, true);
+	}
+
+	/**
+	 * Closes the readers of all <tt>RootScope</tt>s. This method should be
+	 * called on shutdown. The readers of results that haven't been released
+	 * are closed when the results are released.
+	 */
+	public void closeAll() {
+		List<Entry> oldEntries;
+		synchronized (this) {
+			oldEntries = new ArrayList<Entry> (entries.values());
+			entries.clear();
+		}
+		for (Entry entry : oldEntries)
+			close(entry, false);
+	}
+
+	/**
+	 * Closes the given entry, detaching its loaders first if
+	 * <tt>detachLoaders</tt> is true.
+	 */
+	private static void close(Entry entry, boolean detachLoaders) {
+		synchronized (entry) {
+			entry.closed = true;
+			if (detachLoaders)
+				detachLoaders(entry);
+			entry.loaders.clear();
+			if (entry.reader == null)
+				return;
+			try {
+				entry.reader.decRef();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			entry.reader = null;
+		}
+	}
+
+	/**
+	 * Detaches the loaders of the given entry, which must be locked by the
+	 * caller.
+	 */
+	private static void detachLoaders(Entry entry) {
+		for (WeakReference<StoredFieldLoader> ref : entry.loaders) {
+			StoredFieldLoader loader = ref.get();
+			if (loader != null)
+				loader.detach();
+		}
+		entry.loaders.clear();
+	}
+
+}
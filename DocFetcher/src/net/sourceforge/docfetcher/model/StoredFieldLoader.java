@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+
+/**
+ * Loads the stored fields of the <tt>ResultDocument</tt>s of one search in one
+ * index when they're first accessed, so that a search with many hits only
+ * loads the documents that are actually displayed, filtered or sorted on.
+ * <p>
+ * The loader holds its own reference on the reader, so the reader stays open
+ * even if the index is reopened in the meantime. The reference is given up
+ * with {@link #release()} when the results are replaced or discarded, after
+ * which fields that haven't been loaded can't be loaded anymore. Before the
+ * index files are deleted, the <tt>SearcherManager</tt> calls
+ * {@link #detach()} instead, which loads the remaining fields first.
+ *
+ * @author Tran Nam Quang
+ */
+final class StoredFieldLoader {
+
+	/**
+	 * Selects the stored fields that are used by the result panel and the
+	 * web interface.
+	 */
+	static final FieldSelector FIELD_SELECTOR = new MapFieldSelector(
+			Document.path,
+			Document.title,
+			Document.author,
+			Document.parsedBy
+	);
+
+	/** The reader to load from, or null if this loader has been released. */
+	private IndexReader reader;
+
+	/** The results created by this loader, until it is released. */
+	private final List<ResultDocument> results = new ArrayList<ResultDocument> ();
+
+	/**
+	 * Creates a loader for the given reader, which must have been obtained
+	 * from the <tt>SearcherManager</tt> and must not have been released yet.
+	 * The loader takes an additional reference on it.
+	 */
+	StoredFieldLoader(IndexReader reader) {
+		reader.incRef();
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns a new result for the given document number of the reader, whose
+	 * stored fields will be loaded by this loader.
+	 */
+	synchronized ResultDocument newResult(int doc, float score, Query query) {
+		ResultDocument result = new ResultDocument(this, doc, score, query);
+		results.add(result);
+		return result;
+	}
+
+	/**
+	 * Loads the stored fields of the given result if they haven't been loaded
+	 * yet. If this loader has already been released, the result is given an
+	 * empty set of fields.
+	 */
+	synchronized void load(ResultDocument result) {
+		if (result.isLoaded())
+			return;
+		org.apache.lucene.document.Document luceneDoc;
+		if (reader == null) {
+			luceneDoc = new org.apache.lucene.document.Document();
+		}
+		else {
+			try {
+				luceneDoc = reader.document(result.getDocNumber(), FIELD_SELECTOR);
+			} catch (IOException e) {
+				e.printStackTrace();
+				luceneDoc = new org.apache.lucene.document.Document();
+			}
+		}
+		result.setLuceneDoc(luceneDoc);
+	}
+
+	/**
+	 * Loads the stored fields of all results that haven't been loaded yet and
+	 * releases the reader.
+	 */
+	synchronized void detach() {
+		if (reader == null)
+			return;
+		for (ResultDocument result : results)
+			load(result);
+		release();
+	}
+
+	/**
+	 * Releases the reference of this loader on its reader. Does nothing if
+	 * this loader has already been released.
+	 */
+	synchronized void release() {
+		if (reader == null)
+			return;
+		results.clear();
+		SearcherManager.getInstance().release(reader);
+		reader = null;
+	}
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Collects the files to be deleted from an index created by an older version,
+ * some of whose documents lack the path key field, and deletes the documents
+ * without path key by their stored paths. Documents with a path key are
+ * deleted by term as usual.
+ * <p>
+ * Since the index writer can't delete documents by their stored fields, the
+ * deletions are applied with a single pass over the index after the writer
+ * has been closed.
+ *
+ * @author Tran Nam Quang
+ */
+final class StoredPathDeletions {
+
+	private static final FieldSelector PATH_SELECTOR = new MapFieldSelector(Document.path);
+
+	private final Directory luceneIndexDir;
+
+	/** The path keys of the files to be deleted. */
+	private final Set<String> pathKeys = new HashSet<String> ();
+
+	StoredPathDeletions(Directory luceneIndexDir) {
+		this.luceneIndexDir = luceneIndexDir;
+	}
+
+	/**
+	 * Adds the given files to the files to be deleted.
+	 */
+	void add(Collection<File> files) {
+		for (File file : files)
+			pathKeys.add(Document.getPathKey(file));
+	}
+
+	/**
+	 * Deletes the documents without path key whose stored paths belong to
+	 * the files to be deleted. The index must not be opened by a writer.
+	 * This isn't aborted on interrupts, since the files to be deleted have
+	 * already been removed from the registry.
+	 */
+	void apply() throws IOException {
+		if (pathKeys.isEmpty())
+			return;
+		IndexReader reader = IndexReader.open(luceneIndexDir, false);
+		try {
+			int maxDoc = reader.maxDoc();
+			for (int i = 0; i < maxDoc; i++) {
+				/*
+				 * DocFetcher crashes if we try to access a deleted document.
+				 * See bug #2881245 and bug #2925127.
+				 */
+				if (reader.isDeleted(i)) continue;
+
+				String path = reader.document(i, PATH_SELECTOR).get(Document.path);
+				if (path == null) continue;
+				String pathKey = Document.getPathKey(new File(path));
+				if (pathKeys.contains(pathKey) && ! hasPathKey(reader, i, pathKey))
+					reader.deleteDocument(i);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns whether the given document has the given path key, i.e.
+	 * whether it has been added by this version.
+	 */
+	private static boolean hasPathKey(IndexReader reader, int doc, String pathKey) throws IOException {
+		TermDocs termDocs = reader.termDocs(new Term(Document.pathKey, pathKey));
+		try {
+			return termDocs.skipTo(doc) && termDocs.doc() == doc;
+		} finally {
+			termDocs.close();
+		}
+	}
+
+}
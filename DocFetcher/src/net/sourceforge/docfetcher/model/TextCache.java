@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.sourceforge.docfetcher.Const;
+import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.parse.ParseException;
+import net.sourceforge.docfetcher.parse.Parser;
+import net.sourceforge.docfetcher.util.UtilFile;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+
+/**
+ * A disk-backed cache for the output of the parsers, so that files whose
+ * contents have already been extracted don't need to be parsed again when an
+ * index is rebuilt, when the file is shown in the preview panel, or when its
+ * text is extracted on the command line.
+ * <p>
+ * Each entry is a gzip-compressed file in the cache folder, named after a
+ * hash of the entry's key. The key consists of the kind of the entry (parsed
+ * document or preview text), the absolute path, size and modification date
+ * of the parsed file, and the name of the parser, so an entry becomes
+ * unreachable as soon as the file is modified. The total size of the entries
+ * is limited by <tt>Pref.Int.TextCacheSize</tt>; if the limit is exceeded,
+ * the least recently used entries are evicted. The modification dates of the
+ * entry files are updated on access, so that the usage order survives
+ * restarts.
+ *
+ * @author Tran Nam Quang
+ */
+public class TextCache {
+
+	/**
+	 * The version of the entry format. It must also be increased when a parser
+	 * changes its output, so that outdated texts aren't used anymore.
+	 */
+	private static final int VERSION = 2;
+
+	private static final String EXTENSION = ".gz"; //$NON-NLS-1$
+
+	private static final String TEMP_EXTENSION = ".tmp"; //$NON-NLS-1$
+
+	// Flags for the stored fields of parsed documents
+	private static final int STORED = 1;
+	private static final int INDEXED = 2;
+	private static final int TOKENIZED = 4;
+	private static final int OMIT_NORMS = 8;
+
+	private static TextCache instance;
+
+	/** The folder in which the entries are stored. */
+	private final File cacheDir;
+
+	/**
+	 * The sizes of the entry files, mapped to the filenames and ordered from
+	 * least to most recently used. Null until the cache folder has been read.
+	 */
+	private Map<String, Long> entries;
+
+	/** The total size of the entry files in bytes. */
+	private long totalSize = 0;
+
+	private int hitCount = 0;
+	private int missCount = 0;
+
+	private TextCache(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Returns the singleton instance of this class.
+	 */
+	public static synchronized TextCache getInstance() {
+		if (instance == null)
+			instance = new TextCache(new File(Const.INDEX_PARENT_FILE, "textcache")); //$NON-NLS-1$
+		return instance;
+	}
+
+	/**
+	 * Parses the given file with the given parser, unless the result is
+	 * already in the cache. New results are put into the cache, except for
+	 * documents whose contents are streamed from a <tt>Reader</tt>.
+	 * <p>
+	 * Note: This method may throw an OutOfMemoryError if the parsed file is too
+	 * big.
+	 *
+	 * @throws ParseException
+	 *             if the parse process failed.
+	 */
+	Document parse(File file, Parser parser) throws ParseException {
+		if (! isEnabled())
+			return parser.parse(file);
+		String key = getKey("doc", file, parser); //$NON-NLS-1$
+		String filename = getFilename(key);
+		byte[] data = load(filename, key);
+		if (data != null) {
+			try {
+				return readDocument(file, data);
+			} catch (IOException e) {
+				remove(filename);
+			}
+		}
+		Document doc = parser.parse(file);
+		try {
+			byte[] docData = writeDocument(doc);
+			if (docData != null)
+				store(filename, key, docData);
+		} catch (IOException e) {
+			// The document is still usable without caching it
+		}
+		return doc;
+	}
+
+	/**
+	 * Returns the text of the given file as rendered by the given parser for
+	 * the preview, using the cached text if available. New results are put
+	 * into the cache.
+	 * <p>
+	 * Note: This method may throw an OutOfMemoryError if the parsed file is too
+	 * big.
+	 *
+	 * @throws ParseException
+	 *             if the parse process failed.
+	 */
+	public String renderText(File file, Parser parser) throws ParseException {
+		if (! isEnabled())
+			return parser.renderText(file);
+		String key = getKey("text", file, parser); //$NON-NLS-1$
+		String filename = getFilename(key);
+		byte[] data = load(filename, key);
+		if (data != null) {
+			try {
+				return new String(data, "UTF-8"); //$NON-NLS-1$
+			} catch (IOException e) {
+				remove(filename);
+			}
+		}
+		String text = parser.renderText(file);
+		try {
+			store(filename, key, text.getBytes("UTF-8")); //$NON-NLS-1$
+		} catch (IOException e) {
+			// The text is still usable without caching it
+		}
+		return text;
+	}
+
+	/**
+	 * Returns the number of cache hits since the program was started.
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of cache misses since the program was started.
+	 */
+	public synchronized int getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Returns the total size of the cache entries in bytes.
+	 */
+	public synchronized long getTotalSize() {
+		initEntries();
+		return totalSize;
+	}
+
+	private static boolean isEnabled() {
+		return Pref.Int.TextCacheSize.getValue() > 0;
+	}
+
+	private static String getKey(String kind, File file, Parser parser) {
+		return VERSION + "|" + kind + "|" + file.getAbsolutePath() + "|" + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			file.length() + "|" + file.lastModified() + "|" + //$NON-NLS-1$ //$NON-NLS-2$
+			parser.getClass().getName();
+	}
+
+	/**
+	 * Returns the name of the entry file for the given key, which is the hex
+	 * encoded MD5 hash of the key.
+	 */
+	private static String getFilename(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+			StringBuilder sb = new StringBuilder(hash.length * 2 + EXTENSION.length());
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.append(EXTENSION).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads the cache folder into the map of entries, if this hasn't been
+	 * done yet. Leftover temporary files are deleted.
+	 */
+	private void initEntries() {
+		if (entries != null)
+			return;
+		entries = new LinkedHashMap<String, Long> (16, 0.75f, true);
+		File[] files = UtilFile.listFiles(cacheDir);
+		Arrays.sort(files, new Comparator<File> () {
+			public int compare(File f1, File f2) {
+				long t1 = f1.lastModified();
+				long t2 = f2.lastModified();
+				return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+			}
+		});
+		for (File file : files) {
+			if (file.getName().endsWith(EXTENSION)) {
+				entries.put(file.getName(), file.length());
+				totalSize += file.length();
+			}
+			else if (file.getName().endsWith(TEMP_EXTENSION)) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the data of the entry with the given filename and key, or null
+	 * if there is no such entry.
+	 */
+	private byte[] load(String filename, String key) {
+		synchronized (this) {
+			initEntries();
+			if (entries.get(filename) == null) { // Also marks the entry as used
+				missCount++;
+				return null;
+			}
+		}
+		File file = new File(cacheDir, filename);
+		try {
+			DataInputStream in = new DataInputStream(new GZIPInputStream(
+					new BufferedInputStream(new FileInputStream(file))));
+			try {
+				if (! in.readUTF().equals(key)) {
+					synchronized (this) {
+						missCount++;
+					}
+					return null; // Hash collision, the entry will be replaced
+				}
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				file.setLastModified(System.currentTimeMillis());
+				synchronized (this) {
+					hitCount++;
+				}
+				return data;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			remove(filename);
+			synchronized (this) {
+				missCount++;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes an entry with the given filename, key and data and evicts the
+	 * least recently used entries if the cache has grown too large.
+	 */
+	private void store(String filename, String key, byte[] data) throws IOException {
+		if (! cacheDir.exists())
+			cacheDir.mkdirs();
+		File file = new File(cacheDir, filename);
+		File tempFile = new File(cacheDir, filename + "." + Thread.currentThread().getId() + TEMP_EXTENSION); //$NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile))));
+		try {
+			out.writeUTF(key);
+			out.writeInt(data.length);
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		synchronized (this) {
+			initEntries();
+			Long oldSize = entries.remove(filename);
+			if (oldSize != null)
+				totalSize -= oldSize;
+			file.delete();
+			if (! tempFile.renameTo(file)) {
+				tempFile.delete();
+				return;
+			}
+			entries.put(filename, file.length());
+			totalSize += file.length();
+
+			// Evict least recently used entries
+			long maxSize = Pref.Int.TextCacheSize.getValue() * 1024L * 1024L;
+			Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+			while (totalSize > maxSize && it.hasNext()) {
+				Map.Entry<String, Long> entry = it.next();
+				new File(cacheDir, entry.getKey()).delete();
+				totalSize -= entry.getValue();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry with the given filename.
+	 */
+	private synchronized void remove(String filename) {
+		initEntries();
+		Long size = entries.remove(filename);
+		if (size != null)
+			totalSize -= size;
+		new File(cacheDir, filename).delete();
+	}
+
+	/**
+	 * Encodes the fields of the given document. Returns null if the document
+	 * has fields that can't be cached, i.e. fields without a string value.
+	 */
+	private static byte[] writeDocument(Document doc) throws IOException {
+		List<Fieldable> fields = doc.getLuceneDoc().getFields();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(fields.size());
+		for (Fieldable field : fields) {
+			String value = field.stringValue();
+			if (value == null)
+				return null;
+			int flags = 0;
+			if (field.isStored()) flags |= STORED;
+			if (field.isIndexed()) flags |= INDEXED;
+			if (field.isTokenized()) flags |= TOKENIZED;
+			if (field.getOmitNorms()) flags |= OMIT_NORMS;
+			out.writeUTF(field.name());
+			out.writeByte(flags);
+			byte[] valueBytes = value.getBytes("UTF-8"); //$NON-NLS-1$
+			out.writeInt(valueBytes.length);
+			out.write(valueBytes);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a document written by {@link #writeDocument(Document)}.
+	 */
+	private static Document readDocument(File file, byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
+		int nFields = in.readInt();
+		for (int i = 0; i < nFields; i++) {
+			String name = in.readUTF();
+			int flags = in.readByte();
+			byte[] valueBytes = new byte[in.readInt()];
+			in.readFully(valueBytes);
+			String value = new String(valueBytes, "UTF-8"); //$NON-NLS-1$
+			Store store = (flags & STORED) != 0 ? Store.YES : Store.NO;
+			Index index;
+			if ((flags & INDEXED) == 0)
+				index = Index.NO;
+			else if ((flags & TOKENIZED) != 0)
+				index = (flags & OMIT_NORMS) != 0 ? Index.ANALYZED_NO_NORMS : Index.ANALYZED;
+			else
+				index = (flags & OMIT_NORMS) != 0 ? Index.NOT_ANALYZED_NO_NORMS : Index.NOT_ANALYZED;
+			luceneDoc.add(new Field(name, value, store, index));
+		}
+		return new Document(file, luceneDoc);
+	}
+
+}
@@ -16,6 +16,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import net.htmlparser.jericho.Source;
 import net.sourceforge.docfetcher.enumeration.Msg;
@@ -31,13 +34,17 @@ public class CHMParser extends Parser {
 
 	private static final String[] extensions = new String[] {"chm"}; //$NON-NLS-1$
 
+	/**
+	 * Returns a document whose contents are extracted from the given CHM file
+	 * one entry at a time while the document is being indexed.
+	 */
 	public Document parse(File file) throws ParseException {
-		StringBuffer contents = new StringBuffer();
+		List<ChmEntry> leaves = new ArrayList<ChmEntry> ();
 		try {
 			ChmFile chmFile = new ChmFile(file);
 			ChmEntry[] entries = chmFile.entries(ChmEntry.Attribute.ALL);
 			for (ChmEntry entry : entries)
-				append(contents, entry, false);
+				collectLeaves(leaves, entry);
 		}
 		catch (FileNotFoundException e) {
 			throw new ParseException(file, Msg.file_not_found.value());
@@ -45,7 +52,27 @@ public class CHMParser extends Parser {
 		catch (IOException e) {
 			throw new ParseException(file, Msg.file_not_readable.value());
 		}
-		return new Document(file, contents);
+		final Iterator<ChmEntry> it = leaves.iterator();
+		return new Document(file, new ChunkedReader() {
+			protected CharSequence nextChunk() throws IOException {
+				if (! it.hasNext())
+					return null;
+				StringBuffer sb = new StringBuffer();
+				append(sb, it.next(), false);
+				return sb;
+			}
+			public void close() {
+				// Nothing to close
+			}
+		});
+	}
+
+	/**
+	 * Returns true, since the contents of the returned documents are read
+	 * while they're being indexed.
+	 */
+	public boolean isStreaming() {
+		return true;
 	}
 
 	public String renderText(File file) throws ParseException {
@@ -65,6 +92,20 @@ public class CHMParser extends Parser {
 		return contents.toString();
 	}
 
+	/**
+	 * Puts all <tt>ChmEntry</tt>s under <tt>entry</tt> that aren't directories
+	 * into the given list.
+	 */
+	private void collectLeaves(List<ChmEntry> leaves, ChmEntry entry) throws IOException {
+		if (entry.hasAttribute(ChmEntry.Attribute.DIRECTORY)) {
+			for (ChmEntry child : entry.entries(ChmEntry.Attribute.ALL))
+				collectLeaves(leaves, child);
+		}
+		else {
+			leaves.add(entry);
+		}
+	}
+
 	/**
 	 * Converts all <tt>ChmEntry</tt>s under <tt>entry</tt> to strings and
 	 * puts them into the given <tt>StringBuffer</tt>.
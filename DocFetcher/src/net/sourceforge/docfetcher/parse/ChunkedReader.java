@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A reader that extracts the text of a document piece by piece while it is
+ * being read, so that only the current piece must be held in memory.
+ * Subclassers provide the pieces through {@link #nextChunk()}.
+ * <p>
+ * Runtime exceptions thrown by the underlying parser libraries are converted
+ * to <tt>IOException</tt>s, so that they are reported as read errors by the
+ * indexing engine.
+ *
+ * @author Tran Nam Quang
+ */
+abstract class ChunkedReader extends Reader {
+
+	private CharSequence chunk;
+	private int pos = 0;
+	private boolean eof = false;
+
+	/**
+	 * Returns the next piece of text, or null if the end of the document has
+	 * been reached. Empty pieces are allowed.
+	 */
+	protected abstract CharSequence nextChunk() throws IOException;
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (chunk == null || pos >= chunk.length()) {
+			if (eof)
+				return -1;
+			try {
+				chunk = nextChunk();
+			} catch (RuntimeException e) {
+				IOException ioe = new IOException(e.toString());
+				ioe.initCause(e);
+				throw ioe;
+			}
+			pos = 0;
+			if (chunk == null) {
+				eof = true;
+				return -1;
+			}
+		}
+		int n = Math.min(len, chunk.length() - pos);
+		for (int i = 0; i < n; i++)
+			cbuf[off + i] = chunk.charAt(pos + i);
+		pos += n;
+		return n;
+	}
+
+}
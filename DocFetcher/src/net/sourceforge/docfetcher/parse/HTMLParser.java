@@ -18,12 +18,18 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.charset.IllegalCharsetNameException;
+import java.util.Iterator;
+import java.util.Set;
 
 import net.htmlparser.jericho.CharacterReference;
-import net.htmlparser.jericho.Element;
+import net.htmlparser.jericho.EndTag;
 import net.htmlparser.jericho.HTMLElementName;
+import net.htmlparser.jericho.HTMLElements;
+import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
 import net.htmlparser.jericho.StartTag;
+import net.htmlparser.jericho.StreamedSource;
+import net.htmlparser.jericho.Tag;
 import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
 import net.sourceforge.docfetcher.model.Document;
@@ -34,20 +40,34 @@ import net.sourceforge.docfetcher.util.UtilFile;
  */
 public class HTMLParser extends Parser {
 
-	private String[] extensions = Pref.StrArray.HTMLExtensions.getValue();
-
 	public Document parse(File file) throws ParseException {
 		return parse(file, null);
 	}
 
 	/**
-	 * Parses a pair of an HTML file and its associated folder. The latter might
-	 * be null.
+	 * Parses a pair of an HTML file and its associated folder, using the
+	 * default parser configuration for the files in the folder. The latter
+	 * might be null.
 	 * 
 	 * @throws ParseException
 	 *             if the parse process failed.
 	 */
 	public Document parse(File htmlFile, File htmlFolder) throws ParseException {
+		return parse(htmlFile, htmlFolder, ParserConfig.getDefault());
+	}
+
+	/**
+	 * Parses a pair of an HTML file and its associated folder. The latter might
+	 * be null. The parsers for the files in the folder are selected by the
+	 * given parser configuration.
+	 * <p>
+	 * Only the head of the HTML file is parsed by this method; the text of
+	 * the body is extracted while the returned document is being indexed.
+	 * 
+	 * @throws ParseException
+	 *             if the parse process failed.
+	 */
+	public Document parse(File htmlFile, File htmlFolder, ParserConfig config) throws ParseException {
 		/*
 		 * The path has to be converted to a URI first because some special
 		 * characters (like '#') in that path can cause the HTML parser to fail.
@@ -57,9 +77,9 @@ public class HTMLParser extends Parser {
 		String filepath = htmlFile.toURI().toString();
 
 		// Get an HTML source
-		Source source = null;
+		StreamedSource source = null;
 		try {
-			source = new Source(new URL(filepath));
+			source = new StreamedSource(new URL(filepath));
 		} catch (IllegalCharsetNameException e) {
 			throw new ParseException(htmlFile, Msg.unsupported_encoding.value());
 		} catch (UnsupportedEncodingException e) {
@@ -70,68 +90,170 @@ public class HTMLParser extends Parser {
 			throw new ParseException(htmlFile, Msg.file_not_readable.value());
 		}
 		source.setLogger(null);
-		source.fullSequentialParse();
-
-		// Get tags
-		Element titleElement = source.getNextElement(0, HTMLElementName.TITLE);
-		String[] metaData = new String[] {
-				titleElement == null ? null : CharacterReference.decodeCollapseWhiteSpace(titleElement.getContent()),
-						getMetaValue(source, "author"), //$NON-NLS-1$
-						getMetaValue(source, "description"), //$NON-NLS-1$
-						getMetaValue(source, "keywords"), //$NON-NLS-1$
-		}; 
-
-		// Get contents and append tags
-		Element bodyElement = source.getNextElement(0, HTMLElementName.BODY);
-		String contents = bodyElement == null ? "" : bodyElement.getContent().getTextExtractor().toString(); //$NON-NLS-1$
-		StringBuffer sb = new StringBuffer(contents);
+
+		// Get tags from the head
+		String[] metaData = new String[4]; // title, author, description, keywords
+		Iterator<Segment> segments = source.iterator();
+		boolean foundBody = false;
+		try {
+			StringBuilder titleBuffer = null;
+			while (segments.hasNext()) {
+				Segment segment = segments.next();
+				if (segment instanceof StartTag) {
+					StartTag startTag = (StartTag) segment;
+					String name = startTag.getName();
+					if (name == HTMLElementName.BODY) {
+						foundBody = true;
+						break;
+					}
+					if (name == HTMLElementName.TITLE && metaData[0] == null)
+						titleBuffer = new StringBuilder();
+					else if (name == HTMLElementName.META)
+						putMetaValue(metaData, startTag);
+				}
+				else if (segment instanceof EndTag) {
+					if (titleBuffer != null && ((EndTag) segment).getName() == HTMLElementName.TITLE) {
+						metaData[0] = CharacterReference.decodeCollapseWhiteSpace(titleBuffer);
+						titleBuffer = null;
+					}
+				}
+				else if (titleBuffer != null) {
+					titleBuffer.append(segment.toString());
+				}
+			}
+		} catch (RuntimeException e) {
+			close(source);
+			throw new ParseException(htmlFile, Msg.file_not_readable.value());
+		}
+
+		// The body is read while indexing, the tags are appended to it
+		Document doc;
+		if (foundBody) {
+			doc = new Document(htmlFile, metaData[0], new BodyReader(source, segments));
+		}
+		else {
+			close(source);
+			doc = new Document(htmlFile, metaData[0], ""); //$NON-NLS-1$
+		}
+		StringBuffer sb = new StringBuffer();
 		for (String field : metaData)
 			if (field != null)
 				sb.append(" ").append(field); //$NON-NLS-1$
 
 		// Process appended files if any exist, then return document
 		if (htmlFolder != null)
-			merge(sb, htmlFolder);
-		return new Document(htmlFile, metaData[0], sb).addAuthor(metaData[1]);
+			merge(sb, htmlFolder, config);
+		return doc.setContents(sb).addAuthor(metaData[1]);
+	}
+
+	/**
+	 * If the given meta tag contains the author, the description or the
+	 * keywords, puts its value into the given array at index 1, 2 or 3,
+	 * respectively, unless a value has already been put there.
+	 */
+	private void putMetaValue(String[] metaData, StartTag metaTag) {
+		String key = metaTag.getAttributeValue("name"); //$NON-NLS-1$
+		if (key == null)
+			return;
+		int index;
+		if (key.equalsIgnoreCase("author")) //$NON-NLS-1$
+			index = 1;
+		else if (key.equalsIgnoreCase("description")) //$NON-NLS-1$
+			index = 2;
+		else if (key.equalsIgnoreCase("keywords")) //$NON-NLS-1$
+			index = 3;
+		else
+			return;
+		if (metaData[index] == null)
+			metaData[index] = metaTag.getAttributeValue("content"); //$NON-NLS-1$
+	}
+
+	private static void close(StreamedSource source) {
+		try {
+			source.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Extracts the text of an HTML body from a streamed HTML source, one
+	 * segment at a time. The contents of script and style elements are
+	 * skipped, and block level tags are replaced with whitespace.
+	 */
+	private static final class BodyReader extends ChunkedReader {
+		private static final Set<String> inlineElements = HTMLElements.getInlineLevelElementNames();
+		private final StreamedSource source;
+		private final Iterator<Segment> segments;
+
+		/** The name of the element whose contents are being skipped, or null. */
+		private String skippedElement;
+
+		public BodyReader(StreamedSource source, Iterator<Segment> segments) {
+			this.source = source;
+			this.segments = segments;
+		}
+
+		protected CharSequence nextChunk() {
+			if (! segments.hasNext())
+				return null;
+			Segment segment = segments.next();
+			if (segment instanceof Tag) {
+				String name = ((Tag) segment).getName();
+				if (skippedElement != null) {
+					if (segment instanceof EndTag && name == skippedElement)
+						skippedElement = null;
+					return ""; //$NON-NLS-1$
+				}
+				if (segment instanceof StartTag && (name == HTMLElementName.SCRIPT || name == HTMLElementName.STYLE))
+					skippedElement = name;
+				return inlineElements.contains(name) ? "" : " "; //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (skippedElement != null)
+				return ""; //$NON-NLS-1$
+			if (segment instanceof CharacterReference)
+				return ((CharacterReference) segment).getUnicodeText();
+			return segment.toString();
+		}
+
+		public void close() throws IOException {
+			source.close();
+		}
 	}
 
 	/**
 	 * Recursively parses the documents in the specified directory and adds
 	 * their contents to the given StringBuffer.
 	 */
-	private void merge(StringBuffer sb, File directory) {
+	private void merge(StringBuffer sb, File directory, ParserConfig config) {
 		File[] files = UtilFile.listAll(directory);
 		for (File file : files) {
 			if (file.isFile()) {
 				// Parse file and append its contents to given StringBuffer
 				try {
 					Document appendedDoc = null;
-					if (ParserRegistry.isHTMLFile(file))
-						appendedDoc = ParserRegistry.getHTMLParser().parse(file, null);
+					if (config.isHTMLFile(file))
+						appendedDoc = parse(file, null, config);
 					else
-						appendedDoc = ParserRegistry.getSingleFileParser(file).parse(file);
+						appendedDoc = config.getSingleFileParser(file).parse(file);
 					sb.append(" ").append(appendedDoc.getContents()); //$NON-NLS-1$
+					appendedDoc.close();
 				} catch (Exception ex) {
 					// Ignore all exceptions
 				}
 			}
 			else if (file.isDirectory() && ! UtilFile.isSymLink(file))
-				merge(sb, file); // recursive call
+				merge(sb, file, config); // recursive call
 		}
 	}
 
 	/**
-	 * Returns the file extensions used to identify HTML files.
+	 * Returns the default HTML file extensions given by the preferences.
+	 * 
+	 * @see ParserConfig
 	 */
 	public String[] getExtensions() {
-		return extensions;
-	}
-
-	/**
-	 * Sets the file extensions used to identify HTML files.
-	 */
-	public void setExtensions(String[] extensions) {
-		this.extensions = extensions;
+		return Pref.StrArray.HTMLExtensions.getValue();
 	}
 
 	public String getFileType() {
@@ -139,19 +261,11 @@ public class HTMLParser extends Parser {
 	}
 
 	/**
-	 * Returns the value of the meta tag with the given name in the specified
-	 * HTML source. Returns null if the meta tag does not exist.
+	 * Returns true, since the contents of the returned documents are read
+	 * while they're being indexed.
 	 */
-	private String getMetaValue(Source source, String key) {
-		int pos = 0;
-		while(pos < source.length()) {
-			StartTag startTag = source.getNextStartTag(pos, "name", key, false); //$NON-NLS-1$
-			if (startTag == null) return null;
-			if (startTag.getName() == HTMLElementName.META)
-				return startTag.getAttributeValue("content"); //$NON-NLS-1$
-			pos = startTag.getEnd();
-		}
-		return null;
+	public boolean isStreaming() {
+		return true;
 	}
 
 	public String renderText(File file) throws ParseException {
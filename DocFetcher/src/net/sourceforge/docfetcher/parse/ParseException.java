@@ -22,18 +22,49 @@ public class ParseException extends Exception {
 	
 	static final long serialVersionUID = 1;
 	
+	/**
+	 * The reasons why a file could not be parsed.
+	 */
+	public static enum Reason {
+		/** The parser failed on the file. */
+		PARSER_ERROR,
+		/** The parser crashed, e.g. with a stack overflow. */
+		PARSER_CRASH,
+		/** The JVM ran out of memory while parsing the file. */
+		OUT_OF_MEMORY,
+		/** Parsing took longer than allowed and was abandoned. */
+		TIMEOUT,
+		/** The file is larger than allowed and was not parsed. */
+		TOO_LARGE,
+	}
+	
 	/**
 	 * The file the parse exception occured on.
 	 */
 	private File file;
 	
+	/**
+	 * The reason of the failure.
+	 */
+	private Reason reason;
+	
 	/**
 	 * Constructs a new instance of this class with the file the parse exception
 	 * occured on and a short message describing the reason of the failure.
 	 */
 	public ParseException(File file, String msg) {
+		this(file, msg, Reason.PARSER_ERROR);
+	}
+	
+	/**
+	 * Constructs a new instance of this class with the file the parse exception
+	 * occured on, a short message describing the reason of the failure and the
+	 * reason itself.
+	 */
+	public ParseException(File file, String msg, Reason reason) {
 		super(msg);
 		this.file = file;
+		this.reason = reason;
 	}
 	
 	/**
@@ -42,5 +73,12 @@ public class ParseException extends Exception {
 	public File getFile() {
 		return file;
 	}
+	
+	/**
+	 * Returns the reason of the failure.
+	 */
+	public Reason getReason() {
+		return reason == null ? Reason.PARSER_ERROR : reason; // Null if deserialized from older versions
+	}
 
 }
@@ -52,6 +52,16 @@ public abstract class Parser implements Comparable<Parser> {
 	 */
 	public abstract String renderText(File file) throws ParseException;
 	
+	/**
+	 * Returns whether the documents returned by <tt>parse</tt> read their
+	 * contents from the file while they're being indexed, so that the size of
+	 * the file doesn't affect the memory needed for parsing it. The default
+	 * is false.
+	 */
+	public boolean isStreaming() {
+		return false;
+	}
+	
 	/**
 	 * Returns a short, descriptive term for the type of files supported by this
 	 * parser, e.g. "HTML", "Plain Text" or "PDF". This is what the user will
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.parse;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.util.UtilFile;
+
+/**
+ * An immutable mapping from file extensions to the parsers that handle them,
+ * for a given set of text and HTML file extensions. Each <tt>RootScope</tt>
+ * has its own instance built from its customized extensions, so indexes with
+ * different extensions can be updated at the same time.
+ * <p>
+ * The customized extensions take precedence over the extensions of the other
+ * parsers, and the HTML extensions take precedence over all others.
+ *
+ * @author Tran Nam Quang
+ */
+public final class ParserConfig {
+
+	/** The configuration built from the extensions in the preferences. */
+	private static ParserConfig defaultConfig;
+
+	private final String[] textExtensions;
+	private final String[] htmlExtensions;
+
+	/** The single-file parsers (excluding the HTML parser) by extension. */
+	private final Map<String, Parser> parsers = new HashMap<String, Parser> ();
+
+	private final Set<String> htmlExtensionSet = new HashSet<String> ();
+
+	/**
+	 * Creates a configuration with the given text and HTML file extensions.
+	 * The given arrays are copied.
+	 */
+	public ParserConfig(String[] textExtensions, String[] htmlExtensions) {
+		this.textExtensions = textExtensions.clone();
+		this.htmlExtensions = htmlExtensions.clone();
+		for (String ext : textExtensions)
+			parsers.put(ext.toLowerCase(), ParserRegistry.getTextParser());
+		for (Parser parser : ParserRegistry.getFileParsers()) {
+			if (parser instanceof TextParser)
+				continue;
+			for (String ext : parser.getExtensions()) {
+				ext = ext.toLowerCase();
+				if (! parsers.containsKey(ext))
+					parsers.put(ext, parser);
+			}
+		}
+		for (String ext : htmlExtensions)
+			htmlExtensionSet.add(ext.toLowerCase());
+	}
+
+	/**
+	 * Returns the configuration built from the text and HTML file extensions
+	 * in the preferences.
+	 */
+	public static synchronized ParserConfig getDefault() {
+		String[] textExtensions = Pref.StrArray.TextExtensions.getValue();
+		String[] htmlExtensions = Pref.StrArray.HTMLExtensions.getValue();
+		if (defaultConfig == null
+				|| ! Arrays.equals(defaultConfig.textExtensions, textExtensions)
+				|| ! Arrays.equals(defaultConfig.htmlExtensions, htmlExtensions))
+			defaultConfig = new ParserConfig(textExtensions, htmlExtensions);
+		return defaultConfig;
+	}
+
+	/**
+	 * Returns the parser that can handle the given file, excluding the HTML
+	 * parser. Returns null if no appropriate parser is found.
+	 */
+	public Parser getSingleFileParser(File file) {
+		return parsers.get(UtilFile.getExtension(file));
+	}
+
+	/**
+	 * Returns the parser that can handle the given file, including the HTML
+	 * parser. Returns null if no appropriate parser is found.
+	 */
+	public Parser getParser(File file) {
+		String ext = UtilFile.getExtension(file);
+		if (htmlExtensionSet.contains(ext))
+			return ParserRegistry.getHTMLParser();
+		return parsers.get(ext);
+	}
+
+	/**
+	 * Returns whether the given file can be parsed.
+	 */
+	public boolean canParse(File file) {
+		String ext = UtilFile.getExtension(file);
+		return htmlExtensionSet.contains(ext) || parsers.containsKey(ext);
+	}
+
+	/**
+	 * Returns whether the given file is an HTML file.
+	 */
+	public boolean isHTMLFile(File file) {
+		return htmlExtensionSet.contains(UtilFile.getExtension(file));
+	}
+
+}
@@ -13,13 +13,12 @@ package net.sourceforge.docfetcher.parse;
 
 import java.io.File;
 
-import net.sourceforge.docfetcher.enumeration.Pref;
-import net.sourceforge.docfetcher.model.RootScope;
-import net.sourceforge.docfetcher.util.UtilFile;
-import net.sourceforge.docfetcher.util.UtilList;
-
 /**
  * A registry for managing registered parsers.
+ * <p>
+ * The selection of parsers for given files is done by {@link ParserConfig};
+ * the static methods of this class for that purpose use the default
+ * configuration given by the preferences.
  * 
  * @author Tran Nam Quang
  */
@@ -61,16 +60,12 @@ public class ParserRegistry {
 	private static HTMLParser htmlParser = new HTMLParser();
 
 	/**
-	 * Returns the parser that can handling the given file, taking the current
-	 * text file extension setting into account and excluding the HTML parser.
-	 * May return null if no appropriate parser is found.
+	 * Returns the parser that can handling the given file, taking the default
+	 * text file extensions into account and excluding the HTML parser. May
+	 * return null if no appropriate parser is found.
 	 */
 	public static Parser getSingleFileParser(File file) {
-		String ext = UtilFile.getExtension(file);
-		for (Parser parser : fileParsers)
-			if (UtilList.containsEquality(parser.getExtensions(), ext))
-				return parser;
-		return null;
+		return ParserConfig.getDefault().getSingleFileParser(file);
 	}
 
 	/**
@@ -93,38 +88,15 @@ public class ParserRegistry {
 	 * text and HTML file extensions.
 	 */
 	public static Parser getParser(File file) {
-		String ext = UtilFile.getExtension(file);
-		if (UtilList.containsEquality(Pref.StrArray.HTMLExtensions.getValue(), ext))
-			return htmlParser;
-		for (Parser parser : fileParsers)
-			/*
-			 * For text files, this will give the default text extensions
-			 * because it is expected that callers have reset the text
-			 * extensions after using the text parser.
-			 */
-			if (UtilList.containsEquality(parser.getExtensions(), ext))
-				return parser;
-		return null;
+		return ParserConfig.getDefault().getParser(file);
 	}
 
 	/**
-	 * Returns whether the given file can be parsed using the customized text
-	 * and HTML file extensions stored in <tt>scope</tt>.
+	 * Returns the registered file parsers, excluding the HTML parser, in the
+	 * order of their priority.
 	 */
-	public static boolean canParseIn(RootScope scope, File file) {
-		String ext = UtilFile.getExtension(file);
-		if (UtilList.containsEquality(scope.getHtmlExtensions(), ext))
-			return true;
-		for (Parser parser : fileParsers) {
-			String[] extensions; 
-			if (parser == textParser)
-				extensions = scope.getTextExtensions();
-			else
-				extensions = parser.getExtensions();
-			if (UtilList.containsEquality(extensions, ext))
-				return true;
-		}
-		return false;
+	static Parser[] getFileParsers() {
+		return fileParsers;
 	}
 
 	/**
@@ -148,52 +120,11 @@ public class ParserRegistry {
 	}
 
 	/**
-	 * Returns whether the given file is an HTML file, using the current HTML
-	 * file extension setting.
+	 * Returns whether the given file is an HTML file, using the default HTML
+	 * file extensions.
 	 */
 	public static boolean isHTMLFile(File file) {
-		return UtilList.containsEquality(
-				htmlParser.getExtensions(),
-				UtilFile.getExtension(file)
-		);
-	}
-	
-	/**
-	 * Returns whether the given file is an HTML file, using the HTML
-	 * file extension setting stored in <tt>rootScope</tt>.
-	 */
-	public static boolean isHTMLFile(RootScope rootScope, File file) {
-		return UtilList.containsEquality(
-				rootScope.getHtmlExtensions(),
-				UtilFile.getExtension(file)
-		);
-	}
-
-	/**
-	 * Sets which text file extensions should be used when selecting parsers for
-	 * given files. The caller should call <tt>resetExtensions()</tt> at the end
-	 * of the parse process.
-	 */
-	public static void setTextExtensions(String[] extensions) {
-		textParser.setExtensions(extensions);
-	}
-
-	/**
-	 * Sets which HTML file extensions should be used when determining whether a
-	 * given file is an HTML file. The caller should call
-	 * <tt>resetExtensions()</tt> at the end of the parse process.
-	 */
-	public static void setHTMLExtensions(String[] extensions) {
-		htmlParser.setExtensions(extensions);
-	}
-
-	/**
-	 * Resets the text and HTML file extensions to the defaults given by the
-	 * corresponding settings in the preferences.
-	 */
-	public static void resetExtensions() {
-		textParser.setExtensions(Pref.StrArray.TextExtensions.getValue());
-		htmlParser.setExtensions(Pref.StrArray.HTMLExtensions.getValue());
+		return ParserConfig.getDefault().isHTMLFile(file);
 	}
 
 }
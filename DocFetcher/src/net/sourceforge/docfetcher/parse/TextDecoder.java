@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.parse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes text files in bulk, using a <tt>FileChannel</tt> and a
+ * <tt>CharsetDecoder</tt>. The charset of a file is detected from its byte
+ * order mark, if there is one, and otherwise guessed from a sample of its
+ * first bytes: UTF-16 without byte order mark is recognized by its zero
+ * bytes, valid UTF-8 with non-ASCII characters is taken as UTF-8, and
+ * anything else is decoded with the platform's default charset, or with
+ * Windows-1252 if the default charset is a Unicode charset.
+ * <p>
+ * Files are read into a heap buffer rather than memory-mapped: The decoded
+ * text is held in memory anyway, and on Windows, a mapped file can't be
+ * written to or truncated until the mapping has been garbage collected.
+ *
+ * @author Tran Nam Quang
+ */
+public final class TextDecoder {
+
+	/**
+	 * The number of bytes at the beginning of a file from which its charset
+	 * is guessed.
+	 */
+	private static final int SAMPLE_SIZE = 64 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private static final Charset UTF_16BE = Charset.forName("UTF-16BE"); //$NON-NLS-1$
+	private static final Charset UTF_16LE = Charset.forName("UTF-16LE"); //$NON-NLS-1$
+
+	/**
+	 * The result of the charset detection: The detected charset and the
+	 * length of the byte order mark, which is to be skipped.
+	 */
+	private static final class Detection {
+		private final Charset charset;
+		private final int bomLength;
+
+		private Detection(Charset charset, int bomLength) {
+			this.charset = charset;
+			this.bomLength = bomLength;
+		}
+	}
+
+	private TextDecoder() {}
+
+	/**
+	 * Returns the entire text of the given file.
+	 * <p>
+	 * Note: This method may throw an OutOfMemoryError if the file is too big.
+	 *
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static String decode(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too large: " + file.getPath()); //$NON-NLS-1$
+			ByteBuffer bytes = ByteBuffer.allocate((int) size);
+			while (bytes.hasRemaining())
+				if (channel.read(bytes) < 0)
+					break;
+			bytes.flip();
+			Detection detection = detect(bytes);
+			bytes.position(detection.bomLength);
+			return newDecoder(detection.charset).decode(bytes).toString();
+		}
+		catch (CharacterCodingException e) {
+			// Can't happen, since malformed input is replaced
+			throw new IllegalStateException(e);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns a buffered reader for the text of the given file, which must be
+	 * closed after use.
+	 *
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static Reader openReader(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			Detection detection = detect(channel);
+			channel.position(detection.bomLength);
+			return new BufferedReader(new InputStreamReader(in, newDecoder(detection.charset)), 64 * 1024);
+		}
+		catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the charset detected for the given file.
+	 *
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static Charset detectCharset(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return detect(in.getChannel()).charset;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Detects the charset of the file the given channel was opened on from
+	 * its first bytes. Afterwards, the position of the channel is undefined.
+	 */
+	private static Detection detect(FileChannel channel) throws IOException {
+		ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, channel.size()));
+		channel.position(0);
+		while (sample.hasRemaining())
+			if (channel.read(sample) < 0)
+				break;
+		sample.flip();
+		return detect(sample);
+	}
+
+	/**
+	 * Returns a decoder for the given charset that replaces malformed and
+	 * unmappable input instead of failing.
+	 */
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Detects the charset of the bytes between the position and the limit of
+	 * the given buffer, of which at most the first {@link #SAMPLE_SIZE} bytes
+	 * are examined. The position of the buffer is not changed.
+	 */
+	private static Detection detect(ByteBuffer bytes) {
+		int start = bytes.position();
+		int end = start + Math.min(bytes.remaining(), SAMPLE_SIZE);
+
+		// Byte order marks
+		int b0 = end - start > 0 ? bytes.get(start) & 0xFF : -1;
+		int b1 = end - start > 1 ? bytes.get(start + 1) & 0xFF : -1;
+		int b2 = end - start > 2 ? bytes.get(start + 2) & 0xFF : -1;
+		if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF)
+			return new Detection(UTF_8, 3);
+		if (b0 == 0xFE && b1 == 0xFF)
+			return new Detection(UTF_16BE, 2);
+		if (b0 == 0xFF && b1 == 0xFE)
+			return new Detection(UTF_16LE, 2);
+
+		/*
+		 * UTF-16 without byte order mark: Text in Latin scripts has a zero
+		 * byte in every other position, which never happens in 8-bit
+		 * charsets.
+		 */
+		int evenZeros = 0;
+		int oddZeros = 0;
+		for (int i = start; i < end; i++) {
+			if (bytes.get(i) == 0) {
+				if (((i - start) & 1) == 0)
+					evenZeros++;
+				else
+					oddZeros++;
+			}
+		}
+		int pairs = (end - start) / 2;
+		if (pairs > 0) {
+			if (evenZeros > pairs * 0.4 && oddZeros < pairs * 0.1)
+				return new Detection(UTF_16BE, 0);
+			if (oddZeros > pairs * 0.4 && evenZeros < pairs * 0.1)
+				return new Detection(UTF_16LE, 0);
+		}
+
+		// UTF-8 without byte order mark
+		boolean nonAscii = false;
+		boolean validUtf8 = true;
+		for (int i = start; i < end && validUtf8; i++) {
+			int b = bytes.get(i) & 0xFF;
+			if (b < 0x80)
+				continue;
+			nonAscii = true;
+			int n;
+			if (b >= 0xC2 && b <= 0xDF) n = 1;
+			else if (b >= 0xE0 && b <= 0xEF) n = 2;
+			else if (b >= 0xF0 && b <= 0xF4) n = 3;
+			else {
+				validUtf8 = false;
+				break;
+			}
+			for (int j = 1; j <= n; j++) {
+				if (i + j >= end)
+					break; // Sequence cut off by the end of the sample
+				if ((bytes.get(i + j) & 0xC0) != 0x80) {
+					validUtf8 = false;
+					break;
+				}
+			}
+			i += n;
+		}
+		if (nonAscii && validUtf8)
+			return new Detection(UTF_8, 0);
+
+		// Anything else is taken as 8-bit text
+		return new Detection(getDefaultCharset(), 0);
+	}
+
+	/**
+	 * Returns the charset for 8-bit text that isn't valid UTF-8: The
+	 * platform's default charset, unless that is a Unicode charset.
+	 */
+	private static Charset getDefaultCharset() {
+		Charset charset = Charset.defaultCharset();
+		if (! charset.name().toUpperCase().startsWith("UTF")) //$NON-NLS-1$
+			return charset;
+		if (Charset.isSupported("windows-1252")) //$NON-NLS-1$
+			return Charset.forName("windows-1252"); //$NON-NLS-1$
+		return Charset.forName("ISO-8859-1"); //$NON-NLS-1$
+	}
+
+}
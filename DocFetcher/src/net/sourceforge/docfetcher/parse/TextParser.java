@@ -11,33 +11,49 @@
 
 package net.sourceforge.docfetcher.parse;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
 
 import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.model.Document;
 
 /**
+ * A parser for plain text files. The charset of the files is detected by
+ * {@link TextDecoder}.
+ * 
  * @author Tran Nam Quang
  */
 public class TextParser extends Parser {
 	
-	private String[] extensions = Pref.StrArray.TextExtensions.getValue();
+	/**
+	 * Returns a document whose contents are read from the given file while it
+	 * is being indexed, instead of being loaded into memory.
+	 */
+	public Document parse(File file) throws ParseException {
+		try {
+			return new Document(file, TextDecoder.openReader(file));
+		}
+		catch (FileNotFoundException e) {
+			throw new ParseException(file, Msg.file_not_found.value());
+		}
+		catch (IOException e) {
+			throw new ParseException(file, Msg.file_not_readable.value());
+		}
+	}
+	
+	/**
+	 * Returns true, since the contents of the returned documents are read
+	 * while they're being indexed.
+	 */
+	public boolean isStreaming() {
+		return true;
+	}
 	
 	public String renderText(File file) throws ParseException {
-		Reader reader = null;
 		try {
-			StringBuffer sb = new StringBuffer();
-			int c;
-			reader = new FileReader(file); 
-			reader = new BufferedReader(reader);
-			while ((c = reader.read()) != -1)
-				sb.append((char)c);
-			return sb.toString();
+			return TextDecoder.decode(file);
 		}
 		catch (FileNotFoundException e) {
 			throw new ParseException(file, Msg.file_not_found.value());
@@ -45,30 +61,19 @@ public class TextParser extends Parser {
 		catch (IOException e) {
 			throw new ParseException(file, Msg.file_not_readable.value());
 		}
-		finally {
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
 	}
 	
 	public String getFileType() {
 		return Msg.filetype_txt.value();
 	}
 	
-	public String[] getExtensions() {
-		return extensions;
-	}
-	
 	/**
-	 * Sets the file extensions used to identify text files.
+	 * Returns the default text file extensions given by the preferences.
+	 * 
+	 * @see ParserConfig
 	 */
-	public void setExtensions(String[] extensions) {
-		this.extensions = extensions;
+	public String[] getExtensions() {
+		return Pref.StrArray.TextExtensions.getValue();
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An immutable matcher for filenames that matches if at least one of a given
+ * set of regular expressions matches the entire filename. The expressions are
+ * compiled once when the matcher is created.
+ * <p>
+ * Expressions of the common shapes <tt>literal</tt>, <tt>.*literal</tt>,
+ * <tt>literal.*</tt> and <tt>.*literal.*</tt> (e.g. <tt>.*\.bak</tt>) are
+ * not evaluated as regular expressions, but by plain string comparison. An
+ * expression that isn't a valid regular expression is interpreted as a
+ * wildcard pattern with <tt>*</tt> and <tt>?</tt>, e.g. <tt>*.bak</tt>.
+ * Empty expressions are ignored.
+ *
+ * @author Tran Nam Quang
+ */
+public final class FilenameMatcher {
+
+	private static final String META_CHARS = "\\^$.|?*+()[]{}"; //$NON-NLS-1$
+
+	private final Set<String> names = new HashSet<String> ();
+	private final String[] prefixes;
+	private final String[] suffixes;
+	private final String[] infixes;
+	private final Pattern[] patterns;
+
+	/**
+	 * Creates a matcher for the given regular expressions.
+	 */
+	public FilenameMatcher(String... expressions) {
+		List<String> prefixList = new ArrayList<String> ();
+		List<String> suffixList = new ArrayList<String> ();
+		List<String> infixList = new ArrayList<String> ();
+		List<Pattern> patternList = new ArrayList<Pattern> ();
+		for (String expression : expressions) {
+			if (expression == null || expression.length() == 0)
+				continue;
+			try {
+				Pattern.compile(expression);
+			} catch (PatternSyntaxException e) {
+				expression = globToRegex(expression);
+			}
+			boolean leadingWildcard = expression.startsWith(".*"); //$NON-NLS-1$
+			int start = leadingWildcard ? 2 : 0;
+			boolean trailingWildcard = expression.length() - 2 >= start
+				&& expression.endsWith(".*") //$NON-NLS-1$
+				&& ! isEscaped(expression, expression.length() - 2);
+			int end = trailingWildcard ? expression.length() - 2 : expression.length();
+			String literal = toLiteral(expression.substring(start, end));
+			if (literal == null)
+				patternList.add(Pattern.compile(expression));
+			else if (leadingWildcard && trailingWildcard)
+				infixList.add(literal);
+			else if (leadingWildcard)
+				suffixList.add(literal);
+			else if (trailingWildcard)
+				prefixList.add(literal);
+			else
+				names.add(literal);
+		}
+		prefixes = prefixList.toArray(new String[prefixList.size()]);
+		suffixes = suffixList.toArray(new String[suffixList.size()]);
+		infixes = infixList.toArray(new String[infixList.size()]);
+		patterns = patternList.toArray(new Pattern[patternList.size()]);
+	}
+
+	/**
+	 * Returns whether the given filename matches at least one of the
+	 * expressions of this matcher.
+	 */
+	public boolean matches(String filename) {
+		if (names.contains(filename))
+			return true;
+		for (String suffix : suffixes)
+			if (filename.endsWith(suffix))
+				return true;
+		for (String prefix : prefixes)
+			if (filename.startsWith(prefix))
+				return true;
+		for (String infix : infixes)
+			if (filename.indexOf(infix) != -1)
+				return true;
+		for (Pattern pattern : patterns)
+			if (pattern.matcher(filename).matches())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns whether this matcher has no expressions, i.e. never matches.
+	 */
+	public boolean isEmpty() {
+		return names.isEmpty() && prefixes.length == 0 && suffixes.length == 0
+			&& infixes.length == 0 && patterns.length == 0;
+	}
+
+	/**
+	 * Returns the string matched by the given regular expression if the
+	 * latter is a literal, possibly with escaped metacharacters. Otherwise,
+	 * null is returned.
+	 */
+	private static String toLiteral(String regex) {
+		StringBuilder sb = new StringBuilder(regex.length());
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= regex.length())
+					return null;
+				char next = regex.charAt(++i);
+				// Escaped letters and digits are character classes, back references etc.
+				if (Character.isLetterOrDigit(next))
+					return null;
+				sb.append(next);
+			}
+			else if (META_CHARS.indexOf(c) != -1) {
+				return null;
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns whether the character at the given index of the given regular
+	 * expression is preceded by an odd number of backslashes.
+	 */
+	private static boolean isEscaped(String regex, int index) {
+		int n = 0;
+		for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--)
+			n++;
+		return n % 2 == 1;
+	}
+
+	/**
+	 * Converts the given wildcard pattern to a regular expression.
+	 */
+	private static String globToRegex(String glob) {
+		StringBuilder sb = new StringBuilder(glob.length() + 8);
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*')
+				sb.append(".*"); //$NON-NLS-1$
+			else if (c == '?')
+				sb.append('.');
+			else if (META_CHARS.indexOf(c) != -1)
+				sb.append('\\').append(c);
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+}
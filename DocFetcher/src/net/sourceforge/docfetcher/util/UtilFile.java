@@ -41,6 +41,11 @@ import org.eclipse.swt.program.Program;
  */
 public class UtilFile {
 	
+	/**
+	 * Matches the so-called temporary owner files created by MS Word.
+	 */
+	private static final FilenameMatcher msWordTempFiles = new FilenameMatcher("~\\$.*\\.docx?"); //$NON-NLS-1$
+	
 	/**
 	 * A <tt>FileFilter</tt> that filters out everything that is not a
 	 * directory or a symbolic link to a directory.
@@ -161,6 +166,14 @@ public class UtilFile {
 		return parent;
 	}
 
+	/**
+	 * Returns whether the given file is a temporary owner file created by MS
+	 * Word. See bug #2804172 and #2927439.
+	 */
+	public static boolean isMSWordTempFile(File file) {
+		return msWordTempFiles.matches(file.getName());
+	}
+
 	/**
 	 * Returns whether the given file is a link. Returns true if the file
 	 * doesn't exists or if an IOException occured. The link detection is based
@@ -189,7 +202,14 @@ public class UtilFile {
 	 */
 	public static String getHTMLDirBasename(File dir) {
 		if (! dir.isDirectory()) return null;
-		String dirName = dir.getName();
+		return getHTMLDirBasename(dir.getName());
+	}
+
+	/**
+	 * Same as {@link #getHTMLDirBasename(File)}, but takes the name of a
+	 * folder, without checking whether the latter is actually a folder.
+	 */
+	public static String getHTMLDirBasename(String dirName) {
 		for (String suffix : Const.HTML_FOLDER_SUFFIXES) {
 			if (dirName.endsWith(suffix))
 				return dirName.substring(0, dirName.length() - suffix.length());
@@ -22,6 +22,7 @@ import net.sourceforge.docfetcher.enumeration.Font;
 import net.sourceforge.docfetcher.enumeration.Icon;
 import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.model.FileChangeJob;
 import net.sourceforge.docfetcher.model.Job;
 import net.sourceforge.docfetcher.model.RootScope;
 import net.sourceforge.docfetcher.model.ScopeRegistry;
@@ -67,7 +68,13 @@ public class IndexingDialog {
 	private CTabFolder tabFolder;
 	private ToolItem addButton;
 	private Event.Listener<ScopeRegistry> regObserver;
-	private IndexingTab activeTab;
+	
+	/**
+	 * The tabs of the jobs that are currently processed. This is accessed from
+	 * the indexing threads, hence a new array is assigned on each change.
+	 */
+	private volatile IndexingTab[] activeTabs = new IndexingTab[0];
+	
 	private DirectoryDialog directoryDialog;
 	
 	/**
@@ -197,8 +204,12 @@ public class IndexingDialog {
 		}
 		// For update requests only check for queue intersections
 		// Allow duplicate in queue if the existing queue item is being processed
-		else if (scopeReg.intersectsInactiveQueue(newJob.getScope()))
+		else if (scopeReg.intersectsInactiveQueue(newJob.getScope())) {
+			// Changed files can be handed over to a waiting job
+			if (newJob instanceof FileChangeJob)
+				scopeReg.mergeIntoInactiveQueue((FileChangeJob) newJob);
 			return false;
+		}
 		addUncheckedJob(newJob);
 		return true;
 	}
@@ -283,17 +294,18 @@ public class IndexingDialog {
 			}
 		}
 
-		// Find tab that corresponds to current job
-		activeTab = null;
-		Job currentJob = ScopeRegistry.getInstance().getCurrentJob();
+		// Find tabs that correspond to the running jobs
+		List<IndexingTab> newActiveTabs = new ArrayList<IndexingTab> ();
+		Job[] runningJobs = ScopeRegistry.getInstance().getRunningJobs();
 		for (CTabItem tabItem : tabFolder.getItems()) {
 			IndexingTab indexingTab = (IndexingTab) tabItem.getControl();
-			if (indexingTab.getJob() == currentJob) {
-				activeTab = indexingTab;
+			if (UtilList.containsIdentity(runningJobs, indexingTab.getJob())) {
+				newActiveTabs.add(indexingTab);
 				tabItem.setFont(Font.SYSTEM_BOLD.getFont());
 			} else
 				tabItem.setFont(Display.getDefault().getSystemFont());
 		}
+		activeTabs = newActiveTabs.toArray(new IndexingTab[newActiveTabs.size()]);
 
 		// Close window if all tabs and the directory dialog are closed
 		if (tabFolder.getItemCount() == 0 && directoryDialog == null)
@@ -327,7 +339,7 @@ public class IndexingDialog {
 		
 		// Ask for confirmation if the indexing job to be stopped is a full index (re)creation.
 		if (job.isDoRebuild()
-				&& job.equals(ScopeRegistry.getInstance().getCurrentJob())) {
+				&& UtilList.containsEquality(ScopeRegistry.getInstance().getRunningJobs(), job)) {
 			int ans = UtilGUI.showConfirmMsg(Msg.discard_incomplete_index.value());
 			if (ans != SWT.OK) {
 				event.doit = false;
@@ -346,11 +358,13 @@ public class IndexingDialog {
 	private void onIndexingBoxClosed(ShellEvent e) {
 		e.doit = false;
 		ScopeRegistry scopeReg = ScopeRegistry.getInstance();
-		Job job = scopeReg.getCurrentJob();
-		if (job != null && job.isDoRebuild()) {
-			int ans = UtilGUI.showConfirmMsg(Msg.discard_incomplete_index.value());
-			if (ans != SWT.OK)
-				return;
+		for (Job job : scopeReg.getRunningJobs()) {
+			if (job.isDoRebuild()) {
+				int ans = UtilGUI.showConfirmMsg(Msg.discard_incomplete_index.value());
+				if (ans != SWT.OK)
+					return;
+				break;
+			}
 		}
 		
 		scopeReg.getEvtQueueChanged().remove(regObserver); // Suppress observer notification
@@ -401,27 +415,42 @@ public class IndexingDialog {
 	}
 
 	/**
-	 * Appends the given message at the end of the currently active feedback
-	 * textbox.
+	 * Returns the tab of the running job that processes the given
+	 * <tt>RootScope</tt>, or null if there is no such tab.
+	 */
+	private IndexingTab getActiveTab(RootScope rootScope) {
+		for (IndexingTab activeTab : activeTabs)
+			if (activeTab.getJob().getScope() == rootScope)
+				return activeTab;
+		return null;
+	}
+
+	/**
+	 * Appends the given message at the end of the feedback textbox of the job
+	 * that processes the given <tt>RootScope</tt>.
 	 */
-	public void appendInfo(String str) {
+	public void appendInfo(RootScope rootScope, String str) {
+		IndexingTab activeTab = getActiveTab(rootScope);
 		if (activeTab != null)
 			activeTab.appendInfo(str);
 	}
 
 	/**
-	 * Adds a parse exception to the currently active feedback textbox.
+	 * Adds a parse exception to the feedback textbox of the job that processes
+	 * the given <tt>RootScope</tt>.
 	 */
-	public void addError(ParseException error) {
+	public void addError(RootScope rootScope, ParseException error) {
+		IndexingTab activeTab = getActiveTab(rootScope);
 		if (activeTab != null)
 			activeTab.addError(error);
 	}
 
 	/**
-	 * Returns the parse exceptions of the currently active tab, or an empty
-	 * array if no tab is active.
+	 * Returns the parse exceptions of the job that processes the given
+	 * <tt>RootScope</tt>, or an empty array if there is no such job.
 	 */
-	public ParseException[] getErrors() {
+	public ParseException[] getErrors(RootScope rootScope) {
+		IndexingTab activeTab = getActiveTab(rootScope);
 		return activeTab == null ? new ParseException[] {} : activeTab.getErrors();
 	}
 
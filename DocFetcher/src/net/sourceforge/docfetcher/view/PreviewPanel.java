@@ -22,6 +22,7 @@ import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
 import net.sourceforge.docfetcher.model.Document;
 import net.sourceforge.docfetcher.model.RootScope;
+import net.sourceforge.docfetcher.model.TextCache;
 import net.sourceforge.docfetcher.parse.HTMLParser;
 import net.sourceforge.docfetcher.parse.ParseException;
 import net.sourceforge.docfetcher.parse.Parser;
@@ -364,7 +365,7 @@ public class PreviewPanel extends Composite {
 				String text;
 				boolean fileParsed = true;
 				try {
-					text = parser.renderText(file);
+					text = TextCache.getInstance().renderText(file, parser);
 				}
 				catch (ParseException e) {
 					text = Msg.cant_read_file.format(e.getMessage());
@@ -30,9 +30,9 @@ import net.sourceforge.docfetcher.enumeration.Icon;
 import net.sourceforge.docfetcher.enumeration.Key;
 import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.model.FileChangeJob;
 import net.sourceforge.docfetcher.model.FileWrapper;
 import net.sourceforge.docfetcher.model.HTMLPair;
-import net.sourceforge.docfetcher.model.Job;
 import net.sourceforge.docfetcher.model.ResultDocument;
 import net.sourceforge.docfetcher.model.RootScope;
 import net.sourceforge.docfetcher.model.Scope;
@@ -296,6 +296,10 @@ public class ResultPanel extends Composite {
 	 * empty array.
 	 */
 	public void setResults(ResultDocument... results) {
+		// Release the index readers that are only needed by the replaced results
+		if (this.results != null)
+			ResultDocument.release(this.results, results);
+		
 		if (results == null || results.length == 0) {
 			pageIndex = -1;
 			visibleResultCount = 0;
@@ -500,24 +504,31 @@ public class ResultPanel extends Composite {
 		IStructuredSelection sel = (IStructuredSelection) viewer.getSelection();
 		if (sel.isEmpty()) return;
 		Iterator<?> it = sel.iterator();
-		RootScope[] rootScopes = ScopeRegistry.getInstance().getEntries();
+		ScopeRegistry scopeReg = ScopeRegistry.getInstance();
 		int deleteCount = 0; // Counts documents, not files
 		Set<File> filesToDelete = new HashSet<File> ();
-		Set<RootScope> scopesToUpdate = new HashSet<RootScope> ();
+		Map<RootScope, Set<File>> scopesToUpdate = new HashMap<RootScope, Set<File>> ();
 		while (it.hasNext()) {
 			File file = ((ResultDocument) it.next()).getFile();
-			for (RootScope rootScope : rootScopes) {
-				FileWrapper wrapper = rootScope.getFileWrapperDeep(file);
-				if (wrapper == null) continue;
-				filesToDelete.add(wrapper.getFile());
-				if (wrapper instanceof HTMLPair) {
-					File htmlDir = ((HTMLPair) wrapper).getHtmlFolder();
-					if (htmlDir != null) filesToDelete.add(htmlDir);
+			RootScope rootScope = scopeReg.getOwner(file);
+			if (rootScope == null) continue;
+			FileWrapper wrapper = rootScope.getFileWrapperDeep(file);
+			if (wrapper == null) continue;
+			Set<File> changedFiles = scopesToUpdate.get(rootScope);
+			if (changedFiles == null) {
+				changedFiles = new HashSet<File> ();
+				scopesToUpdate.put(rootScope, changedFiles);
+			}
+			filesToDelete.add(wrapper.getFile());
+			changedFiles.add(wrapper.getFile());
+			if (wrapper instanceof HTMLPair) {
+				File htmlDir = ((HTMLPair) wrapper).getHtmlFolder();
+				if (htmlDir != null) {
+					filesToDelete.add(htmlDir);
+					changedFiles.add(htmlDir);
 				}
-				scopesToUpdate.add(rootScope);
-				deleteCount++;
-				break; // Assume only one of the RootScopes contains the file
 			}
+			deleteCount++;
 		}
 		
 		// Ask user whether to proceed
@@ -526,7 +537,7 @@ public class ResultPanel extends Composite {
 		if (ans != SWT.OK) return;
 		
 		Set<File> emptyParents = new HashSet<File> ();
-		DocFetcher.getInstance().setWatchEnabled(false, scopesToUpdate);
+		DocFetcher.getInstance().setWatchEnabled(false, scopesToUpdate.keySet());
 		
 		// Delete files
 		for (File file : filesToDelete) {
@@ -537,12 +548,12 @@ public class ResultPanel extends Composite {
 				emptyParents.add(parent);
 		} 
 		
-		DocFetcher.getInstance().setWatchEnabled(Pref.Bool.WatchFS.getValue(), scopesToUpdate);
+		DocFetcher.getInstance().setWatchEnabled(true, scopesToUpdate.keySet());
 		
 		// Update indexes, but silently
 		IndexingDialog indexingDialog = DocFetcher.getInstance().getIndexingDialog();
-		for (RootScope scope : scopesToUpdate)
-			indexingDialog.addJob(new Job(scope, false, false));
+		for (Map.Entry<RootScope, Set<File>> entry : scopesToUpdate.entrySet())
+			indexingDialog.addJob(new FileChangeJob(entry.getKey(), entry.getValue()));
 		
 		// Tell user about empty folders
 		if (emptyParents.size() > 0) {
@@ -801,6 +812,11 @@ public class ResultPanel extends Composite {
 		public int compare(Object o1, Object o2) {
 			ResultDocument r1 = (ResultDocument) o1;
 			ResultDocument r2 = (ResultDocument) o2;
+			
+			// Sorting by score doesn't need the stored fields of the results
+			if (property == ResultProperty.SCORE)
+				return r1.compareTo(r2) * inverted; // Descending order
+			
 			File f1 = r1.getFile();
 			File f2 = r2.getFile();
 			switch (property) {
@@ -13,16 +13,19 @@ package net.sourceforge.docfetcher.view;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import net.sourceforge.docfetcher.Const;
 import net.sourceforge.docfetcher.DocFetcher;
 import net.sourceforge.docfetcher.enumeration.Key;
 import net.sourceforge.docfetcher.enumeration.Msg;
 import net.sourceforge.docfetcher.enumeration.Pref;
+import net.sourceforge.docfetcher.model.FileChangeJob;
 import net.sourceforge.docfetcher.model.Indexable;
 import net.sourceforge.docfetcher.model.Job;
 import net.sourceforge.docfetcher.model.ResultDocument;
@@ -691,7 +694,7 @@ public class ScopeGroup extends GroupWrapper {
 			// Create folder
 			DocFetcher.getInstance().setWatchEnabled(false, rootScope);
 			boolean success = newFolder.mkdir();
-			DocFetcher.getInstance().setWatchEnabled(Pref.Bool.WatchFS.getValue(), rootScope);
+			DocFetcher.getInstance().setWatchEnabled(true, rootScope);
 			
 			if (! success) {
 				UtilGUI.showErrorMsg(Msg.create_subfolder_failed.value());
@@ -699,7 +702,7 @@ public class ScopeGroup extends GroupWrapper {
 			else {
 				// Update indexes, but silently
 				IndexingDialog indexingDialog = DocFetcher.getInstance().getIndexingDialog();
-				indexingDialog.addJob(new Job(rootScope, false, false));
+				indexingDialog.addJob(new FileChangeJob(rootScope, Collections.singleton(newFolder)));
 			}
 		}
 	}
@@ -737,7 +740,7 @@ public class ScopeGroup extends GroupWrapper {
 			File newFile = new File(parentFile.getAbsolutePath(), input);
 			DocFetcher.getInstance().setWatchEnabled(false, rootScope);
 			boolean success = targetFolder.renameTo(newFile);
-			DocFetcher.getInstance().setWatchEnabled(Pref.Bool.WatchFS.getValue(), rootScope);
+			DocFetcher.getInstance().setWatchEnabled(true, rootScope);
 			if (! success) {
 				UtilGUI.showErrorMsg(Msg.cant_rename_folder.value());
 				return;
@@ -755,7 +758,7 @@ public class ScopeGroup extends GroupWrapper {
 			}
 			else {
 				// Just update the index for non-root folders
-				indexingDialog.addJob(new Job(rootScope, false, false));
+				indexingDialog.addJob(new FileChangeJob(rootScope, Arrays.asList(targetFolder, newFile)));
 				indexingDialog.open();
 			}
 		}
@@ -793,7 +796,7 @@ public class ScopeGroup extends GroupWrapper {
 			if (ans != SWT.OK) return;
 			
 			// Do it
-			Set<Job> jobs = new HashSet<Job> (scopeList.size());
+			Map<RootScope, List<File>> jobs = new LinkedHashMap<RootScope, List<File>> ();
 			for (Scope scope : scopeList) {
 				RootScope rootScope = scope.getRootScope();
 				File targetFolder = scope.getFile();
@@ -804,13 +807,18 @@ public class ScopeGroup extends GroupWrapper {
 				}
 				else {
 					UtilFile.delete(targetFolder, true);
-					DocFetcher.getInstance().setWatchEnabled(Pref.Bool.WatchFS.getValue(), rootScope);
-					jobs.add(new Job(rootScope, false, false));
+					DocFetcher.getInstance().setWatchEnabled(true, rootScope);
+					List<File> deletedFolders = jobs.get(rootScope);
+					if (deletedFolders == null) {
+						deletedFolders = new ArrayList<File> ();
+						jobs.put(rootScope, deletedFolders);
+					}
+					deletedFolders.add(targetFolder);
 				}
 			}
 			IndexingDialog indexingDialog = DocFetcher.getInstance().getIndexingDialog();
-			for (Job job : jobs)
-				indexingDialog.addJob(job);
+			for (Map.Entry<RootScope, List<File>> entry : jobs.entrySet())
+				indexingDialog.addJob(new FileChangeJob(entry.getKey(), entry.getValue()));
 		}
 	}
 	
@@ -878,11 +886,30 @@ public class ScopeGroup extends GroupWrapper {
 			transferDialog.open();
 			transferDialog.transferFiles(files, newParent);
 			
-			DocFetcher.getInstance().setWatchEnabled(Pref.Bool.WatchFS.getValue(), rootScopeToUpdate);
+			DocFetcher.getInstance().setWatchEnabled(true, rootScopeToUpdate);
 			
-			// Update indexes, but silently
+			/*
+			 * Update indexes, but silently: The moved files are added to the
+			 * target index, and removed from the indexes containing them.
+			 */
+			Map<RootScope, List<File>> changes = new LinkedHashMap<RootScope, List<File>> ();
+			List<File> targetFiles = new ArrayList<File> ();
+			changes.put(rootScopeToUpdate, targetFiles);
+			ScopeRegistry scopeReg = ScopeRegistry.getInstance();
+			for (File file : UtilFile.completeHTMLPairs(files)) {
+				targetFiles.add(new File(newParent, file.getName()));
+				RootScope rootScope = scopeReg.getOwner(file);
+				if (rootScope == null) continue;
+				List<File> sourceFiles = changes.get(rootScope);
+				if (sourceFiles == null) {
+					sourceFiles = new ArrayList<File> ();
+					changes.put(rootScope, sourceFiles);
+				}
+				sourceFiles.add(file);
+			}
 			IndexingDialog indexingDialog = DocFetcher.getInstance().getIndexingDialog();
-			indexingDialog.addJob(new Job(rootScopeToUpdate, false, false));
+			for (Map.Entry<RootScope, List<File>> entry : changes.entrySet())
+				indexingDialog.addJob(new FileChangeJob(entry.getKey(), entry.getValue()));
 		}
 	}
 	
@@ -179,36 +179,42 @@ public class DocFetcherSearchBean {
 																.search(this.searchString,
 																		selectedScopes);
 
-				final List<ResultDocument> selected = this.filterDocuments(results);
+				// The beans copy the fields of the results, which can be released afterwards
+				try {
+					final List<ResultDocument> selected = this.filterDocuments(results);
 
-				// TODO Validate filesizes
-				final boolean filterBySize = (this.getMinFileSize() != 0) && (this.getMaxFileSize() != 0);
+					// TODO Validate filesizes
+					final boolean filterBySize = (this.getMinFileSize() != 0) && (this.getMaxFileSize() != 0);
 
-				long minFileSize = 0;
-				long maxFileSize = 0;
+					long minFileSize = 0;
+					long maxFileSize = 0;
 
-				if (filterBySize) {
-					minFileSize = Filesize.KB.convert(	this.getMinFileSize(),
-														Filesize.valueOf(this.getMinFileSizeUnit()));
-					maxFileSize = Filesize.KB.convert(	this.getMaxFileSize(),
-														Filesize.valueOf(this.getMaxFileSizeUnit()));
-				}
+					if (filterBySize) {
+						minFileSize = Filesize.KB.convert(	this.getMinFileSize(),
+															Filesize.valueOf(this.getMinFileSizeUnit()));
+						maxFileSize = Filesize.KB.convert(	this.getMaxFileSize(),
+															Filesize.valueOf(this.getMaxFileSizeUnit()));
+					}
 
-				for (final ResultDocument document : selected) {
-					final SearchResultBean bean = new SearchResultBean(document);
+					for (final ResultDocument document : selected) {
+						final SearchResultBean bean = new SearchResultBean(document);
 
-					if (filterBySize) {
-						final long fileSize = UtilFile.getSizeInKB(document.getFile());
-						if ((fileSize >= minFileSize) && (fileSize <= maxFileSize)) {
+						if (filterBySize) {
+							final long fileSize = UtilFile.getSizeInKB(document.getFile());
+							if ((fileSize >= minFileSize) && (fileSize <= maxFileSize)) {
 
-							this.result.add(bean);
+								this.result.add(bean);
+							}
 						}
-					}
 
-					else {
-						this.result.add(bean);
+						else {
+							this.result.add(bean);
+						}
 					}
 				}
+				finally {
+					ResultDocument.release(results, null);
+				}
 			}
 		}
 		catch (final SearchException e) {